@@ -0,0 +1,154 @@
+package com.github.neothemachine.ardor3d.openctm.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.resource.URLResourceSource;
+import com.github.neothemachine.ardor3d.openctm.OpenCtmImporter;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * Measures the import throughput of {@link OpenCtmImporter} in meshes per
+ * second. The "bytes" counter is the file size read per second. Run with
+ * <code>-prof gc</code> to get the allocation rate.
+ * 
+ * The "teapot" mesh is the bundled reference file, the other meshes are
+ * spheres with roughly the given number of triangles.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+
+	@Param({"teapot", "10k", "100k", "1m", "10m"})
+	public String mesh;
+
+	@Param({"RAW", "MG1", "MG2"})
+	public String encoding;
+
+	private File file;
+	private URLResourceSource resource;
+	private OpenCtmImporter importer;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.bytes = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.file = File.createTempFile("benchmark", ".ctm");
+		if ("teapot".equals(this.mesh)) {
+			String name = "teapot_ref_" + this.encoding.toLowerCase() + ".ctm";
+			try (InputStream input = getClass().getClassLoader().getResourceAsStream(name)) {
+				Files.copy(input, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} else {
+			int samples = (int) Math.sqrt(parseCount(this.mesh) / 2);
+			write(new Sphere("Sphere", samples, samples, 1), encoder(this.encoding), this.file);
+		}
+		this.resource = new URLResourceSource(this.file.toURI().toURL());
+		this.importer = new OpenCtmImporter();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Benchmark
+	public Mesh load(Counters counters) {
+		counters.bytes += this.file.length();
+		return this.importer.load(this.resource);
+	}
+
+	private static int parseCount(String count) {
+		if (count.endsWith("k")) {
+			return Integer.parseInt(count.substring(0, count.length() - 1)) * 1000;
+		} else if (count.endsWith("m")) {
+			return Integer.parseInt(count.substring(0, count.length() - 1)) * 1000000;
+		}
+		return Integer.parseInt(count);
+	}
+
+	private static MeshEncoder encoder(String encoding) {
+		switch (encoding) {
+		case "RAW":
+			return new RawEncoder();
+		case "MG1":
+			return new MG1Encoder();
+		case "MG2":
+			return new MG2Encoder();
+		default:
+			throw new IllegalArgumentException(encoding);
+		}
+	}
+
+	private static void write(Mesh mesh, MeshEncoder encoder, File file) throws Exception {
+		MeshData data = mesh.getMeshData();
+
+		float[] vertices = new float[data.getVertexBuffer().limit()];
+		data.getVertexBuffer().rewind();
+		data.getVertexBuffer().get(vertices);
+
+		float[] normals = new float[data.getNormalBuffer().limit()];
+		data.getNormalBuffer().rewind();
+		data.getNormalBuffer().get(normals);
+
+		float[] uvMap = new float[data.getTextureBuffer(0).limit()];
+		data.getTextureBuffer(0).rewind();
+		data.getTextureBuffer(0).get(uvMap);
+
+		IndexBufferData<?> indexData = data.getIndices();
+		int[] indices = new int[indexData.getBufferLimit()];
+		indexData.asIntBuffer().get(indices);
+
+		AttributeData[] uvMaps = {new AttributeData("", "", 1f / 4096f, uvMap)};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				vertices, normals, indices, uvMaps, new AttributeData[0]);
+		try (OutputStream output = new FileOutputStream(file)) {
+			new CtmFileWriter(output, encoder).encode(ctmMesh, "");
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.github.neothemachine.ardor3d.openctm.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.util.resource.URLResourceSource;
+import com.github.neothemachine.ardor3d.openctm.OpenCtmImporter;
+import com.github.neothemachine.ardor3d.openctm.ReadBufferPool;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileReader;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * Compares decoding straight from an unbuffered {@link FileInputStream},
+ * as <code>new CtmFileReader(new FileInputStream(file))</code> does, with
+ * the pooled block input of {@link OpenCtmImporter} at different block
+ * sizes. Memory mapping is off, so every load streams the file. The
+ * pooled loads also fill the direct buffers of the mesh, which the plain
+ * JOpenCTM decode doesn't, so their advantage is if anything understated.
+ * 
+ * The meshes are the reference teapot repeated side by side the given
+ * number of times.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@State(Scope.Benchmark)
+public class InputBenchmark {
+
+	@Param({"1", "16", "256"})
+	public int copies;
+
+	@Param({"RAW", "MG1", "MG2"})
+	public String encoding;
+
+	@Param({"unbuffered", "pooled-4k", "pooled-64k", "pooled-1m"})
+	public String input;
+
+	private File file;
+	private URLResourceSource resource;
+	private OpenCtmImporter importer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Mesh teapot = new OpenCtmImporter().load(new URLResourceSource(
+				getClass().getClassLoader().getResource("teapot_ref_raw.ctm")));
+		this.file = File.createTempFile("benchmark", ".ctm");
+		write(teapot.getMeshData(), this.copies, encoder(this.encoding), this.file);
+		this.resource = new URLResourceSource(this.file.toURI().toURL());
+		if (this.input.startsWith("pooled-")) {
+			int blockSize = parseSize(this.input.substring("pooled-".length()));
+			this.importer = new OpenCtmImporter().setReadBufferPool(new ReadBufferPool(blockSize, 1));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Benchmark
+	public Object load() throws Exception {
+		if (this.importer == null) {
+			try (InputStream stream = new FileInputStream(this.file)) {
+				return new CtmFileReader(stream).decode();
+			}
+		}
+		return this.importer.load(this.resource);
+	}
+
+	private static int parseSize(String size) {
+		if (size.endsWith("k")) {
+			return Integer.parseInt(size.substring(0, size.length() - 1)) * 1024;
+		} else if (size.endsWith("m")) {
+			return Integer.parseInt(size.substring(0, size.length() - 1)) * 1024 * 1024;
+		}
+		return Integer.parseInt(size);
+	}
+
+	private static MeshEncoder encoder(String encoding) {
+		switch (encoding) {
+		case "RAW":
+			return new RawEncoder();
+		case "MG1":
+			return new MG1Encoder();
+		case "MG2":
+			return new MG2Encoder();
+		default:
+			throw new IllegalArgumentException(encoding);
+		}
+	}
+
+	/**
+	 * Writes the mesh data repeated along the x axis.
+	 */
+	private static void write(MeshData data, int copies, MeshEncoder encoder, File file) throws Exception {
+		float[] vertices = read(data.getVertexBuffer());
+		float[] normals = read(data.getNormalBuffer());
+		float[] uvMap = read(data.getTextureBuffer(0));
+		int[] indices = new int[data.getIndices().getBufferLimit()];
+		data.getIndices().asIntBuffer().get(indices);
+
+		float width = 0;
+		for (int i = 0; i < vertices.length; i += 3) {
+			width = Math.max(width, Math.abs(vertices[i]) * 2);
+		}
+		int vertexCount = vertices.length / 3;
+		float[] allVertices = new float[vertices.length * copies];
+		float[] allNormals = new float[normals.length * copies];
+		float[] allUVMap = new float[uvMap.length * copies];
+		int[] allIndices = new int[indices.length * copies];
+		for (int c = 0; c < copies; c++) {
+			for (int i = 0; i < vertices.length; i++) {
+				allVertices[c * vertices.length + i] = vertices[i] + (i % 3 == 0 ? c * width : 0);
+			}
+			System.arraycopy(normals, 0, allNormals, c * normals.length, normals.length);
+			System.arraycopy(uvMap, 0, allUVMap, c * uvMap.length, uvMap.length);
+			for (int i = 0; i < indices.length; i++) {
+				allIndices[c * indices.length + i] = indices[i] + c * vertexCount;
+			}
+		}
+
+		AttributeData[] uvMaps = {new AttributeData("", "", 1f / 4096f, allUVMap)};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				allVertices, allNormals, allIndices, uvMaps, new AttributeData[0]);
+		try (OutputStream output = new FileOutputStream(file)) {
+			new CtmFileWriter(output, encoder).encode(ctmMesh, "");
+		}
+	}
+
+	private static float[] read(FloatBuffer buffer) {
+		float[] values = new float[buffer.limit()];
+		buffer.rewind();
+		buffer.get(values);
+		return values;
+	}
+
+}
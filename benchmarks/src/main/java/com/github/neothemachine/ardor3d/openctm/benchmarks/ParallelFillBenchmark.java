@@ -0,0 +1,115 @@
+package com.github.neothemachine.ardor3d.openctm.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.resource.URLResourceSource;
+import com.github.neothemachine.ardor3d.openctm.OpenCtmExporter;
+import com.github.neothemachine.ardor3d.openctm.OpenCtmImporter;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.io.CtmFileReader;
+
+/**
+ * Measures the latency of a whole MG1/MG2 load on the loading thread alone
+ * and with fork/join pools of different sizes, which decode the UV maps
+ * while JOpenCTM decodes the rest of the file and fill the buffers
+ * afterwards. The "jopenctm" loads time JOpenCTM decoding the whole file on
+ * one thread.
+ * 
+ * The meshes are spheres with roughly the given number of triangles and the
+ * given number of UV maps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@State(Scope.Benchmark)
+public class ParallelFillBenchmark {
+
+	@Param({"100k", "1m", "10m"})
+	public String mesh;
+
+	@Param({"MG1", "MG2"})
+	public String encoding;
+
+	@Param({"1", "4"})
+	public int uvMaps;
+
+	@Param({"jopenctm", "serial", "pool-4", "pool-32"})
+	public String fill;
+
+	private File file;
+	private URLResourceSource resource;
+	private OpenCtmImporter importer;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.file = File.createTempFile("benchmark", ".ctm");
+		int samples = (int) Math.sqrt(parseCount(this.mesh) / 2);
+		Sphere sphere = new Sphere("Sphere", samples, samples, 1);
+		FloatBufferData uvMap = sphere.getMeshData().getTextureCoords(0);
+		// the exporter only reads the buffer, so the units can share it
+		for (int i = 1; i < this.uvMaps; i++) {
+			sphere.getMeshData().setTextureCoords(uvMap, i);
+		}
+		new OpenCtmExporter().save(sphere, this.file,
+				"MG1".equals(this.encoding) ? new MG1Encoder() : new MG2Encoder());
+		this.resource = new URLResourceSource(this.file.toURI().toURL());
+		this.importer = new OpenCtmImporter();
+		if (this.fill.startsWith("pool-")) {
+			this.pool = new ForkJoinPool(Integer.parseInt(this.fill.substring("pool-".length())));
+			this.importer.setDecodePool(this.pool);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+		this.file.delete();
+	}
+
+	@Benchmark
+	public Object load() throws Exception {
+		if ("jopenctm".equals(this.fill)) {
+			try (InputStream stream = new FileInputStream(this.file)) {
+				return new CtmFileReader(stream).decode();
+			}
+		}
+		return this.importer.load(this.resource);
+	}
+
+	private static int parseCount(String count) {
+		if (count.endsWith("k")) {
+			return Integer.parseInt(count.substring(0, count.length() - 1)) * 1000;
+		} else if (count.endsWith("m")) {
+			return Integer.parseInt(count.substring(0, count.length() - 1)) * 1000000;
+		}
+		return Integer.parseInt(count);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ardor3d.scenegraph.ByteBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.IntBufferData;
+import com.ardor3d.scenegraph.ShortBufferData;
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Allocates the buffers of a single import, from a {@link DirectBufferPool}
+ * if there is one and with {@link BufferUtils} otherwise. All buffers of an
+ * import go through here, so that they can be given back together.
+ */
+final class BufferLease {
+
+	private final DirectBufferPool pool;
+	private final List<ByteBuffer> blocks;
+	/** the buffer handed out for each block */
+	private final List<Buffer> views;
+	private long bytes;
+	/** the registered meshes using the blocks, guarded by the pool */
+	int holders;
+
+	/**
+	 * @param pool
+	 *            the pool to allocate from, or null to allocate new buffers
+	 */
+	BufferLease(final DirectBufferPool pool) {
+		this.pool = pool;
+		this.blocks = pool != null ? new ArrayList<ByteBuffer>() : null;
+		this.views = pool != null ? new ArrayList<Buffer>() : null;
+	}
+
+	DirectBufferPool getPool() {
+		return this.pool;
+	}
+
+	FloatBuffer createFloatBuffer(final int count) {
+		if (this.pool == null) {
+			return BufferUtils.createFloatBuffer(count);
+		}
+		final ByteBuffer block = this.pool.acquire(count * 4);
+		return handOut(block, block.asFloatBuffer());
+	}
+
+	ShortBuffer createShortBuffer(final int count) {
+		if (this.pool == null) {
+			return BufferUtils.createShortBuffer(count);
+		}
+		final ByteBuffer block = this.pool.acquire(count * 2);
+		return handOut(block, block.asShortBuffer());
+	}
+
+	ByteBuffer createByteBuffer(final int count) {
+		if (this.pool == null) {
+			return BufferUtils.createByteBuffer(count);
+		}
+		// a slice, so that the capacity is the requested one
+		final ByteBuffer block = this.pool.acquire(count);
+		return handOut(block, block.slice().order(ByteOrder.nativeOrder()));
+	}
+
+	/**
+	 * @return index buffer data of the narrowest type that holds the given
+	 *         maximum index, like
+	 *         {@link BufferUtils#createIndexBufferData(int, int)}
+	 */
+	IndexBufferData<?> createIndexBufferData(final int count, final int maxIndex) {
+		if (this.pool == null) {
+			return BufferUtils.createIndexBufferData(count, maxIndex);
+		}
+		if (maxIndex < 256) {
+			return new ByteBufferData(createByteBuffer(count));
+		} else if (maxIndex < 65536) {
+			return new ShortBufferData(createShortBuffer(count));
+		}
+		final ByteBuffer block = this.pool.acquire(count * 4);
+		return new IntBufferData(handOut(block, block.asIntBuffer()));
+	}
+
+	/**
+	 * @return the bytes of all blocks taken from the pool
+	 */
+	long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Gives the block of a buffer that was replaced during the import back
+	 * to the pool right away, so that it can be reused before the mesh is
+	 * released. Buffers that don't come from this lease are left alone.
+	 */
+	void giveBack(final Buffer buffer) {
+		if (this.pool == null || buffer == null) {
+			return;
+		}
+		// by identity, buffers with equal contents are still different blocks
+		for (int i = 0; i < this.views.size(); i++) {
+			if (this.views.get(i) == buffer) {
+				this.views.remove(i);
+				final ByteBuffer block = this.blocks.remove(i);
+				this.bytes -= block.capacity();
+				this.pool.giveBack(block);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gives all blocks back to the pool.
+	 */
+	void releaseAll() {
+		if (this.pool == null) {
+			return;
+		}
+		for (final ByteBuffer block : this.blocks) {
+			this.pool.giveBack(block);
+		}
+		this.blocks.clear();
+		this.views.clear();
+		this.bytes = 0;
+	}
+
+	private <B extends Buffer> B handOut(final ByteBuffer block, final B view) {
+		this.blocks.add(block);
+		this.views.add(view);
+		this.bytes += block.capacity();
+		return view;
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.Buffer;
+import java.nio.ShortBuffer;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.NormalFormat;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.TextureFormat;
+
+/**
+ * The vertex attributes of an imported mesh that are stored in a compact
+ * format, see {@link CompactVertexFormat}.
+ * 
+ * Every attribute comes with the maximum absolute error per component that
+ * the compact format introduced. Quantized values are decoded as
+ * <code>value * scale + offset</code>, where value is the normalized
+ * (0..65535) unsigned short.
+ */
+public class CompactVertexData {
+
+	ShortBuffer positions;
+	float[] positionScale;
+	float[] positionOffset;
+	float positionError;
+
+	NormalFormat normalFormat = NormalFormat.FLOAT;
+	Buffer normals;
+	float normalError;
+
+	TextureFormat textureFormat = TextureFormat.FLOAT;
+	final ShortBuffer[] textureCoords;
+	final float[][] textureScale;
+	final float[][] textureOffset;
+	final float[] textureError;
+
+	CompactVertexData(final int textureUnits) {
+		this.textureCoords = new ShortBuffer[textureUnits];
+		this.textureScale = new float[textureUnits][];
+		this.textureOffset = new float[textureUnits][];
+		this.textureError = new float[textureUnits];
+	}
+
+	/**
+	 * @return a copy whose buffers share the memory, but not the position and
+	 *         limit, of the buffers of this one
+	 */
+	CompactVertexData duplicate() {
+		final CompactVertexData copy = new CompactVertexData(this.textureCoords.length);
+		copy.positions = MeshBuffers.duplicate(this.positions);
+		copy.positionScale = this.positionScale;
+		copy.positionOffset = this.positionOffset;
+		copy.positionError = this.positionError;
+		copy.normalFormat = this.normalFormat;
+		copy.normals = MeshBuffers.duplicate(this.normals);
+		copy.normalError = this.normalError;
+		copy.textureFormat = this.textureFormat;
+		for (int unit = 0; unit < this.textureCoords.length; unit++) {
+			copy.textureCoords[unit] = MeshBuffers.duplicate(this.textureCoords[unit]);
+			copy.textureScale[unit] = this.textureScale[unit];
+			copy.textureOffset[unit] = this.textureOffset[unit];
+			copy.textureError[unit] = this.textureError[unit];
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the compact attributes of the given mesh, or null if it has none
+	 */
+	public static CompactVertexData of(final Mesh mesh) {
+		final Object data = mesh.getUserData();
+		return data instanceof CompactVertexData ? (CompactVertexData) data : null;
+	}
+
+	/**
+	 * @return three unsigned normalized shorts per vertex, or null if the
+	 *         positions are stored as floats
+	 */
+	public ShortBuffer getPositions() {
+		return this.positions;
+	}
+
+	public float[] getPositionScale() {
+		return this.positionScale;
+	}
+
+	public float[] getPositionOffset() {
+		return this.positionOffset;
+	}
+
+	public float getPositionError() {
+		return this.positionError;
+	}
+
+	public NormalFormat getNormalFormat() {
+		return this.normalFormat;
+	}
+
+	/**
+	 * @return three signed normalized bytes (a ByteBuffer) or shorts (a
+	 *         ShortBuffer) per vertex, or null if the normals are stored as
+	 *         floats
+	 */
+	public Buffer getNormals() {
+		return this.normals;
+	}
+
+	public float getNormalError() {
+		return this.normalError;
+	}
+
+	public TextureFormat getTextureFormat() {
+		return this.textureFormat;
+	}
+
+	public int getTextureUnitCount() {
+		return this.textureCoords.length;
+	}
+
+	/**
+	 * @return two half floats or unsigned normalized shorts per vertex, or
+	 *         null if the unit is stored as floats
+	 */
+	public ShortBuffer getTextureCoords(final int unit) {
+		return this.textureCoords[unit];
+	}
+
+	/**
+	 * @return the scale per component for {@link TextureFormat#UNSIGNED_SHORT}
+	 */
+	public float[] getTextureScale(final int unit) {
+		return this.textureScale[unit];
+	}
+
+	/**
+	 * @return the offset per component for {@link TextureFormat#UNSIGNED_SHORT}
+	 */
+	public float[] getTextureOffset(final int unit) {
+		return this.textureOffset[unit];
+	}
+
+	public float getTextureError(final int unit) {
+		return this.textureError[unit];
+	}
+
+}
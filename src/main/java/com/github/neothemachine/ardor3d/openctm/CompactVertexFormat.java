@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * Chooses which vertex attributes {@link OpenCtmImporter} stores in a compact
+ * format instead of 32 bit floats.
+ * 
+ * Compact attributes are removed from the {@link com.ardor3d.scenegraph.MeshData}
+ * and handed out as {@link CompactVertexData} instead, e.g. to be bound as
+ * shader attributes.
+ */
+public class CompactVertexFormat {
+
+	public enum NormalFormat {
+		/** 32 bit floats in the normal buffer (default) */
+		FLOAT,
+		/** signed normalized bytes */
+		BYTE,
+		/** signed normalized shorts */
+		SHORT
+	}
+
+	public enum TextureFormat {
+		/** 32 bit floats in the texture buffers (default) */
+		FLOAT,
+		/** IEEE 754 half precision floats */
+		HALF_FLOAT,
+		/** unsigned normalized shorts with a per unit scale and offset */
+		UNSIGNED_SHORT
+	}
+
+	private NormalFormat normalFormat = NormalFormat.FLOAT;
+	private TextureFormat textureFormat = TextureFormat.FLOAT;
+	private boolean quantizedPositions;
+
+	public CompactVertexFormat setNormalFormat(final NormalFormat normalFormat) {
+		this.normalFormat = normalFormat;
+		return this;
+	}
+
+	public NormalFormat getNormalFormat() {
+		return this.normalFormat;
+	}
+
+	public CompactVertexFormat setTextureFormat(final TextureFormat textureFormat) {
+		this.textureFormat = textureFormat;
+		return this;
+	}
+
+	public TextureFormat getTextureFormat() {
+		return this.textureFormat;
+	}
+
+	/**
+	 * @param quantizedPositions
+	 *            whether to store positions as unsigned normalized shorts with
+	 *            a per mesh scale and offset, default is false
+	 */
+	public CompactVertexFormat setQuantizedPositions(final boolean quantizedPositions) {
+		this.quantizedPositions = quantizedPositions;
+		return this;
+	}
+
+	public boolean isQuantizedPositions() {
+		return this.quantizedPositions;
+	}
+
+	/**
+	 * @return an independent format with the same settings
+	 */
+	CompactVertexFormat copy() {
+		return new CompactVertexFormat().setNormalFormat(this.normalFormat)
+				.setTextureFormat(this.textureFormat)
+				.setQuantizedPositions(this.quantizedPositions);
+	}
+
+	/**
+	 * Describes the chosen formats, two formats with the same description
+	 * store the same attributes.
+	 */
+	@Override
+	public String toString() {
+		return "CompactVertexFormat[normals=" + this.normalFormat
+				+ ", textures=" + this.textureFormat
+				+ ", quantizedPositions=" + this.quantizedPositions + "]";
+	}
+
+}
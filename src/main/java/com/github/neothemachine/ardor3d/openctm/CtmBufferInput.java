@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * {@link CtmInput} reading from a buffer holding the whole file, typically a
+ * memory mapped one.
+ * 
+ * If the buffer is direct and the platform is little endian, bulk sections
+ * are handed out as views on the buffer instead of being copied.
+ */
+final class CtmBufferInput extends CtmInput {
+
+	private final ByteBuffer buffer;
+	private final boolean views;
+
+	CtmBufferInput(final ByteBuffer buffer) {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.views = buffer.isDirect()
+				&& ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+	}
+
+	/**
+	 * Maps the given file copy-on-write, so that the views handed out stay
+	 * writable without touching the file.
+	 */
+	static CtmBufferInput map(final File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			return new CtmBufferInput(channel.map(MapMode.PRIVATE, 0, channel.size()));
+		}
+	}
+
+	@Override
+	int readInt() throws IOException {
+		require(4);
+		return this.buffer.getInt();
+	}
+
+	@Override
+	float readFloat() throws IOException {
+		require(4);
+		return this.buffer.getFloat();
+	}
+
+	@Override
+	void readBytes(final byte[] dst, final int offset, final int length)
+			throws IOException {
+		require(length);
+		this.buffer.get(dst, offset, length);
+	}
+
+	@Override
+	void readFloats(final FloatBuffer dst, final int count) throws IOException {
+		dst.put(slice(count * 4L).asFloatBuffer());
+	}
+
+	@Override
+	void readInts(final IntBuffer dst, final int count) throws IOException {
+		dst.put(slice(count * 4L).asIntBuffer());
+	}
+
+	@Override
+	boolean hasViews() {
+		return this.views;
+	}
+
+	@Override
+	FloatBuffer mapFloats(final int count) throws IOException {
+		if (!this.views) {
+			throw new UnsupportedOperationException();
+		}
+		return slice(count * 4L).asFloatBuffer();
+	}
+
+	@Override
+	IntBuffer mapInts(final int count) throws IOException {
+		if (!this.views) {
+			throw new UnsupportedOperationException();
+		}
+		return slice(count * 4L).asIntBuffer();
+	}
+
+	@Override
+	void skip(final long bytes) throws IOException {
+		require(bytes);
+		this.buffer.position(this.buffer.position() + (int) bytes);
+	}
+
+	@Override
+	long bytesRead() {
+		// the remaining stream counts as read as a whole, JOpenCTM consumes
+		// all of it anyway
+		return this.buffer.position();
+	}
+
+	@Override
+	InputStream remainingStream() {
+		final ByteBuffer remaining = this.buffer.slice();
+		this.buffer.position(this.buffer.limit());
+		return new BufferStream(remaining);
+	}
+
+	/**
+	 * @return a little endian view on the next <code>length</code> bytes
+	 */
+	private ByteBuffer slice(final long length) throws IOException {
+		require(length);
+		final ByteBuffer slice = this.buffer.slice();
+		slice.limit((int) length);
+		this.buffer.position(this.buffer.position() + (int) length);
+		return slice.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void require(final long bytes) throws IOException {
+		if (this.buffer.remaining() < bytes) {
+			throw new EOFException("Unexpected end of CTM file");
+		}
+	}
+
+	private static final class BufferStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		BufferStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+			this.buffer.position(this.buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
+
+}
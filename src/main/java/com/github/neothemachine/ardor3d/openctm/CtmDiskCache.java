@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * Directory of decoded MG1/MG2 meshes for
+ * {@link OpenCtmImporter#setDiskCache(CtmDiskCache)}.
+ * 
+ * After a compressed file was decoded, the mesh is stored uncompressed as
+ * RAW OpenCTM payload. Later loads of the same file memory map the cache
+ * entry instead of decoding again. Only resources that resolve to local
+ * files are cached, keyed by their path, modification time and size.
+ * 
+ * Entries are written to a temporary file and then atomically renamed, so
+ * several processes can share the same directory. Opening an entry checks
+ * its header, key and length, which catches entries that were cut short.
+ * Entries also carry a CRC32 of their payload, which is only checked if
+ * {@link #setVerifyChecksums(boolean)} is enabled, as it means reading the
+ * whole entry. Broken entries are deleted and decoded again.
+ */
+public class CtmDiskCache {
+
+	private static final Logger logger = Logger.getLogger(CtmDiskCache.class.getName());
+
+	private static final int MAGIC = CtmFormat.tag("CTMC");
+	private static final int VERSION = 1;
+	private static final int ALIGNMENT = 16;
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private final File directory;
+	private boolean verifyChecksums = false;
+	/** modification times of the entries whose checksum was verified, by key */
+	private final ConcurrentMap<String, Long> verified = new ConcurrentHashMap<String, Long>();
+
+	public CtmDiskCache(final File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * @param verifyChecksums
+	 *            whether to check the CRC32 of an entry the first time this
+	 *            cache opens it, default is false. An entry that is replaced
+	 *            afterwards is checked again.
+	 */
+	public CtmDiskCache setVerifyChecksums(final boolean verifyChecksums) {
+		this.verifyChecksums = verifyChecksums;
+		return this;
+	}
+
+	/**
+	 * @return the RAW payload of the entry, or null if there is no valid one
+	 */
+	CtmInput open(final String key) {
+		final File file = fileOf(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final long lastModified = file.lastModified();
+			final ByteBuffer entry;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel channel = raf.getChannel()) {
+				entry = channel.map(MapMode.PRIVATE, 0, channel.size());
+			}
+			final Long verifiedAt = this.verified.get(key);
+			final boolean verify = this.verifyChecksums
+					&& (verifiedAt == null || verifiedAt.longValue() != lastModified);
+			final ByteBuffer payload = payloadOf(entry, key, verify);
+			if (payload != null) {
+				if (verify) {
+					this.verified.put(key, lastModified);
+				}
+				return new CtmBufferInput(payload);
+			}
+			this.verified.remove(key);
+			logger.warning("Deleting broken cache entry " + file);
+			file.delete();
+		} catch (final IOException e) {
+			logger.log(Level.WARNING, "Unable to read cache entry " + file, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the decoded mesh. Failures are logged only, as the mesh can
+	 * always be decoded again.
+	 */
+	void store(final String key, final darwin.jopenctm.data.Mesh mesh) {
+		File temp = null;
+		try {
+			this.directory.mkdirs();
+			temp = File.createTempFile("entry", ".tmp", this.directory);
+			write(temp, key, mesh);
+			try {
+				Files.move(temp.toPath(), fileOf(key).toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), fileOf(key).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (final Exception e) {
+			logger.log(Level.WARNING, "Unable to store cache entry for " + key, e);
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	private static void write(final File file, final String key,
+			final darwin.jopenctm.data.Mesh mesh) throws Exception {
+		final byte[] keyBytes = key.getBytes(CtmHeader.CHARSET);
+		final int payloadOffset = align(4 * 4 + 2 * 8 + keyBytes.length);
+
+		try (FileOutputStream fileOutput = new FileOutputStream(file)) {
+			final FileChannel channel = fileOutput.getChannel();
+			channel.position(payloadOffset);
+
+			final CRC32 crc = new CRC32();
+			final OutputStream payload = new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel),
+							BLOCK_SIZE), crc);
+			// no comment, so that the sections stay aligned
+			new CtmFileWriter(payload, new RawEncoder()).encode(mesh, "");
+			payload.flush();
+			final long payloadLength = channel.position() - payloadOffset;
+
+			final ByteBuffer header = ByteBuffer.allocate(payloadOffset);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(payloadOffset);
+			header.putInt(keyBytes.length);
+			header.putLong(payloadLength);
+			header.putLong(crc.getValue());
+			header.put(keyBytes);
+			header.clear();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		}
+	}
+
+	/**
+	 * @return the payload of the entry, or null if the entry is broken or
+	 *         belongs to a different key
+	 */
+	private static ByteBuffer payloadOf(final ByteBuffer entry, final String key,
+			final boolean verify) {
+		entry.order(ByteOrder.LITTLE_ENDIAN);
+		if (entry.remaining() < 4 * 4 + 2 * 8 || entry.getInt() != MAGIC
+				|| entry.getInt() != VERSION) {
+			return null;
+		}
+		final int payloadOffset = entry.getInt();
+		final int keyLength = entry.getInt();
+		final long payloadLength = entry.getLong();
+		final long checksum = entry.getLong();
+		if (keyLength < 0 || keyLength > entry.remaining()
+				|| payloadOffset < entry.position() + keyLength
+				|| payloadOffset + payloadLength != entry.limit()) {
+			return null;
+		}
+		final byte[] keyBytes = new byte[keyLength];
+		entry.get(keyBytes);
+		if (!Arrays.equals(keyBytes, key.getBytes(CtmHeader.CHARSET))) {
+			return null;
+		}
+
+		entry.position(payloadOffset);
+		final ByteBuffer payload = entry.slice();
+		if (verify && crcOf(payload.duplicate()) != checksum) {
+			return null;
+		}
+		return payload;
+	}
+
+	private static long crcOf(final ByteBuffer buffer) {
+		final CRC32 crc = new CRC32();
+		final byte[] block = new byte[BLOCK_SIZE];
+		while (buffer.hasRemaining()) {
+			final int n = Math.min(block.length, buffer.remaining());
+			buffer.get(block, 0, n);
+			crc.update(block, 0, n);
+		}
+		return crc.getValue();
+	}
+
+	private File fileOf(final String key) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			final byte[] hash = digest.digest(key.getBytes(CtmHeader.CHARSET));
+			return new File(this.directory, String.format("%040x",
+					new BigInteger(1, hash)) + ".ctmc");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static int align(final int offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+}
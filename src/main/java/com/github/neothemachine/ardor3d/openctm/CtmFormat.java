@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * Constants of the OpenCTM file format (version 5) that are needed to
+ * parse files without going through JOpenCTM.
+ */
+final class CtmFormat {
+
+	static final int FORMAT_VERSION = 5;
+
+	static final int FLAG_NORMALS = 0x00000001;
+
+	static final int OCTM = tag("OCTM");
+	static final int INDX = tag("INDX");
+	static final int VERT = tag("VERT");
+	static final int NORM = tag("NORM");
+	static final int TEXC = tag("TEXC");
+	static final int ATTR = tag("ATTR");
+	static final int MG2H = tag("MG2H");
+	static final int GIDX = tag("GIDX");
+
+	/** size of the MG2H section without its tag */
+	static final int MG2_HEADER_SIZE = 11 * 4;
+
+	/** size of the LZMA properties in front of packed data */
+	static final int LZMA_PROPS_SIZE = 5;
+
+	private CtmFormat() {
+	}
+
+	/**
+	 * Converts a (max. 4 character) tag name to the little endian integer
+	 * that is stored in the file.
+	 */
+	static int tag(final String name) {
+		int tag = 0;
+		for (int i = 0; i < name.length(); i++) {
+			tag |= (name.charAt(i) & 0xff) << (8 * i);
+		}
+		return tag;
+	}
+
+	static String tagName(final int tag) {
+		final StringBuilder name = new StringBuilder(4);
+		for (int i = 0; i < 4; i++) {
+			final char c = (char) ((tag >>> (8 * i)) & 0xff);
+			if (c != 0) {
+				name.append(c);
+			}
+		}
+		return name.toString();
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * The file header of an OpenCTM file, i.e. everything in front of the first
+ * data section.
+ */
+final class CtmHeader {
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	final int formatVersion;
+	final CtmMethod method;
+	final int vertexCount;
+	final int triangleCount;
+	final int uvMapCount;
+	final int attributeMapCount;
+	final int flags;
+	final String comment;
+
+	private CtmHeader(final int formatVersion, final CtmMethod method,
+			final int vertexCount, final int triangleCount,
+			final int uvMapCount, final int attributeMapCount, final int flags,
+			final String comment) {
+		this.formatVersion = formatVersion;
+		this.method = method;
+		this.vertexCount = vertexCount;
+		this.triangleCount = triangleCount;
+		this.uvMapCount = uvMapCount;
+		this.attributeMapCount = attributeMapCount;
+		this.flags = flags;
+		this.comment = comment;
+	}
+
+	static CtmHeader read(final CtmInput in) throws IOException {
+		if (in.readInt() != CtmFormat.OCTM) {
+			throw new IOException("The CTM file doesn't start with the OCTM tag");
+		}
+		final int formatVersion = in.readInt();
+		final int methodTag = in.readInt();
+		final CtmMethod method = CtmMethod.forTag(methodTag);
+		if (method == null) {
+			throw new IOException("Unknown compression method '"
+					+ CtmFormat.tagName(methodTag) + "'");
+		}
+		final int vertexCount = in.readInt();
+		final int triangleCount = in.readInt();
+		final int uvMapCount = in.readInt();
+		final int attributeMapCount = in.readInt();
+		final int flags = in.readInt();
+		final String comment = in.readString();
+
+		if (vertexCount < 0 || triangleCount < 0 || uvMapCount < 0
+				|| attributeMapCount < 0) {
+			throw new IOException("Invalid element counts in CTM header");
+		}
+
+		return new CtmHeader(formatVersion, method, vertexCount,
+				triangleCount, uvMapCount, attributeMapCount, flags, comment);
+	}
+
+	boolean hasNormals() {
+		return (this.flags & CtmFormat.FLAG_NORMALS) != 0;
+	}
+
+	/**
+	 * Encodes this header again, so that the rest of the file can be handed
+	 * to JOpenCTM after the header was parsed by us.
+	 */
+	byte[] toByteArray() {
+		return toByteArray(this.uvMapCount, this.attributeMapCount, this.flags);
+	}
+
+	/**
+	 * Encodes this header for a file that leaves out some of the UV maps,
+	 * attribute maps or normals.
+	 */
+	byte[] toByteArray(final int uvMapCount, final int attributeMapCount,
+			final int flags) {
+		final byte[] commentBytes = this.comment.getBytes(CHARSET);
+		final ByteBuffer buffer = ByteBuffer.allocate(9 * 4 + commentBytes.length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(CtmFormat.OCTM);
+		buffer.putInt(this.formatVersion);
+		buffer.putInt(this.method.tag);
+		buffer.putInt(this.vertexCount);
+		buffer.putInt(this.triangleCount);
+		buffer.putInt(uvMapCount);
+		buffer.putInt(attributeMapCount);
+		buffer.putInt(flags);
+		buffer.putInt(commentBytes.length);
+		buffer.put(commentBytes);
+		return buffer.array();
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * Gets notified while a mesh is imported, so that parts of it can be used
+ * before the whole file was read.
+ * 
+ * The listener is called on the loading thread. The mesh must not be
+ * modified, and any other thread using its buffers needs to synchronize
+ * with the listener. Buffers of stages that have not completed yet may
+ * hold garbage or may not be set at all.
+ */
+public interface CtmImportListener {
+
+	/**
+	 * @param mesh
+	 *            the mesh being imported
+	 * @param stage
+	 *            the stage that completed
+	 * @param index
+	 *            the texture unit the map was stored in for
+	 *            {@link ImportStage#UV_MAP} and
+	 *            {@link ImportStage#ATTRIBUTE_MAP}, -1 for an attribute map
+	 *            that was stored as the color buffer, otherwise 0
+	 */
+	void stageCompleted(Mesh mesh, ImportStage stage, int index);
+
+}
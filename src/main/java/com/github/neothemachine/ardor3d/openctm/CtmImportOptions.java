@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Chooses which sections of an OpenCTM file {@link OpenCtmImporter} turns
+ * into buffers, by default all of them.
+ * 
+ * Skipped sections of RAW files are skipped over in the input. Skipped
+ * normals, UV maps and attribute maps of MG1 and MG2 files are skipped
+ * over before JOpenCTM decodes the rest, unless a {@link CtmDiskCache} is
+ * used. JOpenCTM always needs the indices and vertices, so these are
+ * decoded anyway, but get no buffers when skipped. UV maps keep their
+ * texture unit even if maps in front of them are skipped.
+ */
+public class CtmImportOptions {
+
+	private boolean indices = true;
+	private boolean vertices = true;
+	private boolean normals = true;
+	private boolean uvMaps = true;
+	private final Map<Integer, Boolean> uvMap = new TreeMap<Integer, Boolean>();
+	private boolean attributeMaps = true;
+	private final Map<String, Boolean> attributeMap = new TreeMap<String, Boolean>();
+
+	/**
+	 * @return options that only import indices and vertices, e.g. for
+	 *         collision detection
+	 */
+	public static CtmImportOptions geometryOnly() {
+		return new CtmImportOptions().setNormals(false).setUVMaps(false)
+				.setAttributeMaps(false);
+	}
+
+	public CtmImportOptions setIndices(final boolean indices) {
+		this.indices = indices;
+		return this;
+	}
+
+	public boolean isIndices() {
+		return this.indices;
+	}
+
+	public CtmImportOptions setVertices(final boolean vertices) {
+		this.vertices = vertices;
+		return this;
+	}
+
+	public boolean isVertices() {
+		return this.vertices;
+	}
+
+	public CtmImportOptions setNormals(final boolean normals) {
+		this.normals = normals;
+		return this;
+	}
+
+	public boolean isNormals() {
+		return this.normals;
+	}
+
+	/**
+	 * Sets whether UV maps are imported unless set for a single map.
+	 */
+	public CtmImportOptions setUVMaps(final boolean uvMaps) {
+		this.uvMaps = uvMaps;
+		return this;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the UV map in the file
+	 */
+	public CtmImportOptions setUVMap(final int index, final boolean load) {
+		this.uvMap.put(index, load);
+		return this;
+	}
+
+	public boolean isUVMap(final int index) {
+		final Boolean load = this.uvMap.get(index);
+		return load != null ? load : this.uvMaps;
+	}
+
+	/**
+	 * Sets whether attribute maps are imported unless set for a single map.
+	 * Attribute maps are only imported at all if they have a target, see
+	 * {@link OpenCtmImporter#setAttributeMapping(String, int)}.
+	 */
+	public CtmImportOptions setAttributeMaps(final boolean attributeMaps) {
+		this.attributeMaps = attributeMaps;
+		return this;
+	}
+
+	/**
+	 * @param name
+	 *            the name of the attribute map in the file
+	 */
+	public CtmImportOptions setAttributeMap(final String name, final boolean load) {
+		this.attributeMap.put(name, load);
+		return this;
+	}
+
+	public boolean isAttributeMap(final String name) {
+		final Boolean load = this.attributeMap.get(name);
+		return load != null ? load : this.attributeMaps;
+	}
+
+	/**
+	 * @return independent options that import the same sections
+	 */
+	CtmImportOptions copy() {
+		final CtmImportOptions copy = new CtmImportOptions();
+		copy.indices = this.indices;
+		copy.vertices = this.vertices;
+		copy.normals = this.normals;
+		copy.uvMaps = this.uvMaps;
+		copy.uvMap.putAll(this.uvMap);
+		copy.attributeMaps = this.attributeMaps;
+		copy.attributeMap.putAll(this.attributeMap);
+		return copy;
+	}
+
+	/**
+	 * Describes the chosen sections, two options with the same description
+	 * import the same sections.
+	 */
+	@Override
+	public String toString() {
+		return "CtmImportOptions[indices=" + this.indices
+				+ ", vertices=" + this.vertices
+				+ ", normals=" + this.normals
+				+ ", uvMaps=" + this.uvMaps + this.uvMap
+				+ ", attributeMaps=" + this.attributeMaps + this.attributeMap + "]";
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.ardor3d.scenegraph.IndexBufferData;
+
+/**
+ * Little endian reader for the primitive values an OpenCTM file is made of.
+ * 
+ * Bulk values are written straight into the given (direct) target buffers,
+ * so no intermediate arrays of the size of the mesh are needed.
+ */
+abstract class CtmInput implements Closeable {
+
+	abstract int readInt() throws IOException;
+
+	abstract float readFloat() throws IOException;
+
+	/**
+	 * Reads <code>length</code> bytes into <code>dst</code>, starting at
+	 * <code>offset</code>.
+	 */
+	abstract void readBytes(byte[] dst, int offset, int length) throws IOException;
+
+	void readBytes(final byte[] dst) throws IOException {
+		readBytes(dst, 0, dst.length);
+	}
+
+	/**
+	 * Reads <code>count</code> floats and puts them at the current position
+	 * of <code>dst</code>.
+	 */
+	abstract void readFloats(FloatBuffer dst, int count) throws IOException;
+
+	/**
+	 * Reads <code>count</code> ints and puts them at the current position of
+	 * <code>dst</code>.
+	 */
+	abstract void readInts(IntBuffer dst, int count) throws IOException;
+
+	/**
+	 * @return whether bulk sections can be read as views with
+	 *         {@link #mapFloats(int)} and {@link #mapInts(int)}
+	 */
+	boolean hasViews() {
+		return false;
+	}
+
+	/**
+	 * Reads <code>count</code> floats as a view on the underlying data.
+	 * 
+	 * @see #hasViews()
+	 */
+	FloatBuffer mapFloats(final int count) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Reads <code>count</code> ints as a view on the underlying data.
+	 * 
+	 * @see #hasViews()
+	 */
+	IntBuffer mapInts(final int count) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Reads <code>count</code> ints and puts them at the current position of
+	 * <code>dst</code>, narrowing them if needed.
+	 * 
+	 * @param vertexCount
+	 *            the number of vertices, used to validate the indices
+	 */
+	void readIndices(final IndexBufferData<?> dst, final int count,
+			final int vertexCount) throws IOException {
+		if (dst.getBuffer() instanceof IntBuffer) {
+			final IntBuffer buffer = (IntBuffer) dst.getBuffer();
+			final int from = buffer.position();
+			readInts(buffer, count);
+			checkIndices(buffer, from, from + count, vertexCount);
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			final int index = readInt();
+			if (index < 0 || index >= vertexCount) {
+				throw new IOException("Invalid index " + index);
+			}
+			dst.put(index);
+		}
+	}
+
+	/**
+	 * Makes sure that the indices between <code>from</code> and
+	 * <code>to</code> refer to existing vertices.
+	 */
+	static void checkIndices(final IntBuffer indices, final int from,
+			final int to, final int vertexCount) throws IOException {
+		for (int i = from; i < to; i++) {
+			final int index = indices.get(i);
+			if (index < 0 || index >= vertexCount) {
+				throw new IOException("Invalid index " + index);
+			}
+		}
+	}
+
+	abstract void skip(long bytes) throws IOException;
+
+	/**
+	 * @return the number of bytes taken from the underlying source so far,
+	 *         including those read through {@link #remainingStream()}
+	 */
+	abstract long bytesRead();
+
+	/**
+	 * @return a stream of all bytes that haven't been read yet. This input
+	 *         must not be used afterwards, except for closing it.
+	 */
+	abstract InputStream remainingStream() throws IOException;
+
+	/**
+	 * Releases the underlying source. Views handed out before stay valid.
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+
+	String readString() throws IOException {
+		final int length = readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length " + length);
+		}
+		final byte[] bytes = new byte[length];
+		readBytes(bytes);
+		return new String(bytes, CtmHeader.CHARSET);
+	}
+
+	void readTag(final int expected) throws IOException {
+		final int tag = readInt();
+		if (tag != expected) {
+			throw new IOException("Expected section '"
+					+ CtmFormat.tagName(expected) + "' but found '"
+					+ CtmFormat.tagName(tag) + "'");
+		}
+	}
+
+}
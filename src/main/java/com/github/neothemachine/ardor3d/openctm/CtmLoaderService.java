@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.ResourceSource;
+
+/**
+ * Thread-safe loader for ".ctm" resources that any number of threads can
+ * share.
+ * 
+ * Loads run on a pool of workers with a single {@link OpenCtmImporter},
+ * so its read buffer pool, decode pool and caches serve all of them.
+ * Identical requests that are in flight at the same time share one
+ * decode. Every caller gets a mesh of its own, and the meshes of callers
+ * sharing a decode share their buffers like meshes from a
+ * {@link CtmMeshCache} do.
+ * 
+ * If the importer has a {@link DirectBufferPool}, each caller's mesh is
+ * registered with it and is released on its own. The shared buffers go back
+ * to the pool once all of them were released. Every future then has to be
+ * either cancelled or got, so that the decode isn't held on to.
+ */
+public class CtmLoaderService {
+
+	private static final String EXTENSION = ".ctm";
+
+	private final OpenCtmImporter importer;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final ConcurrentMap<String, Request> inFlight = new ConcurrentHashMap<String, Request>();
+	private final AtomicLong deduplicated = new AtomicLong();
+
+	/**
+	 * Loads on a pool of daemon threads, one per processor, that is shut down
+	 * by {@link #shutdown()}.
+	 */
+	public CtmLoaderService(final OpenCtmImporter importer) {
+		this(importer, Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), new WorkerFactory()), true);
+	}
+
+	/**
+	 * @param importer
+	 *            the importer used for every load, including its model locator
+	 * @param executor
+	 *            the executor the loads run on, which is left running by
+	 *            {@link #shutdown()}
+	 */
+	public CtmLoaderService(final OpenCtmImporter importer, final ExecutorService executor) {
+		this(importer, executor, false);
+	}
+
+	private CtmLoaderService(final OpenCtmImporter importer,
+			final ExecutorService executor, final boolean ownsExecutor) {
+		this.importer = importer;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	/**
+	 * @return whether the named resource is an OpenCTM file, judging by its
+	 *         extension
+	 */
+	public boolean canLoad(final String resource) {
+		return resource.toLowerCase(Locale.ENGLISH).endsWith(EXTENSION);
+	}
+
+	/**
+	 * Loads the named resource, which is located on a worker.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find
+	 * @return the future mesh. Cancelling it aborts the decode only if no
+	 *         other caller is waiting for it.
+	 */
+	public Future<Mesh> submit(final String resource) {
+		final OpenCtmImporter importer = this.importer;
+		return submit("name:" + resource, new Loader() {
+			@Override
+			public Mesh load(final ImportContext context) {
+				context.checkCancelled();
+				return importer.load(importer.locate(resource, context), context);
+			}
+		});
+	}
+
+	/**
+	 * Loads the given resource. Resources that resolve to the same local
+	 * file share a decode, other resources do if they have the same name.
+	 * 
+	 * @see #submit(String)
+	 */
+	public Future<Mesh> submit(final ResourceSource resource) {
+		if (resource == null) {
+			throw new NullPointerException("Unable to load null resource");
+		}
+		final String fileKey = OpenCtmImporter.resourceKey(resource);
+		final OpenCtmImporter importer = this.importer;
+		return submit(fileKey != null ? "file:" + fileKey : "source:" + resource.getName(),
+				new Loader() {
+					@Override
+					public Mesh load(final ImportContext context) {
+						return importer.load(resource, context);
+					}
+				});
+	}
+
+	/**
+	 * Loads the named resource and waits for it.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find
+	 */
+	public Mesh load(final String resource) throws InterruptedException {
+		return get(submit(resource));
+	}
+
+	/**
+	 * Loads the given resource and waits for it.
+	 */
+	public Mesh load(final ResourceSource resource) throws InterruptedException {
+		return get(submit(resource));
+	}
+
+	/**
+	 * @return the number of decodes that are running or waiting for a worker
+	 */
+	public int getInFlightCount() {
+		return this.inFlight.size();
+	}
+
+	/**
+	 * @return the number of requests that joined a decode which was already
+	 *         in flight
+	 */
+	public long getDeduplicatedCount() {
+		return this.deduplicated.get();
+	}
+
+	/**
+	 * Stops the workers once the submitted loads are done, if the service
+	 * created them.
+	 */
+	public void shutdown() {
+		if (this.ownsExecutor) {
+			this.executor.shutdown();
+		}
+	}
+
+	private Future<Mesh> submit(final String key, final Loader loader) {
+		while (true) {
+			final Request running = this.inFlight.get(key);
+			if (running != null && running.join()) {
+				this.deduplicated.incrementAndGet();
+				return new Handle(running);
+			}
+			final Request request = new Request(key, new ImportContext(), loader);
+			final Request existing = this.inFlight.putIfAbsent(key, request);
+			if (existing == null) {
+				this.executor.execute(request);
+				return new Handle(request);
+			}
+			if (existing.join()) {
+				this.deduplicated.incrementAndGet();
+				return new Handle(existing);
+			}
+			// every caller of the existing decode cancelled it
+			this.inFlight.remove(key, existing);
+		}
+	}
+
+	private static Mesh get(final Future<Mesh> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private interface Loader {
+		Mesh load(ImportContext context);
+	}
+
+	/**
+	 * A decode shared by all callers that joined it.
+	 */
+	private final class Request extends FutureTask<Mesh> {
+
+		private final String key;
+		private final ImportContext context;
+		/**
+		 * the callers that neither cancelled nor took their mesh yet, 0 once
+		 * no one can join anymore
+		 */
+		private final AtomicInteger callers = new AtomicInteger(1);
+
+		Request(final String key, final ImportContext context, final Loader loader) {
+			super(new Callable<Mesh>() {
+				@Override
+				public Mesh call() {
+					return loader.load(context);
+				}
+			});
+			this.key = key;
+			this.context = context;
+		}
+
+		/**
+		 * @return false if the decode was cancelled by all of its callers
+		 */
+		boolean join() {
+			while (true) {
+				final int count = this.callers.get();
+				if (count <= 0) {
+					return false;
+				}
+				if (this.callers.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Cancels the decode once the last caller left.
+		 */
+		void leave(final boolean mayInterruptIfRunning) {
+			if (this.callers.decrementAndGet() == 0) {
+				this.context.cancel();
+				if (!cancel(mayInterruptIfRunning)) {
+					// finished in the meantime
+					releaseDecoded();
+				}
+			}
+		}
+
+		/**
+		 * Called once a caller registered its own mesh, releases the decoded
+		 * one after the last caller did.
+		 */
+		void claimed() {
+			if (this.callers.decrementAndGet() == 0) {
+				releaseDecoded();
+			}
+		}
+
+		/**
+		 * Gives up the hold of the decoded mesh on the buffer pool, which the
+		 * meshes of the callers don't need anymore.
+		 */
+		private void releaseDecoded() {
+			if (isCancelled()) {
+				return;
+			}
+			final Mesh mesh;
+			try {
+				mesh = get();
+			} catch (final ExecutionException e) {
+				// nothing was registered
+				return;
+			} catch (final InterruptedException e) {
+				// can't happen, the decode is done
+				Thread.currentThread().interrupt();
+				return;
+			}
+			final DirectBufferPool pool = this.context.getBufferPool();
+			if (pool != null) {
+				pool.release(mesh);
+			}
+		}
+
+		@Override
+		protected void done() {
+			CtmLoaderService.this.inFlight.remove(this.key, this);
+		}
+	}
+
+	/**
+	 * The future of a single caller, giving it a mesh of its own.
+	 */
+	private static final class Handle implements Future<Mesh> {
+
+		private final Request request;
+		private volatile boolean cancelled;
+		private Mesh mesh;
+
+		Handle(final Request request) {
+			this.request = request;
+		}
+
+		@Override
+		public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+			if (this.cancelled || this.request.isDone()) {
+				return false;
+			}
+			this.cancelled = true;
+			this.request.leave(mayInterruptIfRunning);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return this.cancelled || this.request.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return this.cancelled || this.request.isDone();
+		}
+
+		@Override
+		public Mesh get() throws InterruptedException, ExecutionException {
+			checkCancelled();
+			return own(this.request.get());
+		}
+
+		@Override
+		public Mesh get(final long timeout, final TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			checkCancelled();
+			return own(this.request.get(timeout, unit));
+		}
+
+		private void checkCancelled() {
+			if (this.cancelled) {
+				throw new CancellationException("Load was cancelled");
+			}
+		}
+
+		private synchronized Mesh own(final Mesh shared) {
+			if (this.mesh == null) {
+				this.mesh = MeshBuffers.share(shared);
+				final DirectBufferPool pool = this.request.context.getBufferPool();
+				if (pool != null) {
+					pool.share(shared, this.mesh);
+				}
+				this.request.claimed();
+			}
+			return this.mesh;
+		}
+	}
+
+	private static final class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "ctm-loader-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.ardor3d.bounding.BoundingVolume;
+import com.ardor3d.renderer.Camera;
+import com.ardor3d.renderer.Renderer;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.Node;
+import com.ardor3d.scenegraph.Spatial;
+
+/**
+ * A node that draws one of its children, the levels of detail of a mesh,
+ * depending on the distance between the current camera and the center of
+ * its world bound. Level 0 is the most detailed one.
+ * 
+ * @see LodGenerator
+ */
+public class CtmLodNode extends Node {
+
+	private final double[] switchDistances;
+	private int activeLevel;
+
+	/**
+	 * @param levels
+	 *            the levels, most detailed first
+	 * @param switchDistances
+	 *            ascending distances from which on the next level is drawn,
+	 *            one less than there are levels
+	 */
+	public CtmLodNode(final String name, final List<Mesh> levels,
+			final double[] switchDistances) {
+		super(name);
+		if (switchDistances.length != levels.size() - 1) {
+			throw new IllegalArgumentException("Need " + (levels.size() - 1)
+					+ " switch distances for " + levels.size() + " levels");
+		}
+		this.switchDistances = switchDistances.clone();
+		for (final Mesh level : levels) {
+			attachChild(level);
+		}
+	}
+
+	public int getLevelCount() {
+		return getNumberOfChildren();
+	}
+
+	public Mesh getLevel(final int level) {
+		return (Mesh) getChild(level);
+	}
+
+	public double[] getSwitchDistances() {
+		return this.switchDistances.clone();
+	}
+
+	/**
+	 * @return the level that was drawn last
+	 */
+	public int getActiveLevel() {
+		return this.activeLevel;
+	}
+
+	/**
+	 * @return the level to draw at the given distance
+	 */
+	public int selectLevel(final double distance) {
+		int level = 0;
+		while (level < this.switchDistances.length && distance >= this.switchDistances[level]) {
+			level++;
+		}
+		return level;
+	}
+
+	@Override
+	public void draw(final Renderer r) {
+		final Camera camera = Camera.getCurrentCamera();
+		final BoundingVolume bound = getWorldBound();
+		if (camera != null && bound != null) {
+			this.activeLevel = Math.min(selectLevel(camera.getLocation().distance(
+					bound.getCenter())), getNumberOfChildren() - 1);
+		}
+		final Spatial child = getChild(this.activeLevel);
+		if (child != null) {
+			child.onDraw(r);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CtmLodNode[" + getName() + ", levels=" + getLevelCount()
+				+ ", switchDistances=" + Arrays.toString(this.switchDistances) + "]";
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * Cache of decoded meshes for {@link OpenCtmImporter#setMeshCache(CtmMeshCache)}.
+ * 
+ * Every cache hit returns a new {@link Mesh} whose mesh data shares the
+ * buffers of the cached mesh, so the buffers must be treated as read-only.
+ * Only resources that resolve to local files are cached. They are keyed by
+ * their path, modification time and size, so changed files are decoded
+ * again. The least recently used meshes are evicted once the buffers of all
+ * cached meshes exceed the byte budget.
+ * 
+ * A cache may be shared by differently configured importers. Every setting
+ * that changes the imported mesh is part of the key, so meshes are only
+ * handed out to importers with the same settings.
+ */
+public class CtmMeshCache {
+
+	private final long budget;
+	private final Map<String, Mesh> meshes = new LinkedHashMap<String, Mesh>(16, 0.75f, true);
+	private final Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param budget
+	 *            the maximum number of bytes the buffers of all cached meshes
+	 *            may occupy
+	 */
+	public CtmMeshCache(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return a new mesh sharing the buffers of the cached one, or null
+	 */
+	synchronized Mesh get(final String key) {
+		final Mesh mesh = this.meshes.get(key);
+		if (mesh == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return MeshBuffers.share(mesh);
+	}
+
+	synchronized void put(final String key, final Mesh mesh) {
+		final long meshSize = MeshBuffers.byteSize(mesh);
+		if (meshSize > this.budget) {
+			return;
+		}
+		remove(key);
+		this.meshes.put(key, MeshBuffers.share(mesh));
+		this.sizes.put(key, meshSize);
+		this.size += meshSize;
+
+		final Iterator<String> eldest = this.meshes.keySet().iterator();
+		while (this.size > this.budget) {
+			final String evicted = eldest.next();
+			eldest.remove();
+			this.size -= this.sizes.remove(evicted);
+			this.evictions.incrementAndGet();
+		}
+	}
+
+	private void remove(final String key) {
+		if (this.meshes.remove(key) != null) {
+			this.size -= this.sizes.remove(key);
+		}
+	}
+
+	public synchronized void clear() {
+		this.meshes.clear();
+		this.sizes.clear();
+		this.size = 0;
+	}
+
+	public long getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * @return the number of bytes the buffers of all cached meshes occupy
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	public synchronized int getMeshCount() {
+		return this.meshes.size();
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "CtmMeshCache [size=" + getSize() + ", budget=" + this.budget
+				+ ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+}
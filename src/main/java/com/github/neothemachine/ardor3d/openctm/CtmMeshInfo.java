@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metadata of an OpenCTM file, as returned by
+ * {@link OpenCtmImporter#probe(com.ardor3d.util.resource.ResourceSource)}.
+ * 
+ * It is read from the file header and the headers of the data sections,
+ * the data itself is skipped without being decoded.
+ */
+public class CtmMeshInfo {
+
+	private final String name;
+	private final CtmHeader header;
+	private final List<String> uvMapNames;
+	private final List<String> uvMapFileNames;
+	private final List<String> attributeMapNames;
+
+	private CtmMeshInfo(final String name, final CtmHeader header,
+			final List<String> uvMapNames, final List<String> uvMapFileNames,
+			final List<String> attributeMapNames) {
+		this.name = name;
+		this.header = header;
+		this.uvMapNames = Collections.unmodifiableList(uvMapNames);
+		this.uvMapFileNames = Collections.unmodifiableList(uvMapFileNames);
+		this.attributeMapNames = Collections.unmodifiableList(attributeMapNames);
+	}
+
+	/**
+	 * Reads the section headers following the given file header. Section
+	 * names are only known for the current format version, older files
+	 * report none.
+	 */
+	static CtmMeshInfo read(final String name, final CtmHeader header,
+			final CtmInput in) throws IOException {
+		final List<String> uvMapNames = new ArrayList<String>(header.uvMapCount);
+		final List<String> uvMapFileNames = new ArrayList<String>(header.uvMapCount);
+		final List<String> attributeMapNames = new ArrayList<String>(header.attributeMapCount);
+		if (header.formatVersion != CtmFormat.FORMAT_VERSION) {
+			return new CtmMeshInfo(name, header, uvMapNames, uvMapFileNames, attributeMapNames);
+		}
+
+		final long vertexCount = header.vertexCount;
+		switch (header.method) {
+		case RAW:
+			in.readTag(CtmFormat.INDX);
+			in.skip(header.triangleCount * 3L * 4L);
+			in.readTag(CtmFormat.VERT);
+			in.skip(vertexCount * 3L * 4L);
+			if (header.hasNormals()) {
+				in.readTag(CtmFormat.NORM);
+				in.skip(vertexCount * 3L * 4L);
+			}
+			break;
+		case MG1:
+			in.readTag(CtmFormat.INDX);
+			skipPacked(in);
+			in.readTag(CtmFormat.VERT);
+			skipPacked(in);
+			if (header.hasNormals()) {
+				in.readTag(CtmFormat.NORM);
+				skipPacked(in);
+			}
+			break;
+		case MG2:
+			in.readTag(CtmFormat.MG2H);
+			in.skip(CtmFormat.MG2_HEADER_SIZE);
+			in.readTag(CtmFormat.VERT);
+			skipPacked(in);
+			in.readTag(CtmFormat.GIDX);
+			skipPacked(in);
+			in.readTag(CtmFormat.INDX);
+			skipPacked(in);
+			if (header.hasNormals()) {
+				in.readTag(CtmFormat.NORM);
+				skipPacked(in);
+			}
+			break;
+		}
+
+		for (int i = 0; i < header.uvMapCount; i++) {
+			in.readTag(CtmFormat.TEXC);
+			uvMapNames.add(in.readString());
+			uvMapFileNames.add(in.readString());
+			if (header.method == CtmMethod.RAW) {
+				in.skip(vertexCount * 2L * 4L);
+			} else {
+				if (header.method == CtmMethod.MG2) {
+					in.readFloat(); // precision
+				}
+				skipPacked(in);
+			}
+		}
+
+		for (int i = 0; i < header.attributeMapCount; i++) {
+			in.readTag(CtmFormat.ATTR);
+			attributeMapNames.add(in.readString());
+			if (header.method == CtmMethod.RAW) {
+				in.skip(vertexCount * 4L * 4L);
+			} else {
+				if (header.method == CtmMethod.MG2) {
+					in.readFloat(); // precision
+				}
+				skipPacked(in);
+			}
+		}
+
+		return new CtmMeshInfo(name, header, uvMapNames, uvMapFileNames, attributeMapNames);
+	}
+
+	/**
+	 * Skips LZMA packed data, which starts with its packed size.
+	 */
+	private static void skipPacked(final CtmInput in) throws IOException {
+		final int packedSize = in.readInt();
+		if (packedSize < 0) {
+			throw new IOException("Invalid packed size " + packedSize);
+		}
+		in.skip(CtmFormat.LZMA_PROPS_SIZE + (long) packedSize);
+	}
+
+	/**
+	 * @return the name of the resource
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public int getFormatVersion() {
+		return this.header.formatVersion;
+	}
+
+	public CtmMethod getMethod() {
+		return this.header.method;
+	}
+
+	public int getVertexCount() {
+		return this.header.vertexCount;
+	}
+
+	public int getTriangleCount() {
+		return this.header.triangleCount;
+	}
+
+	public boolean hasNormals() {
+		return this.header.hasNormals();
+	}
+
+	public String getComment() {
+		return this.header.comment;
+	}
+
+	public int getUVMapCount() {
+		return this.header.uvMapCount;
+	}
+
+	public List<String> getUVMapNames() {
+		return this.uvMapNames;
+	}
+
+	public List<String> getUVMapFileNames() {
+		return this.uvMapFileNames;
+	}
+
+	public int getAttributeMapCount() {
+		return this.header.attributeMapCount;
+	}
+
+	public List<String> getAttributeMapNames() {
+		return this.attributeMapNames;
+	}
+
+	@Override
+	public String toString() {
+		return "CtmMeshInfo[" + this.name + ", " + this.header.method
+				+ ", vertices=" + this.header.vertexCount
+				+ ", triangles=" + this.header.triangleCount
+				+ ", uvMaps=" + this.uvMapNames
+				+ ", attributeMaps=" + this.attributeMapNames + "]";
+	}
+
+}
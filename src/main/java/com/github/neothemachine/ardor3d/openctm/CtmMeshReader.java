@@ -0,0 +1,908 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.IntBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmDataInputStream;
+import darwin.jopenctm.io.CtmFileReader;
+
+/**
+ * Decodes the sections following a {@link CtmHeader} into {@link MeshData}.
+ * 
+ * RAW files are read section by section straight into pre-sized direct
+ * buffers, or are handed out as views if the input is memory mapped. MG1
+ * and MG2 files need JOpenCTM's LZMA decoding, which produces heap arrays
+ * that are then copied once into direct buffers. Their normals, UV maps
+ * and attribute maps that aren't imported are left out of what JOpenCTM
+ * gets to decode, collecting the rest in the {@link DecodeArena}. With a
+ * pool, UV maps and attribute maps are taken out as well and decoded on it
+ * while JOpenCTM decodes the indices, vertices and normals.
+ */
+final class CtmMeshReader {
+
+	/** number of vertex values that are read before adding them to the bounds */
+	private static final int BOUNDS_CHUNK = 12 * 1024;
+
+	private final CtmHeader header;
+	private final CtmInput input;
+	private final ImportContext context;
+	private CtmDiskCache diskCache;
+	private String diskCacheKey;
+	private ForkJoinPool pool;
+	private boolean compactIndices = true;
+	private Map<String, Integer> attributeUnits = Collections.emptyMap();
+	private CtmImportOptions options = new CtmImportOptions();
+	private VertexBounds bounds;
+	private boolean sphereBounds;
+	private BufferLease lease = new BufferLease(null);
+	/** time spent on the bounds while reading the current section */
+	private long boundsNanos;
+
+	CtmMeshReader(final CtmHeader header, final CtmInput input,
+			final ImportContext context) {
+		this.header = header;
+		this.input = input;
+		this.context = context;
+	}
+
+	/**
+	 * Stores the mesh in the given cache if it had to be decoded by JOpenCTM.
+	 */
+	void setDiskCache(final CtmDiskCache diskCache, final String key) {
+		this.diskCache = diskCache;
+		this.diskCacheKey = key;
+	}
+
+	/**
+	 * Decodes the UV maps and attribute maps of MG1/MG2 files on the given
+	 * pool and runs the work that follows JOpenCTM's decoding in parallel on
+	 * it.
+	 */
+	void setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @see OpenCtmImporter#setCompactIndices(boolean)
+	 */
+	void setCompactIndices(final boolean compactIndices) {
+		this.compactIndices = compactIndices;
+	}
+
+	/**
+	 * @see OpenCtmImporter#setAttributeMapping(String, int)
+	 */
+	void setAttributeUnits(final Map<String, Integer> attributeUnits) {
+		this.attributeUnits = attributeUnits;
+	}
+
+	void setOptions(final CtmImportOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * @see OpenCtmImporter#setSphereBounds(boolean)
+	 */
+	void setSphereBounds(final boolean sphereBounds) {
+		this.sphereBounds = sphereBounds;
+	}
+
+	/**
+	 * Allocates all buffers from the given lease.
+	 */
+	void setLease(final BufferLease lease) {
+		this.lease = lease;
+	}
+
+	/**
+	 * Reads the sections into the data of the given mesh, publishing each
+	 * completed section through the {@link ImportContext}. The model bound
+	 * is set as soon as the bounds are known, at the latest before the
+	 * vertices are published. The time spent is recorded in its
+	 * {@link ImportStats}.
+	 */
+	void read(final Mesh mesh) throws Exception {
+		if (this.header.method == CtmMethod.RAW
+				&& this.header.formatVersion == CtmFormat.FORMAT_VERSION) {
+			readRaw(mesh);
+		} else {
+			readDecoded(mesh);
+		}
+	}
+
+	/**
+	 * Sets the model bound of the mesh from the bounds read so far.
+	 */
+	private void setModelBound(final Mesh mesh) {
+		mesh.setModelBound(this.bounds.toBoundingVolume(this.sphereBounds), false);
+	}
+
+	private void readRaw(final Mesh mesh) throws IOException {
+		final MeshData meshData = mesh.getMeshData();
+		final int vertexCount = this.header.vertexCount;
+		final boolean views = this.input.hasViews();
+		final CtmImportOptions options = this.options;
+		final boolean loadNormals = this.header.hasNormals() && options.isNormals();
+		final ImportStats stats = this.context.getStats();
+		long start = System.nanoTime();
+
+		// without views, all buffers are sized from the header up front, so
+		// that listeners see the final buffers right away
+		final int indexCount = this.header.triangleCount * 3;
+		final boolean indexView = views && !hasNarrowIndices();
+		IndexBufferData<?> indices = null;
+		FloatBuffer vertices = null;
+		FloatBuffer normals = null;
+		final FloatBuffer[] uvMaps = new FloatBuffer[this.header.uvMapCount];
+		if (!indexView && options.isIndices()) {
+			indices = createIndices(indexCount);
+			meshData.setIndices(indices);
+		}
+		if (!views) {
+			if (options.isVertices()) {
+				vertices = this.lease.createFloatBuffer(vertexCount * 3);
+				meshData.setVertexBuffer(vertices);
+			}
+			if (loadNormals) {
+				normals = this.lease.createFloatBuffer(vertexCount * 3);
+				meshData.setNormalBuffer(normals);
+			}
+			for (int i = 0; i < uvMaps.length; i++) {
+				if (options.isUVMap(i)) {
+					uvMaps[i] = this.lease.createFloatBuffer(vertexCount * 2);
+					meshData.setTextureBuffer(uvMaps[i], i);
+				}
+			}
+		}
+		stats.addSince(ImportPhase.FILL, start);
+		this.context.stageCompleted(ImportStage.HEADER, 0);
+
+		this.input.readTag(CtmFormat.INDX);
+		if (!options.isIndices()) {
+			this.input.skip(indexCount * 4L);
+		} else {
+			start = System.nanoTime();
+			if (indexView) {
+				// the view is checked as well, since it goes to the GPU as is
+				final IntBuffer view = this.input.mapInts(indexCount);
+				CtmInput.checkIndices(view, 0, view.limit(), vertexCount);
+				meshData.setIndices(new IntBufferData(view));
+			} else {
+				fill(indices);
+			}
+			sectionRead(CtmFormat.INDX, null, indexCount * 4L,
+					meshData.getIndices().getBuffer(), start);
+			this.context.stageCompleted(ImportStage.INDICES, 0);
+		}
+
+		this.input.readTag(CtmFormat.VERT);
+		if (!options.isVertices()) {
+			this.input.skip(vertexCount * 3L * 4L);
+		} else {
+			start = System.nanoTime();
+			this.bounds = new VertexBounds();
+			if (views) {
+				final FloatBuffer view = this.input.mapFloats(vertexCount * 3);
+				final long boundsStart = System.nanoTime();
+				this.bounds.add(view, 0, view.limit());
+				this.boundsNanos += System.nanoTime() - boundsStart;
+				meshData.setVertexBuffer(view);
+			} else {
+				fillVertices(vertices);
+			}
+			sectionRead(CtmFormat.VERT, null, vertexCount * 3L * 4L,
+					meshData.getVertexBuffer(), start);
+			setModelBound(mesh);
+			this.context.stageCompleted(ImportStage.VERTICES, 0);
+		}
+
+		if (this.header.hasNormals()) {
+			this.input.readTag(CtmFormat.NORM);
+			if (!loadNormals) {
+				this.input.skip(vertexCount * 3L * 4L);
+			} else {
+				start = System.nanoTime();
+				if (views) {
+					meshData.setNormalBuffer(this.input.mapFloats(vertexCount * 3));
+				} else {
+					fill(normals);
+				}
+				sectionRead(CtmFormat.NORM, null, vertexCount * 3L * 4L,
+						meshData.getNormalBuffer(), start);
+				this.context.stageCompleted(ImportStage.NORMALS, 0);
+			}
+		}
+
+		for (int i = 0; i < uvMaps.length; i++) {
+			this.input.readTag(CtmFormat.TEXC);
+			final String name = this.input.readString();
+			this.input.readString(); // file name
+			if (!options.isUVMap(i)) {
+				this.input.skip(vertexCount * 2L * 4L);
+				continue;
+			}
+			start = System.nanoTime();
+			if (views) {
+				meshData.setTextureBuffer(this.input.mapFloats(vertexCount * 2), i);
+			} else {
+				fill(uvMaps[i]);
+			}
+			sectionRead(CtmFormat.TEXC, name, vertexCount * 2L * 4L,
+					meshData.getTextureBuffer(i), start);
+			this.context.stageCompleted(ImportStage.UV_MAP, i);
+		}
+
+		// attribute map names are only known here, so their buffers can't be
+		// allocated up front
+		for (int i = 0; i < this.header.attributeMapCount; i++) {
+			this.input.readTag(CtmFormat.ATTR);
+			final String name = this.input.readString();
+			final Integer target = attributeTarget(name);
+			if (target == null) {
+				this.input.skip(vertexCount * 4L * 4L);
+				continue;
+			}
+			start = System.nanoTime();
+			final FloatBuffer values;
+			if (views) {
+				values = this.input.mapFloats(vertexCount * 4);
+			} else {
+				values = this.lease.createFloatBuffer(vertexCount * 4);
+				fill(values);
+			}
+			setAttribute(meshData, target, values);
+			sectionRead(CtmFormat.ATTR, name, vertexCount * 4L * 4L, values, start);
+			this.context.stageCompleted(ImportStage.ATTRIBUTE_MAP, target);
+		}
+	}
+
+	/**
+	 * Records a section that was read since <code>start</code>, splitting
+	 * off the time spent on the bounds.
+	 */
+	private void sectionRead(final int tag, final String name,
+			final long storedBytes, final Buffer buffer, final long start) {
+		final ImportStats stats = this.context.getStats();
+		final long nanos = System.nanoTime() - start;
+		stats.addNanos(ImportPhase.FILL, nanos - this.boundsNanos);
+		stats.addNanos(ImportPhase.BOUNDS, this.boundsNanos);
+		stats.addSection(tag, name, storedBytes, MeshBuffers.byteSize(buffer), nanos);
+		this.boundsNanos = 0;
+	}
+
+	/**
+	 * @return the texture unit to store the named attribute map in, -1 for
+	 *         the color buffer or null if it isn't imported
+	 */
+	private Integer attributeTarget(final String name) {
+		if (!this.options.isAttributeMap(name)) {
+			return null;
+		}
+		final Integer unit = this.attributeUnits.get(name);
+		if (unit != null) {
+			return unit;
+		}
+		return OpenCtmImporter.COLOR_ATTRIBUTE.equals(name) ? -1 : null;
+	}
+
+	private static void setAttribute(final MeshData meshData, final int target,
+			final FloatBuffer values) {
+		if (target < 0) {
+			meshData.setColorBuffer(values);
+		} else {
+			meshData.setTextureCoords(new FloatBufferData(values, 4), target);
+		}
+	}
+
+	private void fill(final IndexBufferData<?> indices) throws IOException {
+		final Buffer buffer = indices.getBuffer();
+		buffer.clear();
+		this.input.readIndices(indices, buffer.capacity(), this.header.vertexCount);
+		buffer.flip();
+	}
+
+	/**
+	 * @return whether the indices fit into bytes or shorts
+	 */
+	private boolean hasNarrowIndices() {
+		return this.compactIndices && this.header.vertexCount <= 65536;
+	}
+
+	private IndexBufferData<?> createIndices(final int count) {
+		return this.lease.createIndexBufferData(count,
+				this.compactIndices ? this.header.vertexCount - 1 : Integer.MAX_VALUE);
+	}
+
+	private void fill(final FloatBuffer buffer) throws IOException {
+		buffer.clear();
+		this.input.readFloats(buffer, buffer.capacity());
+		buffer.flip();
+	}
+
+	/**
+	 * Fills the vertex buffer chunk by chunk and adds each chunk to the
+	 * bounds while it is still cached.
+	 */
+	private void fillVertices(final FloatBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			final int from = buffer.position();
+			final int count = Math.min(BOUNDS_CHUNK, buffer.remaining());
+			this.input.readFloats(buffer, count);
+			final long start = System.nanoTime();
+			this.bounds.add(buffer, from, from + count);
+			this.boundsNanos += System.nanoTime() - start;
+		}
+		buffer.flip();
+	}
+
+	private void readDecoded(final Mesh mesh) throws Exception {
+		final MeshData meshData = mesh.getMeshData();
+		final ImportStats stats = this.context.getStats();
+		long start = System.nanoTime();
+		final byte[] grid = this.header.method == CtmMethod.MG2
+				&& this.header.formatVersion == CtmFormat.FORMAT_VERSION ? readGrid() : null;
+		start = stats.addSince(ImportPhase.HEADER, start);
+		// the MG2 grid gives the bounds long before the vertices are decoded
+		final boolean gridBounds = this.bounds != null;
+		if (gridBounds) {
+			setModelBound(mesh);
+		}
+		this.context.stageCompleted(ImportStage.HEADER, 0);
+
+		// JOpenCTM decodes all sections at once, so they are published
+		// together afterwards
+		start = System.nanoTime();
+		final List<Integer> uvUnits = new ArrayList<Integer>();
+		final List<PackedMap> maps = new ArrayList<PackedMap>();
+		final darwin.jopenctm.data.Mesh ctmMesh;
+		try {
+			final InputStream file;
+			if (picksSections()) {
+				file = readImportedSections(grid, uvUnits, maps);
+			} else {
+				// JOpenCTM wants to see the whole file, including the header
+				// we already consumed
+				byte[] consumed = this.header.toByteArray();
+				if (grid != null) {
+					consumed = Arrays.copyOf(consumed, consumed.length + grid.length);
+					System.arraycopy(grid, 0, consumed, consumed.length - grid.length, grid.length);
+				}
+				file = new SequenceInputStream(new ByteArrayInputStream(consumed),
+						this.input.remainingStream());
+				for (int i = 0; i < this.header.uvMapCount; i++) {
+					uvUnits.add(i);
+				}
+			}
+			ctmMesh = new CtmFileReader(file).decode();
+		} catch (final Exception e) {
+			// the maps read from the arena, which the next load reuses
+			for (final PackedMap map : maps) {
+				map.cancel(false);
+				map.quietlyJoin();
+			}
+			throw e;
+		}
+
+		// the maps decoded on the pool come after those JOpenCTM decoded,
+		// in the order of the file
+		final List<String> uvNames = new ArrayList<String>();
+		final List<float[]> uvValues = new ArrayList<float[]>();
+		for (int i = 0; i < ctmMesh.getUVCount(); i++) {
+			uvNames.add(ctmMesh.texcoordinates[i].name);
+			uvValues.add(ctmMesh.texcoordinates[i].values);
+		}
+		final List<String> attributeNames = new ArrayList<String>();
+		final List<float[]> attributeValues = new ArrayList<float[]>();
+		if (ctmMesh.attributes != null) {
+			for (final AttributeData attribute : ctmMesh.attributes) {
+				attributeNames.add(attribute.name);
+				attributeValues.add(attribute.values);
+			}
+		}
+		for (final PackedMap map : maps) {
+			final boolean uvMap = map.components == 2;
+			(uvMap ? uvNames : attributeNames).add(map.name);
+			(uvMap ? uvValues : attributeValues).add(map.values());
+		}
+		start = stats.addSince(ImportPhase.DECODE, start);
+		this.context.checkCancelled();
+
+		// sections that are not imported but were decoded anyway get no
+		// buffer
+		final CtmImportOptions options = this.options;
+		final List<ParallelCopy> copies = new ArrayList<ParallelCopy>();
+		IndexBufferData<?> indices = null;
+		if (options.isIndices()) {
+			indices = createIndices(ctmMesh.indices.length);
+			copies.add(ParallelCopy.of(ctmMesh.indices, indices));
+		}
+		FloatBuffer vertices = null;
+		if (options.isVertices()) {
+			vertices = this.lease.createFloatBuffer(ctmMesh.vertices.length);
+			if (this.bounds != null) {
+				copies.add(ParallelCopy.of(ctmMesh.vertices, vertices));
+			} else {
+				this.bounds = new VertexBounds();
+				copies.add(ParallelCopy.of(ctmMesh.vertices, vertices, this.bounds));
+			}
+		}
+		FloatBuffer normals = null;
+		if (ctmMesh.normals != null && options.isNormals()) {
+			normals = this.lease.createFloatBuffer(ctmMesh.normals.length);
+			copies.add(ParallelCopy.of(ctmMesh.normals, normals));
+		}
+		final FloatBuffer[] uvMaps = new FloatBuffer[uvValues.size()];
+		for (int i = 0; i < uvMaps.length; i++) {
+			if (options.isUVMap(uvUnits.get(i))) {
+				uvMaps[i] = this.lease.createFloatBuffer(uvValues.get(i).length);
+				copies.add(ParallelCopy.of(uvValues.get(i), uvMaps[i]));
+			}
+		}
+		final Integer[] attributeTargets = new Integer[attributeValues.size()];
+		final FloatBuffer[] attributes = new FloatBuffer[attributeValues.size()];
+		for (int i = 0; i < attributes.length; i++) {
+			attributeTargets[i] = attributeTarget(attributeNames.get(i));
+			if (attributeTargets[i] != null) {
+				attributes[i] = this.lease.createFloatBuffer(attributeValues.get(i).length);
+				copies.add(ParallelCopy.of(attributeValues.get(i), attributes[i]));
+			}
+		}
+		copyAll(copies, ctmMesh);
+		stats.addSince(ImportPhase.FILL, start);
+		recordDecoded(CtmFormat.INDX, null, indices != null ? indices.getBuffer() : null);
+		recordDecoded(CtmFormat.VERT, null, vertices);
+		recordDecoded(CtmFormat.NORM, null, normals);
+		for (int i = 0; i < uvMaps.length; i++) {
+			recordDecoded(CtmFormat.TEXC, uvNames.get(i), uvMaps[i]);
+		}
+		for (int i = 0; i < attributes.length; i++) {
+			recordDecoded(CtmFormat.ATTR, attributeNames.get(i), attributes[i]);
+		}
+
+		if (indices != null) {
+			meshData.setIndices(indices);
+			this.context.stageCompleted(ImportStage.INDICES, 0);
+		}
+		if (vertices != null) {
+			meshData.setVertexBuffer(vertices);
+			if (!gridBounds) {
+				setModelBound(mesh);
+			}
+			this.context.stageCompleted(ImportStage.VERTICES, 0);
+		}
+		if (normals != null) {
+			meshData.setNormalBuffer(normals);
+			this.context.stageCompleted(ImportStage.NORMALS, 0);
+		}
+		for (int i = 0; i < uvMaps.length; i++) {
+			if (uvMaps[i] != null) {
+				// UV maps keep their unit even if maps in front were left out
+				final int unit = uvUnits.get(i);
+				meshData.setTextureBuffer(uvMaps[i], unit);
+				this.context.stageCompleted(ImportStage.UV_MAP, unit);
+			}
+		}
+		for (int i = 0; i < attributes.length; i++) {
+			if (attributes[i] != null) {
+				setAttribute(meshData, attributeTargets[i], attributes[i]);
+				this.context.stageCompleted(ImportStage.ATTRIBUTE_MAP, attributeTargets[i]);
+			}
+		}
+	}
+
+	/**
+	 * Records a section decoded by JOpenCTM. Neither its packed size nor the
+	 * time to fill its buffer are known separately.
+	 */
+	private void recordDecoded(final int tag, final String name, final Buffer buffer) {
+		if (buffer != null) {
+			this.context.getStats().addSection(tag, name, -1,
+					MeshBuffers.byteSize(buffer), -1);
+		}
+	}
+
+	/**
+	 * Reads the MG2 header, whose grid encloses all vertices. Each vertex is
+	 * restored within the vertex precision, so the grid grown by the
+	 * precision gives the bounds without looking at the vertices.
+	 * 
+	 * @return the MG2 header including its tag
+	 */
+	private byte[] readGrid() throws IOException {
+		this.input.readTag(CtmFormat.MG2H);
+		final byte[] grid = new byte[4 + CtmFormat.MG2_HEADER_SIZE];
+		final ByteBuffer view = ByteBuffer.wrap(grid).order(ByteOrder.LITTLE_ENDIAN);
+		view.putInt(CtmFormat.MG2H);
+		final byte[] values = new byte[CtmFormat.MG2_HEADER_SIZE];
+		this.input.readBytes(values);
+		view.put(values);
+		if (this.options.isVertices()) {
+			final float precision = view.getFloat(4);
+			final float[] min = new float[3];
+			final float[] max = new float[3];
+			for (int c = 0; c < 3; c++) {
+				min[c] = view.getFloat(12 + c * 4) - precision;
+				max[c] = view.getFloat(24 + c * 4) + precision;
+			}
+			this.bounds = new VertexBounds(min, max);
+		}
+		return grid;
+	}
+
+	/**
+	 * @return whether normals, UV maps or attribute maps might not be
+	 *         imported, which are then left out before decoding, or whether
+	 *         there are maps to decode on the pool. This needs the layout of
+	 *         the current format. The disk cache gets the whole file, so that
+	 *         its entries serve every option.
+	 */
+	private boolean picksSections() {
+		if (this.header.formatVersion != CtmFormat.FORMAT_VERSION
+				|| this.diskCache != null) {
+			return false;
+		}
+		if (this.pool != null
+				&& this.header.uvMapCount + this.header.attributeMapCount > 0) {
+			return true;
+		}
+		if (this.header.hasNormals() && !this.options.isNormals()) {
+			return true;
+		}
+		for (int i = 0; i < this.header.uvMapCount; i++) {
+			if (!this.options.isUVMap(i)) {
+				return true;
+			}
+		}
+		// attribute maps are only imported by name, which is read later
+		return this.header.attributeMapCount > 0;
+	}
+
+	/**
+	 * Copies the packed sections that are imported, behind a header that
+	 * only counts those, so that JOpenCTM never decodes the others. Indices
+	 * and vertices are always kept, as JOpenCTM needs them for the rest. The
+	 * copy is kept in the {@link DecodeArena} and only valid until the next
+	 * load on this thread. With a pool, the UV maps and attribute maps that
+	 * are kept are forked onto it instead of being handed to JOpenCTM.
+	 * 
+	 * @param grid
+	 *            the MG2 header, or null for MG1 files
+	 * @param uvUnits
+	 *            receives the index in the file of each UV map that is kept
+	 * @param maps
+	 *            receives the maps decoded on the pool, UV maps first
+	 * @return the shortened file
+	 */
+	private InputStream readImportedSections(final byte[] grid,
+			final List<Integer> uvUnits, final List<PackedMap> maps)
+			throws IOException {
+		final boolean mg2 = grid != null;
+		final Sections sections = new Sections(DecodeArena.get());
+		if (mg2) {
+			sections.write(grid);
+			copyPacked(CtmFormat.VERT, sections);
+			copyPacked(CtmFormat.GIDX, sections);
+			copyPacked(CtmFormat.INDX, sections);
+		} else {
+			copyPacked(CtmFormat.INDX, sections);
+			copyPacked(CtmFormat.VERT, sections);
+		}
+		int flags = this.header.flags;
+		if (this.header.hasNormals()) {
+			if (this.options.isNormals()) {
+				copyPacked(CtmFormat.NORM, sections);
+			} else {
+				this.input.readTag(CtmFormat.NORM);
+				skipPacked();
+				flags &= ~CtmFormat.FLAG_NORMALS;
+			}
+		}
+
+		final boolean fork = this.pool != null;
+		final int decodedLength = sections.length();
+
+		int uvMapCount = 0;
+		for (int i = 0; i < this.header.uvMapCount; i++) {
+			this.input.readTag(CtmFormat.TEXC);
+			final String name = this.input.readString();
+			final String fileName = this.input.readString();
+			// the precision is copied bit for bit
+			final int precision = mg2 ? this.input.readInt() : 0;
+			if (!this.options.isUVMap(i)) {
+				skipPacked();
+				continue;
+			}
+			uvUnits.add(i);
+			if (fork) {
+				maps.add(forkMap(sections, name, 2, mg2, precision));
+				continue;
+			}
+			uvMapCount++;
+			sections.writeInt(CtmFormat.TEXC);
+			sections.writeString(name);
+			sections.writeString(fileName);
+			if (mg2) {
+				sections.writeInt(precision);
+			}
+			copyPacked(sections);
+		}
+
+		int attributeMapCount = 0;
+		for (int i = 0; i < this.header.attributeMapCount; i++) {
+			this.input.readTag(CtmFormat.ATTR);
+			final String name = this.input.readString();
+			final int precision = mg2 ? this.input.readInt() : 0;
+			if (attributeTarget(name) == null) {
+				skipPacked();
+				continue;
+			}
+			if (fork) {
+				maps.add(forkMap(sections, name, 4, mg2, precision));
+				continue;
+			}
+			attributeMapCount++;
+			sections.writeInt(CtmFormat.ATTR);
+			sections.writeString(name);
+			if (mg2) {
+				sections.writeInt(precision);
+			}
+			copyPacked(sections);
+		}
+
+		return new SequenceInputStream(
+				new ByteArrayInputStream(this.header.toByteArray(
+						uvMapCount, attributeMapCount, flags)),
+				sections.toInputStream(fork ? decodedLength : sections.length()));
+	}
+
+	/**
+	 * Copies the packed data of a map and decodes it on the pool.
+	 */
+	private PackedMap forkMap(final Sections sections, final String name,
+			final int components, final boolean mg2, final int precision)
+			throws IOException {
+		final int offset = sections.length();
+		copyPacked(sections);
+		final PackedMap map = new PackedMap(name, components, this.header.vertexCount,
+				mg2 ? Float.intBitsToFloat(precision) : 0f, mg2, sections.bytes(),
+				offset, sections.length() - offset);
+		this.pool.execute(map);
+		return map;
+	}
+
+	private void copyPacked(final int tag, final Sections out) throws IOException {
+		this.input.readTag(tag);
+		out.writeInt(tag);
+		copyPacked(out);
+	}
+
+	/**
+	 * Copies LZMA packed data, which starts with its packed size.
+	 */
+	private void copyPacked(final Sections out) throws IOException {
+		final int packedSize = readPackedSize();
+		out.writeInt(packedSize);
+		out.read(this.input, CtmFormat.LZMA_PROPS_SIZE + (long) packedSize);
+	}
+
+	private void skipPacked() throws IOException {
+		this.input.skip(CtmFormat.LZMA_PROPS_SIZE + (long) readPackedSize());
+	}
+
+	private int readPackedSize() throws IOException {
+		final int packedSize = this.input.readInt();
+		if (packedSize < 0) {
+			throw new IOException("Invalid packed size " + packedSize);
+		}
+		return packedSize;
+	}
+
+	/**
+	 * Copies the decoded arrays into the buffers and stores the mesh in the
+	 * disk cache, all at the same time if there is a pool.
+	 */
+	private void copyAll(final List<ParallelCopy> copies,
+			final darwin.jopenctm.data.Mesh ctmMesh) {
+		if (this.pool == null) {
+			storeInDiskCache(ctmMesh);
+			for (final ParallelCopy copy : copies) {
+				copy.copy(copy.from, copy.to);
+			}
+			return;
+		}
+		final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(copies);
+		tasks.add(ForkJoinTask.adapt(new Runnable() {
+			@Override
+			public void run() {
+				storeInDiskCache(ctmMesh);
+			}
+		}));
+		ParallelCopy.runAll(this.pool, tasks);
+	}
+
+	private void storeInDiskCache(final darwin.jopenctm.data.Mesh ctmMesh) {
+		if (this.diskCache != null) {
+			this.diskCache.store(this.diskCacheKey, ctmMesh);
+		}
+	}
+
+	/**
+	 * Little endian copy of sections, kept in the
+	 * {@link DecodeArena#SECTIONS} slot of the loading thread.
+	 */
+	private static final class Sections {
+
+		private final DecodeArena arena;
+		private byte[] bytes;
+		private int length;
+
+		Sections(final DecodeArena arena) {
+			this.arena = arena;
+			this.bytes = arena.bytes(DecodeArena.SECTIONS, 0, 0);
+		}
+
+		void write(final byte[] values) {
+			reserve(values.length);
+			System.arraycopy(values, 0, this.bytes, this.length, values.length);
+			this.length += values.length;
+		}
+
+		void writeInt(final int value) {
+			reserve(4);
+			for (int i = 0; i < 4; i++) {
+				this.bytes[this.length++] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		void writeString(final String value) {
+			final byte[] bytes = value.getBytes(CtmHeader.CHARSET);
+			writeInt(bytes.length);
+			write(bytes);
+		}
+
+		/**
+		 * Copies the next <code>count</code> bytes of the input.
+		 */
+		void read(final CtmInput input, final long count) throws IOException {
+			if (count > Integer.MAX_VALUE - 8 - this.length) {
+				throw new IOException("Packed sections too large");
+			}
+			reserve((int) count);
+			input.readBytes(this.bytes, this.length, (int) count);
+			this.length += (int) count;
+		}
+
+		int length() {
+			return this.length;
+		}
+
+		/**
+		 * @return the array written so far, whose bytes up to
+		 *         {@link #length()} stay as they are
+		 */
+		byte[] bytes() {
+			return this.bytes;
+		}
+
+		InputStream toInputStream(final int length) {
+			return new ByteArrayInputStream(this.bytes, 0, length);
+		}
+
+		private void reserve(final int count) {
+			this.bytes = this.arena.bytes(DecodeArena.SECTIONS, this.length + count,
+					this.length);
+		}
+
+	}
+
+	/**
+	 * Decodes the packed data of a UV map or an attribute map the way the
+	 * MG1 and MG2 decoders of JOpenCTM do. MG2 stores the maps as
+	 * differences of quantized values from one vertex to the next.
+	 */
+	private static final class PackedMap extends RecursiveTask<float[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		final String name;
+		final int components;
+		private final int vertexCount;
+		private final float precision;
+		private final boolean mg2;
+		private final byte[] bytes;
+		private final int offset;
+		private final int length;
+		private IOException error;
+
+		PackedMap(final String name, final int components, final int vertexCount,
+				final float precision, final boolean mg2, final byte[] bytes,
+				final int offset, final int length) {
+			this.name = name;
+			this.components = components;
+			this.vertexCount = vertexCount;
+			this.precision = precision;
+			this.mg2 = mg2;
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		protected float[] compute() {
+			try {
+				final CtmDataInputStream in = new CtmDataInputStream(
+						new ByteArrayInputStream(this.bytes, this.offset, this.length));
+				if (!this.mg2) {
+					return in.readPackedFloats(this.vertexCount, this.components);
+				}
+				final int[] deltas = in.readPackedInts(this.vertexCount, this.components, true);
+				final float[] values = new float[deltas.length];
+				for (int c = 0; c < this.components; c++) {
+					int value = 0;
+					for (int i = c; i < deltas.length; i += this.components) {
+						value += deltas[i];
+						values[i] = value * this.precision;
+					}
+				}
+				return values;
+			} catch (final IOException e) {
+				this.error = e;
+				return null;
+			}
+		}
+
+		/**
+		 * Waits for the decoded values.
+		 */
+		float[] values() throws IOException {
+			final float[] values = join();
+			if (this.error != null) {
+				throw this.error;
+			}
+			return values;
+		}
+
+	}
+
+}
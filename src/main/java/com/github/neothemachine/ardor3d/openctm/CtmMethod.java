@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * The compression methods an OpenCTM file can be stored with.
+ */
+public enum CtmMethod {
+
+	RAW("RAW"), MG1("MG1"), MG2("MG2");
+
+	final int tag;
+
+	private CtmMethod(final String name) {
+		this.tag = CtmFormat.tag(name);
+	}
+
+	static CtmMethod forTag(final int tag) {
+		for (final CtmMethod method : values()) {
+			if (method.tag == tag) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link CtmMetricsListener} that aggregates the statistics of all imports
+ * into histograms, one per {@link ImportPhase} and one per section tag.
+ * 
+ * Values are counted in power of two buckets, which keeps the memory
+ * constant no matter how many imports are recorded.
+ */
+public class CtmMetricsAggregator implements CtmMetricsListener {
+
+	/**
+	 * Histogram with a bucket for each power of two. Bucket <code>i</code>
+	 * counts the values in <code>[2^(i-1), 2^i)</code>, bucket 0 counts the
+	 * zeros.
+	 */
+	public static final class Histogram {
+
+		private final long[] buckets = new long[64];
+		private long count;
+		private long sum;
+		private long min = Long.MAX_VALUE;
+		private long max;
+
+		Histogram() {
+		}
+
+		Histogram(final Histogram other) {
+			System.arraycopy(other.buckets, 0, this.buckets, 0, this.buckets.length);
+			this.count = other.count;
+			this.sum = other.sum;
+			this.min = other.min;
+			this.max = other.max;
+		}
+
+		void record(final long value) {
+			final long v = Math.max(0, value);
+			this.buckets[64 - Long.numberOfLeadingZeros(v)]++;
+			this.count++;
+			this.sum += v;
+			this.min = Math.min(this.min, v);
+			this.max = Math.max(this.max, v);
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public long getSum() {
+			return this.sum;
+		}
+
+		/**
+		 * @return the smallest recorded value, or 0 if there is none
+		 */
+		public long getMin() {
+			return this.count > 0 ? this.min : 0;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		public double getMean() {
+			return this.count > 0 ? (double) this.sum / this.count : 0;
+		}
+
+		/**
+		 * @return the number of values in the given bucket
+		 */
+		public long getBucket(final int bucket) {
+			return this.buckets[bucket];
+		}
+
+		/**
+		 * @return the upper bound of the bucket that holds the given
+		 *         fraction of the values, so at most twice the actual
+		 *         percentile
+		 */
+		public long getPercentile(final double fraction) {
+			final long rank = (long) Math.ceil(fraction * this.count);
+			long seen = 0;
+			for (int i = 0; i < this.buckets.length; i++) {
+				seen += this.buckets[i];
+				if (seen >= rank && seen > 0) {
+					return i == 0 ? 0 : Math.min(this.max, (1L << i) - 1);
+				}
+			}
+			return 0;
+		}
+
+		void dump(final Appendable out, final String indent) throws IOException {
+			out.append(indent).append("count=").append(Long.toString(this.count))
+					.append(" min=").append(Long.toString(getMin()))
+					.append(" mean=").append(Long.toString(Math.round(getMean())))
+					.append(" p50=").append(Long.toString(getPercentile(0.5)))
+					.append(" p99=").append(Long.toString(getPercentile(0.99)))
+					.append(" max=").append(Long.toString(this.max)).append('\n');
+			long peak = 0;
+			for (final long bucket : this.buckets) {
+				peak = Math.max(peak, bucket);
+			}
+			for (int i = 0; i < this.buckets.length; i++) {
+				if (this.buckets[i] == 0) {
+					continue;
+				}
+				final long upper = i == 0 ? 0 : (1L << i) - 1;
+				out.append(indent).append(String.format("<= %19d %8d ", upper, this.buckets[i]));
+				final int bar = (int) Math.max(1, this.buckets[i] * 40 / peak);
+				for (int b = 0; b < bar; b++) {
+					out.append('#');
+				}
+				out.append('\n');
+			}
+		}
+	}
+
+	private final Map<ImportPhase, Histogram> phases = new EnumMap<ImportPhase, Histogram>(ImportPhase.class);
+	private final Map<String, Histogram> sections = new TreeMap<String, Histogram>();
+	private Histogram total = new Histogram();
+	private Histogram bytesRead = new Histogram();
+	private long imports;
+	private long cacheHits;
+	private long failures;
+	private long storedBytes;
+	private long decodedBytes;
+
+	@Override
+	public synchronized void importFinished(final ImportStats stats) {
+		this.imports++;
+		if (stats.getFailure() != null) {
+			this.failures++;
+			return;
+		}
+		this.total.record(stats.getTotalNanos());
+		if (stats.isCacheHit()) {
+			this.cacheHits++;
+			return;
+		}
+		this.bytesRead.record(stats.getBytesRead());
+		for (final ImportPhase phase : ImportPhase.values()) {
+			histogram(phase).record(stats.getNanos(phase));
+		}
+		for (final ImportStats.Section section : stats.getSections()) {
+			if (section.getNanos() >= 0) {
+				Histogram histogram = this.sections.get(section.getTag());
+				if (histogram == null) {
+					histogram = new Histogram();
+					this.sections.put(section.getTag(), histogram);
+				}
+				histogram.record(section.getNanos());
+			}
+			if (section.getStoredBytes() >= 0) {
+				this.storedBytes += section.getStoredBytes();
+			}
+			this.decodedBytes += section.getDecodedBytes();
+		}
+	}
+
+	/**
+	 * @return a copy of the histogram of the nanoseconds spent in the given
+	 *         phase. Cache hits and failed imports are not included.
+	 */
+	public synchronized Histogram getHistogram(final ImportPhase phase) {
+		return new Histogram(histogram(phase));
+	}
+
+	/**
+	 * @return a copy of the histogram of the nanoseconds spent filling
+	 *         sections with the given tag, like <code>VERT</code>
+	 */
+	public synchronized Histogram getSectionHistogram(final String tag) {
+		final Histogram histogram = this.sections.get(tag);
+		return histogram != null ? new Histogram(histogram) : new Histogram();
+	}
+
+	/**
+	 * @return a copy of the histogram of the total nanoseconds per import,
+	 *         including cache hits
+	 */
+	public synchronized Histogram getTotalHistogram() {
+		return new Histogram(this.total);
+	}
+
+	/**
+	 * @return the number of imports, including cache hits and failures
+	 */
+	public synchronized long getImportCount() {
+		return this.imports;
+	}
+
+	public synchronized long getCacheHitCount() {
+		return this.cacheHits;
+	}
+
+	public synchronized long getFailureCount() {
+		return this.failures;
+	}
+
+	/**
+	 * @return the bytes of all sections whose stored size is known
+	 */
+	public synchronized long getStoredBytes() {
+		return this.storedBytes;
+	}
+
+	/**
+	 * @return the bytes of all buffers the sections were decoded into
+	 */
+	public synchronized long getDecodedBytes() {
+		return this.decodedBytes;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public synchronized void reset() {
+		this.phases.clear();
+		this.sections.clear();
+		this.total = new Histogram();
+		this.bytesRead = new Histogram();
+		this.imports = 0;
+		this.cacheHits = 0;
+		this.failures = 0;
+		this.storedBytes = 0;
+		this.decodedBytes = 0;
+	}
+
+	/**
+	 * Writes all histograms as text.
+	 */
+	public synchronized void dump(final Appendable out) throws IOException {
+		out.append("imports=").append(Long.toString(this.imports))
+				.append(" cacheHits=").append(Long.toString(this.cacheHits))
+				.append(" failures=").append(Long.toString(this.failures))
+				.append(" storedBytes=").append(Long.toString(this.storedBytes))
+				.append(" decodedBytes=").append(Long.toString(this.decodedBytes))
+				.append('\n');
+		out.append("total nanos\n");
+		this.total.dump(out, "  ");
+		out.append("bytes read\n");
+		this.bytesRead.dump(out, "  ");
+		for (final ImportPhase phase : ImportPhase.values()) {
+			out.append(phase.name()).append(" nanos\n");
+			histogram(phase).dump(out, "  ");
+		}
+		for (final Map.Entry<String, Histogram> entry : this.sections.entrySet()) {
+			out.append(entry.getKey()).append(" section nanos\n");
+			entry.getValue().dump(out, "  ");
+		}
+	}
+
+	/**
+	 * @return all histograms as text
+	 * @see #dump(Appendable)
+	 */
+	public String dump() {
+		final StringBuilder out = new StringBuilder();
+		try {
+			dump(out);
+		} catch (IOException e) {
+			// StringBuilder doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	private Histogram histogram(final ImportPhase phase) {
+		Histogram histogram = this.phases.get(phase);
+		if (histogram == null) {
+			histogram = new Histogram();
+			this.phases.put(phase, histogram);
+		}
+		return histogram;
+	}
+
+}
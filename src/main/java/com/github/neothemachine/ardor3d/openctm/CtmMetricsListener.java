@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * Receives the {@link ImportStats} of every import of an
+ * {@link OpenCtmImporter}.
+ * 
+ * The listener is called on the loading thread once the import finished,
+ * successfully or not. Imports run concurrently, so implementations must
+ * be thread safe.
+ * 
+ * @see CtmMetricsAggregator
+ */
+public interface CtmMetricsListener {
+
+	/**
+	 * @param stats
+	 *            the statistics of the finished import
+	 */
+	void importFinished(ImportStats stats);
+
+}
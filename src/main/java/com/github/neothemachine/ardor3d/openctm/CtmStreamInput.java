@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * {@link CtmInput} reading from an arbitrary stream through a fixed size
+ * block buffer, which may be taken from a {@link ReadBufferPool}. The
+ * source is only ever read a whole block at a time, and is closed together
+ * with this input.
+ */
+final class CtmStreamInput extends CtmInput {
+
+	private final InputStream source;
+	private final byte[] block;
+	private final ByteBuffer blockView;
+	private final ReadBufferPool pool;
+	private int position;
+	private int limit;
+	private long bytesRead;
+	private boolean closed;
+
+	CtmStreamInput(final InputStream source) {
+		this(source, ReadBufferPool.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param blockSize
+	 *            the number of bytes that are read from the source at once
+	 */
+	CtmStreamInput(final InputStream source, final int blockSize) {
+		this(source, new byte[blockSize], null);
+	}
+
+	/**
+	 * Reads through a block of the given pool, which gets it back on
+	 * {@link #close()}.
+	 */
+	CtmStreamInput(final InputStream source, final ReadBufferPool pool) {
+		this(source, pool.acquire(), pool);
+	}
+
+	private CtmStreamInput(final InputStream source, final byte[] block,
+			final ReadBufferPool pool) {
+		this.source = source;
+		this.block = block;
+		this.blockView = ByteBuffer.wrap(this.block).order(ByteOrder.LITTLE_ENDIAN);
+		this.pool = pool;
+	}
+
+	@Override
+	int readInt() throws IOException {
+		require(4);
+		final int value = this.blockView.getInt(this.position);
+		this.position += 4;
+		return value;
+	}
+
+	@Override
+	float readFloat() throws IOException {
+		require(4);
+		final float value = this.blockView.getFloat(this.position);
+		this.position += 4;
+		return value;
+	}
+
+	@Override
+	void readBytes(final byte[] dst, final int offset, final int length)
+			throws IOException {
+		int done = 0;
+		while (done < length) {
+			if (this.position == this.limit) {
+				require(1);
+			}
+			final int n = Math.min(length - done, this.limit - this.position);
+			System.arraycopy(this.block, this.position, dst, offset + done, n);
+			this.position += n;
+			done += n;
+		}
+	}
+
+	@Override
+	void readFloats(final FloatBuffer dst, final int count) throws IOException {
+		int remaining = count;
+		while (remaining > 0) {
+			require(4);
+			final int n = Math.min(remaining, (this.limit - this.position) / 4);
+			dst.put(view(n * 4).asFloatBuffer());
+			this.position += n * 4;
+			remaining -= n;
+		}
+	}
+
+	@Override
+	void readInts(final IntBuffer dst, final int count) throws IOException {
+		int remaining = count;
+		while (remaining > 0) {
+			require(4);
+			final int n = Math.min(remaining, (this.limit - this.position) / 4);
+			dst.put(view(n * 4).asIntBuffer());
+			this.position += n * 4;
+			remaining -= n;
+		}
+	}
+
+	@Override
+	void skip(final long bytes) throws IOException {
+		final int buffered = (int) Math.min(bytes, this.limit - this.position);
+		this.position += buffered;
+		long remaining = bytes - buffered;
+		while (remaining > 0) {
+			final long skipped = this.source.skip(remaining);
+			if (skipped > 0) {
+				remaining -= skipped;
+			} else if (this.source.read() >= 0) {
+				remaining--;
+				this.bytesRead++;
+			} else {
+				throw new EOFException("Unexpected end of CTM file");
+			}
+		}
+	}
+
+	@Override
+	long bytesRead() {
+		return this.bytesRead;
+	}
+
+	@Override
+	InputStream remainingStream() {
+		return new BlockStream();
+	}
+
+	/**
+	 * Closes the source and returns the block to the pool. Streams returned
+	 * by {@link #remainingStream()} must not be used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.source.close();
+		} finally {
+			if (this.pool != null) {
+				this.pool.release(this.block);
+			}
+		}
+	}
+
+	/**
+	 * @return a little endian view on the next <code>length</code> buffered
+	 *         bytes
+	 */
+	private ByteBuffer view(final int length) {
+		this.blockView.limit(this.position + length);
+		this.blockView.position(this.position);
+		final ByteBuffer view = this.blockView.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.blockView.clear();
+		return view;
+	}
+
+	/**
+	 * Makes sure that at least <code>bytes</code> bytes are buffered.
+	 */
+	private void require(final int bytes) throws IOException {
+		if (this.limit - this.position >= bytes) {
+			return;
+		}
+		final int buffered = this.limit - this.position;
+		System.arraycopy(this.block, this.position, this.block, 0, buffered);
+		this.position = 0;
+		this.limit = buffered;
+		while (this.limit < bytes) {
+			final int read = this.source.read(this.block, this.limit,
+					this.block.length - this.limit);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of CTM file");
+			}
+			this.limit += read;
+			this.bytesRead += read;
+		}
+	}
+
+	/**
+	 * Refills the block from the source.
+	 * 
+	 * @return false if the source is exhausted
+	 */
+	private boolean fill() throws IOException {
+		this.position = 0;
+		this.limit = 0;
+		final int read = this.source.read(this.block, 0, this.block.length);
+		if (read < 0) {
+			return false;
+		}
+		this.limit = read;
+		this.bytesRead += read;
+		return true;
+	}
+
+	/**
+	 * Continues reading through the same block, starting with the bytes that
+	 * are still buffered. Reads of at least a block go to the source
+	 * directly.
+	 */
+	private final class BlockStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			if (CtmStreamInput.this.position == CtmStreamInput.this.limit && !fill()) {
+				return -1;
+			}
+			return CtmStreamInput.this.block[CtmStreamInput.this.position++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			final CtmStreamInput input = CtmStreamInput.this;
+			if (input.position == input.limit) {
+				if (len >= input.block.length) {
+					final int n = input.source.read(b, off, len);
+					if (n > 0) {
+						input.bytesRead += n;
+					}
+					return n;
+				}
+				if (!fill()) {
+					return -1;
+				}
+			}
+			final int n = Math.min(len, input.limit - input.position);
+			System.arraycopy(input.block, input.position, b, off, n);
+			input.position += n;
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final CtmStreamInput input = CtmStreamInput.this;
+			final int buffered = (int) Math.max(0, Math.min(n, input.limit - input.position));
+			input.position += buffered;
+			return buffered < n ? buffered + input.source.skip(n - buffered) : buffered;
+		}
+
+		@Override
+		public int available() throws IOException {
+			final CtmStreamInput input = CtmStreamInput.this;
+			return input.limit - input.position + input.source.available();
+		}
+	}
+
+}
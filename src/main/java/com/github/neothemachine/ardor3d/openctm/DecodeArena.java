@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Arrays;
+
+/**
+ * Scratch arrays of the loading thread, which grow to the largest mesh seen
+ * and are reused by every later load on that thread. They hold the packed
+ * sections that are handed to JOpenCTM and the working set of the
+ * {@link VertexCacheOptimizer}. Steady-state loading thus allocates little
+ * more than the buffers of the mesh itself, except for the arrays JOpenCTM
+ * decodes MG1 and MG2 files into, which are out of reach.
+ * 
+ * Arrays are handed out by slot, each slot belonging to one use. They may
+ * be longer than requested and hold data of earlier uses unless they are
+ * requested cleared. An array is only valid until its slot is requested
+ * again, and must never end up in a mesh.
+ */
+final class DecodeArena {
+
+	// int slots
+	static final int INDICES = 0;
+	static final int OPTIMIZED = 1;
+	static final int REMAINING = 2;
+	static final int OFFSETS = 3;
+	static final int FILL = 4;
+	static final int ADJACENCY = 5;
+	static final int CACHE_POSITIONS = 6;
+	static final int EMITTED = 7;
+	static final int REMAP = 8;
+	static final int INSERTED = 9;
+	private static final int INT_SLOTS = 10;
+
+	// float slots
+	static final int VERTEX_SCORES = 0;
+	static final int TRIANGLE_SCORES = 1;
+	static final int REORDER = 2;
+	private static final int FLOAT_SLOTS = 3;
+
+	// byte slots
+	static final int SECTIONS = 0;
+	private static final int BYTE_SLOTS = 1;
+
+	private static final ThreadLocal<DecodeArena> ARENAS = new ThreadLocal<DecodeArena>() {
+		@Override
+		protected DecodeArena initialValue() {
+			return new DecodeArena();
+		}
+	};
+
+	private final int[][] ints = new int[INT_SLOTS][0];
+	private final float[][] floats = new float[FLOAT_SLOTS][0];
+	private final byte[][] bytes = new byte[BYTE_SLOTS][0];
+	private long capacity;
+	private int growCount;
+
+	/**
+	 * @return the arena of the current thread
+	 */
+	static DecodeArena get() {
+		return ARENAS.get();
+	}
+
+	/**
+	 * @return an array of at least the given length with undefined contents
+	 */
+	int[] ints(final int slot, final int length) {
+		if (this.ints[slot].length < length) {
+			this.capacity -= this.ints[slot].length * 4L;
+			this.ints[slot] = new int[grow(this.ints[slot].length, length)];
+			this.capacity += this.ints[slot].length * 4L;
+			this.growCount++;
+		}
+		return this.ints[slot];
+	}
+
+	/**
+	 * @return an array of at least the given length whose first
+	 *         <code>length</code> values are 0
+	 */
+	int[] clearedInts(final int slot, final int length) {
+		final int[] array = ints(slot, length);
+		Arrays.fill(array, 0, length, 0);
+		return array;
+	}
+
+	/**
+	 * @return an array of at least the given length with undefined contents
+	 */
+	float[] floats(final int slot, final int length) {
+		if (this.floats[slot].length < length) {
+			this.capacity -= this.floats[slot].length * 4L;
+			this.floats[slot] = new float[grow(this.floats[slot].length, length)];
+			this.capacity += this.floats[slot].length * 4L;
+			this.growCount++;
+		}
+		return this.floats[slot];
+	}
+
+	/**
+	 * @return an array of at least the given length whose first
+	 *         <code>keep</code> values are those of the array handed out
+	 *         before for the slot, for arrays that are filled bit by bit
+	 */
+	byte[] bytes(final int slot, final int length, final int keep) {
+		if (this.bytes[slot].length < length) {
+			final byte[] grown = new byte[grow(this.bytes[slot].length, length)];
+			System.arraycopy(this.bytes[slot], 0, grown, 0, keep);
+			this.capacity += grown.length - this.bytes[slot].length;
+			this.bytes[slot] = grown;
+			this.growCount++;
+		}
+		return this.bytes[slot];
+	}
+
+	/**
+	 * @return the bytes held by all arrays
+	 */
+	long getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return how often an array had to be replaced by a larger one
+	 */
+	int getGrowCount() {
+		return this.growCount;
+	}
+
+	/**
+	 * Drops all arrays, see {@link OpenCtmImporter#clearScratchBuffers()}.
+	 */
+	void clear() {
+		for (int i = 0; i < INT_SLOTS; i++) {
+			this.ints[i] = new int[0];
+		}
+		for (int i = 0; i < FLOAT_SLOTS; i++) {
+			this.floats[i] = new float[0];
+		}
+		for (int i = 0; i < BYTE_SLOTS; i++) {
+			this.bytes[i] = new byte[0];
+		}
+		this.capacity = 0;
+	}
+
+	/**
+	 * Grows by at least half, so that slowly growing meshes don't reallocate
+	 * on every load.
+	 */
+	private static int grow(final int current, final int required) {
+		return (int) Math.min(Integer.MAX_VALUE - 8,
+				Math.max(required, current + (long) (current >> 1)));
+	}
+
+}
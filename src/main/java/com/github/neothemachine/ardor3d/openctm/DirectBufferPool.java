@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+
+/**
+ * Pool of direct memory for the buffers of imported meshes, for
+ * {@link OpenCtmImporter#setBufferPool(DirectBufferPool)}.
+ * 
+ * Direct buffers are only freed once the garbage collector finds them,
+ * which under heavy streaming can be too late. Meshes imported with a pool
+ * instead give their memory back with {@link #release(Mesh)}, and the next
+ * import reuses it. Memory is pooled in power of two size classes, from
+ * 4 KB up to 1 GB, so a block can serve any buffer of up to its size.
+ * 
+ * Meshes that share the buffers of an imported mesh, like those handed out
+ * by {@link CtmLoaderService}, are registered with the same blocks, which
+ * go back to the pool once every one of these meshes was released.
+ * 
+ * With leak detection enabled, meshes that are garbage collected without
+ * having been released are logged together with the stack trace of their
+ * import. Blocks whose meshes all disappeared that way are left to the
+ * garbage collector.
+ */
+public class DirectBufferPool {
+
+	private static final Logger logger = Logger.getLogger(DirectBufferPool.class.getName());
+
+	private static final int MIN_CLASS = 12;
+	private static final int MAX_CLASS = 30;
+
+	private final long maxPooledBytes;
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_CLASS + 1];
+	/** the blocks of each registered mesh that wasn't released yet */
+	private final Map<Mesh, MeshReference> leases = new WeakHashMap<Mesh, MeshReference>();
+
+	private boolean leakDetection;
+	private final ReferenceQueue<Mesh> collected = new ReferenceQueue<Mesh>();
+	/** keeps the references reachable until they are released or collected */
+	private final Set<MeshReference> tracked = new HashSet<MeshReference>();
+
+	private long allocatedBytes;
+	private long pooledBytes;
+	private long leasedBytes;
+	private long hits;
+	private long misses;
+	private long releases;
+	private long leaks;
+
+	/**
+	 * @param maxPooledBytes
+	 *            the maximum number of bytes that are kept for reuse. Released
+	 *            buffers beyond that are left to the garbage collector.
+	 */
+	public DirectBufferPool(final long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+			this.free[i] = new ArrayDeque<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * @param leakDetection
+	 *            whether to report meshes that are garbage collected without
+	 *            being released, default is false. It only applies to meshes
+	 *            imported afterwards.
+	 */
+	public synchronized DirectBufferPool setLeakDetection(final boolean leakDetection) {
+		this.leakDetection = leakDetection;
+		return this;
+	}
+
+	/**
+	 * Removes the buffers of a mesh imported with this pool from it. Once
+	 * every mesh sharing these buffers was released, they go back to the
+	 * pool. The mesh must not use them afterwards.
+	 * 
+	 * @return false if the mesh wasn't imported with this pool or was
+	 *         released already
+	 */
+	public boolean release(final Mesh mesh) {
+		final BufferLease lease;
+		final boolean last;
+		synchronized (this) {
+			final MeshReference reference = this.leases.remove(mesh);
+			if (reference == null) {
+				return false;
+			}
+			this.tracked.remove(reference);
+			reference.clear();
+			this.releases++;
+			lease = reference.lease;
+			last = --lease.holders == 0;
+		}
+		final MeshData meshData = mesh.getMeshData();
+		meshData.setIndices(null);
+		meshData.setVertexCoords(null);
+		meshData.setNormalCoords(null);
+		meshData.setColorCoords(null);
+		for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+			meshData.setTextureCoords(null, i);
+		}
+		if (CompactVertexData.of(mesh) != null || InterleavedVertexData.of(mesh) != null) {
+			mesh.setUserData(null);
+		}
+		if (last) {
+			lease.releaseAll();
+		}
+		checkLeaks();
+		return true;
+	}
+
+	/**
+	 * Reports meshes that were garbage collected without being released.
+	 * This happens on every release anyway.
+	 * 
+	 * @return the number of leaked meshes found
+	 */
+	public int checkLeaks() {
+		int found = 0;
+		MeshReference reference;
+		while ((reference = (MeshReference) this.collected.poll()) != null) {
+			synchronized (this) {
+				if (!this.tracked.remove(reference)) {
+					continue;
+				}
+				if (--reference.lease.holders == 0) {
+					this.leasedBytes -= reference.lease.getBytes();
+				}
+				if (reference.origin == null) {
+					continue;
+				}
+				this.leaks++;
+			}
+			found++;
+			logger.log(Level.WARNING, "Mesh '" + reference.name
+					+ "' was never released, it was imported here", reference.origin);
+		}
+		return found;
+	}
+
+	/**
+	 * @return the direct memory allocated by the pool so far
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+
+	/**
+	 * @return the memory waiting for reuse
+	 */
+	public synchronized long getPooledBytes() {
+		return this.pooledBytes;
+	}
+
+	/**
+	 * @return the memory held by imported meshes that weren't released yet,
+	 *         including meshes that were garbage collected since the last
+	 *         {@link #checkLeaks()}
+	 */
+	public synchronized long getLeasedBytes() {
+		return this.leasedBytes;
+	}
+
+	/**
+	 * @return the number of buffers that reused pooled memory
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of buffers that needed new memory
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	public synchronized long getReleaseCount() {
+		return this.releases;
+	}
+
+	/**
+	 * @return the number of leaked meshes found so far, see
+	 *         {@link #setLeakDetection(boolean)}
+	 */
+	public synchronized long getLeakCount() {
+		return this.leaks;
+	}
+
+	/**
+	 * @return the number of registered meshes, including those sharing the
+	 *         buffers of another one, that are still reachable and weren't
+	 *         released yet
+	 */
+	public synchronized int getUnreleasedCount() {
+		return this.leases.size();
+	}
+
+	/**
+	 * Drops all pooled memory.
+	 */
+	public synchronized void clear() {
+		for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+			this.free[i].clear();
+		}
+		this.pooledBytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DirectBufferPool[allocated=" + this.allocatedBytes + ", pooled="
+				+ this.pooledBytes + ", leased=" + this.leasedBytes + ", hits="
+				+ this.hits + ", misses=" + this.misses + ", releases="
+				+ this.releases + ", leaks=" + this.leaks + "]";
+	}
+
+	/**
+	 * @return a native order block whose limit is the given size. Its
+	 *         capacity is that of its size class.
+	 */
+	synchronized ByteBuffer acquire(final int bytes) {
+		final int sizeClass = sizeClass(bytes);
+		ByteBuffer block = sizeClass <= MAX_CLASS ? this.free[sizeClass].pollFirst() : null;
+		if (block != null) {
+			this.hits++;
+			this.pooledBytes -= block.capacity();
+		} else {
+			this.misses++;
+			block = ByteBuffer.allocateDirect(sizeClass <= MAX_CLASS ? 1 << sizeClass : bytes)
+					.order(ByteOrder.nativeOrder());
+			this.allocatedBytes += block.capacity();
+		}
+		this.leasedBytes += block.capacity();
+		block.clear();
+		block.limit(bytes);
+		return block;
+	}
+
+	/**
+	 * Takes back a block of a lease that ended.
+	 */
+	synchronized void giveBack(final ByteBuffer block) {
+		this.leasedBytes -= block.capacity();
+		final int sizeClass = sizeClass(block.capacity());
+		if (sizeClass <= MAX_CLASS && block.capacity() == 1 << sizeClass
+				&& this.pooledBytes + block.capacity() <= this.maxPooledBytes) {
+			this.free[sizeClass].addFirst(block);
+			this.pooledBytes += block.capacity();
+		}
+	}
+
+	/**
+	 * Remembers the blocks of an imported mesh until it is released.
+	 */
+	void register(final Mesh mesh, final BufferLease lease) {
+		synchronized (this) {
+			lease.holders = 1;
+			track(mesh, lease);
+		}
+		checkLeaks();
+	}
+
+	/**
+	 * Registers a mesh sharing the buffers of a registered one, so that they
+	 * stay leased until both are released.
+	 * 
+	 * @return false if the shared mesh isn't registered with this pool
+	 */
+	synchronized boolean share(final Mesh registered, final Mesh copy) {
+		final MeshReference reference = this.leases.get(registered);
+		if (reference == null) {
+			return false;
+		}
+		reference.lease.holders++;
+		track(copy, reference.lease);
+		return true;
+	}
+
+	private void track(final Mesh mesh, final BufferLease lease) {
+		final MeshReference reference = new MeshReference(mesh, lease,
+				this.collected, this.leakDetection);
+		this.leases.put(mesh, reference);
+		this.tracked.add(reference);
+	}
+
+	private static int sizeClass(final int bytes) {
+		final int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+		return Math.max(MIN_CLASS, sizeClass);
+	}
+
+	/**
+	 * Notices registered meshes that were garbage collected without being
+	 * released.
+	 */
+	private static final class MeshReference extends WeakReference<Mesh> {
+
+		private final BufferLease lease;
+		private final String name;
+		/** the import of the mesh, null if leaks aren't reported */
+		private final Throwable origin;
+
+		MeshReference(final Mesh mesh, final BufferLease lease,
+				final ReferenceQueue<Mesh> queue, final boolean leakDetection) {
+			super(mesh, queue);
+			this.lease = lease;
+			this.name = mesh.getName();
+			this.origin = leakDetection ? new Throwable("Import of " + mesh.getName()) : null;
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+
+/**
+ * State of a single load that is shared between the importer, the reader
+ * and whoever started the load.
+ */
+final class ImportContext {
+
+	private final CtmImportListener listener;
+	private final ImportStats stats = new ImportStats();
+	private Mesh mesh;
+	private DirectBufferPool bufferPool;
+	/** stages waiting to be published, or null if they are published right away */
+	private List<DeferredStage> deferred;
+	/** whether the listener was handed any buffers */
+	private boolean published;
+	private volatile boolean cancelled;
+
+	ImportContext() {
+		this(null);
+	}
+
+	ImportContext(final CtmImportListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the mesh that is published to the listener.
+	 */
+	void setMesh(final Mesh mesh) {
+		this.mesh = mesh;
+	}
+
+	/**
+	 * Remembers the pool the imported mesh was registered with.
+	 */
+	void setBufferPool(final DirectBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return the pool the imported mesh was registered with, or null if its
+	 *         buffers aren't pooled
+	 */
+	DirectBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * @return the statistics of this load, which are only touched by the
+	 *         loading thread
+	 */
+	ImportStats getStats() {
+		return this.stats;
+	}
+
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Holds back all stages but the header until
+	 * {@link #publishDeferredStages()}, for buffers that are still rewritten
+	 * after they were read. Cancellation is checked all the same.
+	 */
+	void deferStages() {
+		if (this.deferred == null) {
+			this.deferred = new ArrayList<DeferredStage>();
+		}
+	}
+
+	/**
+	 * Notifies the listener of the stages held back since
+	 * {@link #deferStages()} and publishes later stages right away again.
+	 */
+	void publishDeferredStages() {
+		final List<DeferredStage> deferred = this.deferred;
+		if (deferred == null) {
+			return;
+		}
+		this.deferred = null;
+		for (final DeferredStage stage : deferred) {
+			stageCompleted(stage.stage, stage.index);
+		}
+	}
+
+	/**
+	 * Called after each decode stage, aborts the load if it was cancelled
+	 * and notifies the listener otherwise.
+	 */
+	void stageCompleted(final ImportStage stage, final int index) {
+		checkCancelled();
+		if (this.deferred != null && stage != ImportStage.HEADER) {
+			this.deferred.add(new DeferredStage(stage, index));
+		} else if (this.listener != null) {
+			this.published |= stage != ImportStage.HEADER;
+			this.listener.stageCompleted(this.mesh, stage, index);
+		}
+	}
+
+	/**
+	 * @return whether the listener has seen any of the decoded buffers, which
+	 *         it may still hold on to
+	 */
+	boolean hasPublishedBuffers() {
+		return this.published;
+	}
+
+	/**
+	 * Notifies the listener of all stages at once for a mesh that didn't need
+	 * to be decoded.
+	 */
+	void allStagesCompleted(final Mesh mesh) {
+		setMesh(mesh);
+		final MeshData meshData = mesh.getMeshData();
+		stageCompleted(ImportStage.HEADER, 0);
+		if (meshData.getIndices() != null) {
+			stageCompleted(ImportStage.INDICES, 0);
+		}
+		final CompactVertexData compact = CompactVertexData.of(mesh);
+		final InterleavedVertexData interleaved = InterleavedVertexData.of(mesh);
+		if (meshData.getVertexCoords() != null
+				|| (compact != null && compact.getPositions() != null)
+				|| (interleaved != null && interleaved.getPositionOffset() >= 0)) {
+			stageCompleted(ImportStage.VERTICES, 0);
+		}
+		if (meshData.getNormalCoords() != null
+				|| (interleaved != null && interleaved.getNormalOffset() >= 0)) {
+			stageCompleted(ImportStage.NORMALS, 0);
+		}
+		for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+			final FloatBufferData coords = meshData.getTextureCoords(i);
+			final int size = coords != null ? coords.getValuesPerTuple()
+					: interleaved != null && i < interleaved.getTextureUnitCount()
+							? interleaved.getTextureSize(i) : 0;
+			if (size > 0) {
+				// UV maps have two components, attribute maps four
+				stageCompleted(size == 2 ? ImportStage.UV_MAP
+						: ImportStage.ATTRIBUTE_MAP, i);
+			}
+		}
+		if (meshData.getColorCoords() != null
+				|| (interleaved != null && interleaved.getColorOffset() >= 0)) {
+			stageCompleted(ImportStage.ATTRIBUTE_MAP, -1);
+		}
+	}
+
+	/**
+	 * Aborts the load if it was cancelled.
+	 */
+	void checkCancelled() {
+		if (this.cancelled) {
+			throw new CancellationException("Load was cancelled");
+		}
+	}
+
+	private static final class DeferredStage {
+
+		final ImportStage stage;
+		final int index;
+
+		DeferredStage(final ImportStage stage, final int index) {
+			this.stage = stage;
+			this.index = index;
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * The phases an import spends its time in, as reported by
+ * {@link ImportStats#getNanos(ImportPhase)}.
+ */
+public enum ImportPhase {
+
+	/** Finding the resource by name. Zero if a resource was given. */
+	LOCATE,
+
+	/** Opening or memory mapping the resource, or a disk cache entry. */
+	OPEN,
+
+	/** Reading the file header, and the grid header of MG2 files. */
+	HEADER,
+
+	/** LZMA decoding of MG1 and MG2 files by JOpenCTM. Zero for RAW files. */
+	DECODE,
+
+	/**
+	 * Allocating the buffers and filling them, either from the file or from
+	 * the arrays decoded by JOpenCTM.
+	 */
+	FILL,
+
+	/**
+	 * Computing the model bound. For MG1 files the bound is computed while
+	 * the decoded vertices are copied, so the time is part of {@link #FILL}.
+	 */
+	BOUNDS,
+
+	/** Vertex cache optimization and compact vertex formats. */
+	POST_PROCESS
+
+}
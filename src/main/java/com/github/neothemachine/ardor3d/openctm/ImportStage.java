@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+/**
+ * The stages of an import, in the order in which they complete.
+ * 
+ * @see CtmImportListener
+ */
+public enum ImportStage {
+
+	/**
+	 * The file header was read. For RAW files that are not memory mapped,
+	 * all buffers of the mesh except the attribute maps are already allocated
+	 * in their final size.
+	 */
+	HEADER,
+
+	/** The index buffer is complete. */
+	INDICES,
+
+	/** The vertex buffer is complete. */
+	VERTICES,
+
+	/** The normal buffer is complete. */
+	NORMALS,
+
+	/** The texture buffer of one texture unit is complete. */
+	UV_MAP,
+
+	/**
+	 * The buffer of one attribute map is complete. The index is the texture
+	 * unit it was stored in, or -1 for the color buffer.
+	 */
+	ATTRIBUTE_MAP
+
+}
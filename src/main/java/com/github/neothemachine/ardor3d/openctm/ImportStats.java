@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings and byte counts of a single import.
+ * 
+ * @see CtmMetricsListener
+ */
+public final class ImportStats {
+
+	/**
+	 * A section of the file that was imported.
+	 */
+	public static final class Section {
+
+		private final String tag;
+		private final String name;
+		private final long storedBytes;
+		private final long decodedBytes;
+		private final long nanos;
+
+		Section(final String tag, final String name, final long storedBytes,
+				final long decodedBytes, final long nanos) {
+			this.tag = tag;
+			this.name = name;
+			this.storedBytes = storedBytes;
+			this.decodedBytes = decodedBytes;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the section tag, like <code>VERT</code> or
+		 *         <code>TEXC</code>
+		 */
+		public String getTag() {
+			return this.tag;
+		}
+
+		/**
+		 * @return the name of the UV or attribute map, otherwise null
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the size of the section data in the file, or -1 if it
+		 *         isn't known. JOpenCTM doesn't report the packed sizes of
+		 *         MG1 and MG2 sections.
+		 */
+		public long getStoredBytes() {
+			return this.storedBytes;
+		}
+
+		/**
+		 * @return the size of the buffer the section was decoded into
+		 */
+		public long getDecodedBytes() {
+			return this.decodedBytes;
+		}
+
+		/**
+		 * @return the time spent filling the buffer, or -1 if it wasn't
+		 *         measured separately. The buffers of MG1 and MG2 files are
+		 *         filled together, see {@link ImportPhase#FILL}.
+		 */
+		public long getNanos() {
+			return this.nanos;
+		}
+
+		@Override
+		public String toString() {
+			return (this.name != null ? this.tag + " '" + this.name + "'" : this.tag)
+					+ ": stored=" + this.storedBytes + " decoded="
+					+ this.decodedBytes + " nanos=" + this.nanos;
+		}
+	}
+
+	private final Map<ImportPhase, Long> nanos = new EnumMap<ImportPhase, Long>(ImportPhase.class);
+	private final List<Section> sections = new ArrayList<Section>();
+	private String resourceName;
+	private CtmMethod method;
+	private boolean cacheHit;
+	private long bytesRead;
+	private long totalNanos;
+	private Throwable failure;
+
+	ImportStats() {
+	}
+
+	/**
+	 * @return the name of the imported resource
+	 */
+	public String getResourceName() {
+		return this.resourceName;
+	}
+
+	/**
+	 * @return the method the file was stored with, or null if the header
+	 *         wasn't read
+	 */
+	public CtmMethod getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * @return whether the mesh was taken from the {@link CtmMeshCache}, in
+	 *         which case only the total time is known
+	 */
+	public boolean isCacheHit() {
+		return this.cacheHit;
+	}
+
+	/**
+	 * @return the number of bytes read from the resource or disk cache entry.
+	 *         Sections skipped by seeking are not counted.
+	 */
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	/**
+	 * @return the time spent in the given phase
+	 */
+	public long getNanos(final ImportPhase phase) {
+		final Long value = this.nanos.get(phase);
+		return value != null ? value : 0;
+	}
+
+	/**
+	 * @return the time of the whole import, including the time that isn't
+	 *         attributed to a phase
+	 */
+	public long getTotalNanos() {
+		return this.totalNanos;
+	}
+
+	/**
+	 * @return the imported sections in file order
+	 */
+	public List<Section> getSections() {
+		return Collections.unmodifiableList(this.sections);
+	}
+
+	/**
+	 * @return the exception the import failed with, or null if it succeeded
+	 */
+	public Throwable getFailure() {
+		return this.failure;
+	}
+
+	void setResourceName(final String resourceName) {
+		this.resourceName = resourceName;
+	}
+
+	void setMethod(final CtmMethod method) {
+		this.method = method;
+	}
+
+	void setCacheHit(final boolean cacheHit) {
+		this.cacheHit = cacheHit;
+	}
+
+	void setBytesRead(final long bytesRead) {
+		this.bytesRead = bytesRead;
+	}
+
+	void setTotalNanos(final long totalNanos) {
+		this.totalNanos = totalNanos;
+	}
+
+	void setFailure(final Throwable failure) {
+		this.failure = failure;
+	}
+
+	/**
+	 * Adds the time since <code>start</code> to the given phase.
+	 * 
+	 * @return the current time, so that the next phase can start from it
+	 */
+	long addSince(final ImportPhase phase, final long start) {
+		final long now = System.nanoTime();
+		addNanos(phase, now - start);
+		return now;
+	}
+
+	void addNanos(final ImportPhase phase, final long nanos) {
+		this.nanos.put(phase, getNanos(phase) + nanos);
+	}
+
+	void addSection(final int tag, final String name, final long storedBytes,
+			final long decodedBytes, final long nanos) {
+		this.sections.add(new Section(CtmFormat.tagName(tag), name,
+				storedBytes, decodedBytes, nanos));
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder s = new StringBuilder();
+		s.append(this.resourceName).append(": method=").append(this.method)
+				.append(" cacheHit=").append(this.cacheHit)
+				.append(" bytesRead=").append(this.bytesRead)
+				.append(" totalNanos=").append(this.totalNanos);
+		for (final ImportPhase phase : this.nanos.keySet()) {
+			s.append(' ').append(phase).append('=').append(this.nanos.get(phase));
+		}
+		if (this.failure != null) {
+			s.append(" failure=").append(this.failure);
+		}
+		return s.toString();
+	}
+
+}
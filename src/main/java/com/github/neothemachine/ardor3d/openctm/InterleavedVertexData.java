@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * The float vertex attributes of an imported mesh interleaved into a single
+ * buffer, see {@link OpenCtmImporter#setInterleavedVertices(boolean)}.
+ * 
+ * Each vertex occupies {@link #getStride()} floats. Within a vertex, the
+ * position comes first, followed by the normal, the color and the texture
+ * units in ascending order, each of them only if the mesh has it. Offsets
+ * and the stride are counted in floats, so they have to be multiplied by
+ * four for <code>glVertexAttribPointer</code>.
+ */
+public class InterleavedVertexData {
+
+	final FloatBuffer buffer;
+	final int stride;
+	final int vertexCount;
+	int positionOffset = -1;
+	int normalOffset = -1;
+	int colorOffset = -1;
+	final int[] textureOffsets;
+	final int[] textureSizes;
+
+	InterleavedVertexData(final FloatBuffer buffer, final int stride,
+			final int vertexCount, final int textureUnits) {
+		this.buffer = buffer;
+		this.stride = stride;
+		this.vertexCount = vertexCount;
+		this.textureOffsets = new int[textureUnits];
+		this.textureSizes = new int[textureUnits];
+		Arrays.fill(this.textureOffsets, -1);
+	}
+
+	/**
+	 * @return a copy whose buffer shares the memory, but not the position and
+	 *         limit, of the buffer of this one
+	 */
+	InterleavedVertexData duplicate() {
+		final InterleavedVertexData copy = new InterleavedVertexData(this.buffer.duplicate(),
+				this.stride, this.vertexCount, this.textureOffsets.length);
+		copy.positionOffset = this.positionOffset;
+		copy.normalOffset = this.normalOffset;
+		copy.colorOffset = this.colorOffset;
+		System.arraycopy(this.textureOffsets, 0, copy.textureOffsets, 0, this.textureOffsets.length);
+		System.arraycopy(this.textureSizes, 0, copy.textureSizes, 0, this.textureSizes.length);
+		return copy;
+	}
+
+	/**
+	 * @return the interleaved attributes of the given mesh, or null if it
+	 *         has none
+	 */
+	public static InterleavedVertexData of(final Mesh mesh) {
+		final Object data = mesh.getUserData();
+		return data instanceof InterleavedVertexData ? (InterleavedVertexData) data : null;
+	}
+
+	/**
+	 * @return {@link #getStride()} floats per vertex
+	 */
+	public FloatBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @return the number of floats per vertex
+	 */
+	public int getStride() {
+		return this.stride;
+	}
+
+	public int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * @return the offset of the three position components, or -1 if the
+	 *         positions weren't imported
+	 */
+	public int getPositionOffset() {
+		return this.positionOffset;
+	}
+
+	/**
+	 * @return the offset of the three normal components, or -1 if there are
+	 *         no normals
+	 */
+	public int getNormalOffset() {
+		return this.normalOffset;
+	}
+
+	/**
+	 * @return the offset of the four color components, or -1 if there is no
+	 *         color attribute map
+	 */
+	public int getColorOffset() {
+		return this.colorOffset;
+	}
+
+	public int getTextureUnitCount() {
+		return this.textureOffsets.length;
+	}
+
+	/**
+	 * @return the offset of the given texture unit, or -1 if it is empty
+	 */
+	public int getTextureOffset(final int unit) {
+		return this.textureOffsets[unit];
+	}
+
+	/**
+	 * @return two components for UV maps, four for attribute maps, or 0 if
+	 *         the unit is empty
+	 */
+	public int getTextureSize(final int unit) {
+		return this.textureSizes[unit];
+	}
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.ardor3d.bounding.BoundingSphere;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.MeshEncoder;
+
+/**
+ * Builds simplified levels of detail of a mesh and wires them into a
+ * {@link CtmLodNode}.
+ * 
+ * Each level is simplified from the previous one by quadric error edge
+ * collapses. The triangles are split into spatial chunks that are
+ * simplified in parallel with their borders locked; as the chunks are
+ * formed anew for every level, borders of one level are simplified in the
+ * next. The levels reuse the vertices of the mesh, so their normals,
+ * colors and texture coordinates stay exact. The result only depends on
+ * the mesh and the settings.
+ */
+public class LodGenerator {
+
+	private static final String LEVEL_SUFFIX = "_lod";
+
+	private float[] ratios = {0.5f, 0.25f, 0.125f};
+	private double[] switchDistances;
+	private int chunkTriangles = 16 * 1024;
+	private boolean compactIndices = true;
+	private ForkJoinPool pool;
+
+	/**
+	 * @param ratios
+	 *            the share of triangles to keep for each level after the
+	 *            original one, in descending order. Default is 0.5, 0.25 and
+	 *            0.125.
+	 */
+	public LodGenerator setRatios(final float... ratios) {
+		this.ratios = ratios.clone();
+		return this;
+	}
+
+	/**
+	 * @param switchDistances
+	 *            the distances from which on the next level is drawn, one
+	 *            per ratio. By default, they double starting from four times
+	 *            the radius of the mesh.
+	 */
+	public LodGenerator setSwitchDistances(final double... switchDistances) {
+		this.switchDistances = switchDistances.clone();
+		return this;
+	}
+
+	/**
+	 * @param chunkTriangles
+	 *            the number of triangles per chunk that is simplified on its
+	 *            own, default is 16384
+	 */
+	public LodGenerator setChunkTriangles(final int chunkTriangles) {
+		if (chunkTriangles < 1) {
+			throw new IllegalArgumentException("chunkTriangles must be at least 1");
+		}
+		this.chunkTriangles = chunkTriangles;
+		return this;
+	}
+
+	/**
+	 * @see OpenCtmImporter#setCompactIndices(boolean)
+	 */
+	public LodGenerator setCompactIndices(final boolean compactIndices) {
+		this.compactIndices = compactIndices;
+		return this;
+	}
+
+	/**
+	 * @param pool
+	 *            the pool to simplify the chunks on, or null to do it in the
+	 *            calling thread (default)
+	 */
+	public LodGenerator setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Builds the levels of detail of a mesh of triangles.
+	 * 
+	 * @return a node named after the mesh with the mesh itself as level 0
+	 */
+	public CtmLodNode generate(final Mesh mesh) {
+		final MeshData source = mesh.getMeshData();
+		if (source.getVertexCoords() == null) {
+			throw new IllegalArgumentException("Can't simplify a mesh without vertices");
+		}
+		final FloatBuffer vertexBuffer = source.getVertexBuffer();
+		final float[] positions = new float[vertexBuffer.limit()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = vertexBuffer.get(i);
+		}
+		final boolean sphereBounds = mesh.getModelBound() instanceof BoundingSphere;
+
+		final List<Mesh> levels = new ArrayList<Mesh>(this.ratios.length + 1);
+		levels.add(mesh);
+		int[] indices = OpenCtmExporter.toIndexArray(source);
+		final int triangleCount = indices.length / 3;
+		for (int i = 0; i < this.ratios.length; i++) {
+			indices = simplify(positions, indices, Math.round(triangleCount * this.ratios[i]));
+			final Mesh level = MeshChunker.extract(source, indices, this.compactIndices, sphereBounds);
+			level.setName(mesh.getName() + LEVEL_SUFFIX + (i + 1));
+			levels.add(level);
+		}
+		return new CtmLodNode(mesh.getName(), levels, switchDistances(positions));
+	}
+
+	/**
+	 * Writes the levels of a node to <code>baseName_lodN.ctm</code> files, so
+	 * that they can be loaded with {@link #load(OpenCtmImporter, List)}
+	 * instead of being generated again.
+	 * 
+	 * @return the written files, most detailed first
+	 */
+	public List<File> save(final CtmLodNode node, final File directory,
+			final String baseName, final MeshEncoder encoder) throws IOException {
+		final OpenCtmExporter exporter = new OpenCtmExporter().setPool(this.pool);
+		final List<File> files = new ArrayList<File>(node.getLevelCount());
+		for (int i = 0; i < node.getLevelCount(); i++) {
+			final File file = new File(directory, baseName + LEVEL_SUFFIX + i + ".ctm");
+			exporter.save(node.getLevel(i), file, encoder);
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * Loads levels written by
+	 * {@link #save(CtmLodNode, File, String, MeshEncoder)} into a node named
+	 * after their base name, using the configured switch distances.
+	 * 
+	 * @param files
+	 *            the levels, most detailed first
+	 */
+	public CtmLodNode load(final OpenCtmImporter importer, final List<File> files)
+			throws IOException {
+		final List<Mesh> levels = new ArrayList<Mesh>(files.size());
+		for (final File file : files) {
+			levels.add(importer.load(new URLResourceSource(file.toURI().toURL())));
+		}
+		final Mesh first = levels.get(0);
+		final FloatBuffer vertexBuffer = first.getMeshData().getVertexBuffer();
+		final float[] positions = new float[vertexBuffer.limit()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = vertexBuffer.get(i);
+		}
+		String name = files.get(0).getName();
+		if (name.endsWith(LEVEL_SUFFIX + "0.ctm")) {
+			name = name.substring(0, name.length() - (LEVEL_SUFFIX + "0.ctm").length());
+		}
+		final double[] distances = this.switchDistances != null && this.switchDistances.length == levels.size() - 1
+				? this.switchDistances : defaultSwitchDistances(positions, levels.size() - 1);
+		return new CtmLodNode(name, levels, distances);
+	}
+
+	private double[] switchDistances(final float[] positions) {
+		if (this.switchDistances != null) {
+			return this.switchDistances;
+		}
+		return defaultSwitchDistances(positions, this.ratios.length);
+	}
+
+	private static double[] defaultSwitchDistances(final float[] positions, final int count) {
+		final VertexBounds bounds = new VertexBounds();
+		bounds.add(positions, 0, positions.length);
+		final double radius = ((BoundingSphere) bounds.toBoundingVolume(true)).getRadius();
+		final double[] distances = new double[count];
+		for (int i = 0; i < count; i++) {
+			distances[i] = radius * (4 << i);
+		}
+		return distances;
+	}
+
+	/**
+	 * Simplifies the triangles chunk by chunk.
+	 * 
+	 * @return the indices of the remaining triangles
+	 */
+	private int[] simplify(final float[] positions, final int[] indices,
+			final int targetTriangles) {
+		final int[] triangles = new int[indices.length / 3];
+		for (int i = 0; i < triangles.length; i++) {
+			triangles[i] = i;
+		}
+		final float[] centroids = MeshChunker.centroids(FloatBuffer.wrap(positions), indices);
+		final int[] ranges = MeshChunker.partition(centroids, triangles, this.chunkTriangles);
+		final double share = triangles.length > 0 ? (double) targetTriangles / triangles.length : 0;
+
+		final List<ChunkSimplification> chunks = new ArrayList<ChunkSimplification>();
+		for (int i = 0; i < ranges.length - 1; i++) {
+			chunks.add(new ChunkSimplification(positions, indices, triangles,
+					ranges[i], ranges[i + 1], share));
+		}
+		if (this.pool != null) {
+			ParallelCopy.runAll(this.pool, new ArrayList<ForkJoinTask<?>>(chunks));
+		} else {
+			for (final ChunkSimplification chunk : chunks) {
+				chunk.simplify();
+			}
+		}
+
+		int length = 0;
+		for (final ChunkSimplification chunk : chunks) {
+			length += chunk.result.length;
+		}
+		final int[] result = new int[length];
+		int offset = 0;
+		for (final ChunkSimplification chunk : chunks) {
+			System.arraycopy(chunk.result, 0, result, offset, chunk.result.length);
+			offset += chunk.result.length;
+		}
+		return result;
+	}
+
+	/**
+	 * Simplifies the triangles of one chunk on their own vertices.
+	 */
+	private static final class ChunkSimplification extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] positions;
+		private final int[] indices;
+		private final int[] triangles;
+		private final int from;
+		private final int to;
+		private final double share;
+		int[] result;
+
+		ChunkSimplification(final float[] positions, final int[] indices,
+				final int[] triangles, final int from, final int to, final double share) {
+			this.positions = positions;
+			this.indices = indices;
+			this.triangles = triangles;
+			this.from = from;
+			this.to = to;
+			this.share = share;
+		}
+
+		@Override
+		protected void compute() {
+			simplify();
+		}
+
+		void simplify() {
+			final int count = this.to - this.from;
+			final int[] chunkIndices = new int[count * 3];
+			for (int t = 0; t < count; t++) {
+				System.arraycopy(this.indices, this.triangles[this.from + t] * 3, chunkIndices, t * 3, 3);
+			}
+
+			// the sorted distinct vertices, their position is the local number
+			int[] vertices = chunkIndices.clone();
+			Arrays.sort(vertices);
+			int vertexCount = 0;
+			for (int i = 0; i < vertices.length; i++) {
+				if (i == 0 || vertices[i] != vertices[i - 1]) {
+					vertices[vertexCount++] = vertices[i];
+				}
+			}
+			vertices = Arrays.copyOf(vertices, vertexCount);
+			final float[] localPositions = new float[vertexCount * 3];
+			for (int v = 0; v < vertexCount; v++) {
+				System.arraycopy(this.positions, vertices[v] * 3, localPositions, v * 3, 3);
+			}
+			for (int i = 0; i < chunkIndices.length; i++) {
+				chunkIndices[i] = Arrays.binarySearch(vertices, chunkIndices[i]);
+			}
+
+			final int[] remaining = new QuadricSimplifier(localPositions, chunkIndices)
+					.simplify((int) Math.round(count * this.share));
+			for (int i = 0; i < remaining.length; i++) {
+				remaining[i] = vertices[remaining[i]];
+			}
+			this.result = remaining;
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import com.ardor3d.scenegraph.AbstractBufferData;
+import com.ardor3d.scenegraph.ByteBufferData;
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.IntBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.scenegraph.ShortBufferData;
+
+/**
+ * Helpers for dealing with the buffers of imported meshes.
+ */
+final class MeshBuffers {
+
+	private MeshBuffers() {
+	}
+
+	/**
+	 * @return a new mesh with its own {@link MeshData} that shares the memory
+	 *         of all buffers with the given mesh. The buffers are duplicates
+	 *         with a position and limit of their own, so that both meshes can
+	 *         be used by different threads.
+	 */
+	static Mesh share(final Mesh mesh) {
+		final MeshData source = mesh.getMeshData();
+		final MeshData meshData = new MeshData();
+		meshData.setIndices(duplicate(source.getIndices()));
+		meshData.setVertexCoords(duplicate(source.getVertexCoords()));
+		meshData.setNormalCoords(duplicate(source.getNormalCoords()));
+		meshData.setColorCoords(duplicate(source.getColorCoords()));
+		for (int i = 0; i < source.getNumberOfUnits(); i++) {
+			meshData.setTextureCoords(duplicate(source.getTextureCoords(i)), i);
+		}
+
+		final Mesh copy = new Mesh(mesh.getName());
+		copy.setMeshData(meshData);
+		final CompactVertexData compact = CompactVertexData.of(mesh);
+		final InterleavedVertexData interleaved = InterleavedVertexData.of(mesh);
+		if (compact != null) {
+			copy.setUserData(compact.duplicate());
+		} else if (interleaved != null) {
+			copy.setUserData(interleaved.duplicate());
+		} else {
+			copy.setUserData(mesh.getUserData());
+		}
+		if (mesh.getModelBound() != null) {
+			// the buffers are the same, so is the bound
+			copy.setModelBound(mesh.getModelBound().clone(null), false);
+		}
+		return copy;
+	}
+
+	static FloatBufferData duplicate(final FloatBufferData data) {
+		return data == null ? null
+				: new FloatBufferData(data.getBuffer().duplicate(), data.getValuesPerTuple());
+	}
+
+	static IndexBufferData<?> duplicate(final IndexBufferData<?> data) {
+		if (data == null) {
+			return null;
+		}
+		final Buffer buffer = duplicate(data.getBuffer());
+		if (buffer instanceof ByteBuffer) {
+			return new ByteBufferData((ByteBuffer) buffer);
+		} else if (buffer instanceof ShortBuffer) {
+			return new ShortBufferData((ShortBuffer) buffer);
+		}
+		return new IntBufferData((IntBuffer) buffer);
+	}
+
+	/**
+	 * @return a view on the same memory with a position and limit of its
+	 *         own, or null for null
+	 */
+	@SuppressWarnings("unchecked")
+	static <B extends Buffer> B duplicate(final B buffer) {
+		if (buffer instanceof ByteBuffer) {
+			final ByteBuffer bytes = (ByteBuffer) buffer;
+			return (B) bytes.duplicate().order(bytes.order());
+		} else if (buffer instanceof ShortBuffer) {
+			return (B) ((ShortBuffer) buffer).duplicate();
+		} else if (buffer instanceof IntBuffer) {
+			return (B) ((IntBuffer) buffer).duplicate();
+		} else if (buffer instanceof FloatBuffer) {
+			return (B) ((FloatBuffer) buffer).duplicate();
+		} else if (buffer != null) {
+			throw new IllegalArgumentException("Unsupported buffer " + buffer);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of bytes held by all buffers of the given mesh,
+	 *         including its {@link CompactVertexData} or
+	 *         {@link InterleavedVertexData}
+	 */
+	static long byteSize(final Mesh mesh) {
+		long size = byteSize(mesh.getMeshData());
+		final CompactVertexData data = CompactVertexData.of(mesh);
+		if (data != null) {
+			size += byteSize(data.getPositions()) + byteSize(data.getNormals());
+			for (int i = 0; i < data.getTextureUnitCount(); i++) {
+				size += byteSize(data.getTextureCoords(i));
+			}
+		}
+		final InterleavedVertexData interleaved = InterleavedVertexData.of(mesh);
+		if (interleaved != null) {
+			size += byteSize(interleaved.getBuffer());
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes held by all buffers of the given mesh data
+	 */
+	static long byteSize(final MeshData meshData) {
+		long size = byteSize(meshData.getIndices())
+				+ byteSize(meshData.getVertexCoords())
+				+ byteSize(meshData.getNormalCoords())
+				+ byteSize(meshData.getColorCoords());
+		for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+			size += byteSize(meshData.getTextureCoords(i));
+		}
+		return size;
+	}
+
+	static long byteSize(final AbstractBufferData<?> data) {
+		return data == null ? 0 : byteSize(data.getBuffer());
+	}
+
+	static long byteSize(final Buffer buffer) {
+		if (buffer == null) {
+			return 0;
+		}
+		return (long) buffer.capacity() * elementSize(buffer);
+	}
+
+	static int elementSize(final Buffer buffer) {
+		if (buffer instanceof ByteBuffer) {
+			return 1;
+		} else if (buffer instanceof ShortBuffer || buffer instanceof CharBuffer) {
+			return 2;
+		} else if (buffer instanceof DoubleBuffer || buffer instanceof LongBuffer) {
+			return 8;
+		}
+		return 4;
+	}
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.scenegraph.Node;
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Splits a triangle mesh into spatially compact sub-meshes with at most a
+ * given number of triangles each.
+ * 
+ * Triangles are partitioned like a k-d tree: each range is split at the
+ * median triangle centroid along the longest axis of its centroids, until
+ * it fits the budget. Every sub-mesh gets its own vertices (remapped
+ * indices) and bounds.
+ */
+final class MeshChunker {
+
+	private final MeshData source;
+	private final int[] indices;
+	private final float[] centroids;
+	private final int maxTriangles;
+	private final boolean compactIndices;
+	private final boolean sphereBounds;
+
+	/**
+	 * @param mesh
+	 *            a mesh of triangles with vertices
+	 */
+	MeshChunker(final Mesh mesh, final int maxTriangles,
+			final boolean compactIndices, final boolean sphereBounds) {
+		if (maxTriangles < 1) {
+			throw new IllegalArgumentException("maxTriangles must be at least 1");
+		}
+		this.source = mesh.getMeshData();
+		this.indices = OpenCtmExporter.toIndexArray(this.source);
+		this.maxTriangles = maxTriangles;
+		this.compactIndices = compactIndices;
+		this.sphereBounds = sphereBounds;
+
+		this.centroids = centroids(this.source.getVertexBuffer(), this.indices);
+	}
+
+	/**
+	 * @return the centroid of each triangle
+	 */
+	static float[] centroids(final FloatBuffer vertices, final int[] indices) {
+		final float[] centroids = new float[indices.length];
+		for (int i = 0; i < indices.length; i += 3) {
+			for (int c = 0; c < 3; c++) {
+				centroids[i + c] = (vertices.get(indices[i] * 3 + c)
+						+ vertices.get(indices[i + 1] * 3 + c)
+						+ vertices.get(indices[i + 2] * 3 + c)) / 3;
+			}
+		}
+		return centroids;
+	}
+
+	/**
+	 * Partitions the triangles in the calling thread.
+	 * 
+	 * @param triangles
+	 *            the triangle numbers, which are reordered so that each
+	 *            partition is a range
+	 * @return the start of each range followed by the end of the last one
+	 */
+	static int[] partition(final float[] centroids, final int[] triangles,
+			final int maxTriangles) {
+		final List<Integer> bounds = new ArrayList<Integer>();
+		partition(centroids, triangles, 0, triangles.length, maxTriangles, bounds);
+		bounds.add(triangles.length);
+		final int[] ranges = new int[bounds.size()];
+		for (int i = 0; i < ranges.length; i++) {
+			ranges[i] = bounds.get(i);
+		}
+		return ranges;
+	}
+
+	private static void partition(final float[] centroids, final int[] triangles,
+			final int from, final int to, final int maxTriangles, final List<Integer> bounds) {
+		if (to - from <= maxTriangles) {
+			bounds.add(from);
+			return;
+		}
+		final int middle = (from + to) >>> 1;
+		select(centroids, triangles, from, to, middle, longestAxis(centroids, triangles, from, to));
+		partition(centroids, triangles, from, middle, maxTriangles, bounds);
+		partition(centroids, triangles, middle, to, maxTriangles, bounds);
+	}
+
+	/**
+	 * @param pool
+	 *            the pool to split on, or null to split in the calling thread
+	 * @return a node with the sub-meshes, named after the mesh
+	 */
+	Node split(final String name, final ForkJoinPool pool) {
+		final int[] triangles = new int[this.indices.length / 3];
+		for (int i = 0; i < triangles.length; i++) {
+			triangles[i] = i;
+		}
+		final Split task = new Split(triangles, 0, triangles.length);
+		final List<Mesh> chunks = pool != null ? pool.invoke(task) : task.compute();
+
+		final Node node = new Node(name);
+		for (int i = 0; i < chunks.size(); i++) {
+			chunks.get(i).setName(name + "_" + i);
+			node.attachChild(chunks.get(i));
+		}
+		return node;
+	}
+
+	private final class Split extends RecursiveTask<List<Mesh>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] triangles;
+		private final int from;
+		private final int to;
+
+		Split(final int[] triangles, final int from, final int to) {
+			this.triangles = triangles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Mesh> compute() {
+			if (this.to - this.from <= MeshChunker.this.maxTriangles) {
+				final List<Mesh> chunk = new ArrayList<Mesh>(1);
+				chunk.add(createChunk(this.triangles, this.from, this.to));
+				return chunk;
+			}
+			final int middle = (this.from + this.to) >>> 1;
+			select(MeshChunker.this.centroids, this.triangles, this.from, this.to, middle,
+					longestAxis(MeshChunker.this.centroids, this.triangles, this.from, this.to));
+
+			final Split left = new Split(this.triangles, this.from, middle);
+			final Split right = new Split(this.triangles, middle, this.to);
+			final List<Mesh> chunks;
+			if (inForkJoinPool()) {
+				left.fork();
+				final List<Mesh> rightChunks = right.compute();
+				chunks = left.join();
+				chunks.addAll(rightChunks);
+			} else {
+				chunks = left.compute();
+				chunks.addAll(right.compute());
+			}
+			return chunks;
+		}
+	}
+
+	/**
+	 * @return the axis along which the centroids of the range spread most
+	 */
+	private static int longestAxis(final float[] centroids, final int[] triangles,
+			final int from, final int to) {
+		final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (int i = from; i < to; i++) {
+			for (int c = 0; c < 3; c++) {
+				final float value = centroids[triangles[i] * 3 + c];
+				min[c] = Math.min(min[c], value);
+				max[c] = Math.max(max[c], value);
+			}
+		}
+		int axis = 0;
+		for (int c = 1; c < 3; c++) {
+			if (max[c] - min[c] > max[axis] - min[axis]) {
+				axis = c;
+			}
+		}
+		return axis;
+	}
+
+	/**
+	 * Reorders the triangles in the range so that the one at
+	 * <code>nth</code> is where it would be if they were sorted by their
+	 * centroid along the axis, with no larger ones in front and no smaller
+	 * ones behind it.
+	 */
+	private static void select(final float[] centroids, final int[] triangles,
+			final int from, final int to, final int nth, final int axis) {
+		int left = from;
+		int right = to - 1;
+		while (left < right) {
+			final float pivot = centroids[triangles[(left + right) >>> 1] * 3 + axis];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (centroids[triangles[i] * 3 + axis] < pivot) {
+					i++;
+				}
+				while (centroids[triangles[j] * 3 + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int swap = triangles[i];
+					triangles[i] = triangles[j];
+					triangles[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j) {
+				right = j;
+			} else if (nth >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private Mesh createChunk(final int[] triangles, final int from, final int to) {
+		final int[] chunkIndices = new int[(to - from) * 3];
+		for (int t = from; t < to; t++) {
+			System.arraycopy(this.indices, triangles[t] * 3, chunkIndices, (t - from) * 3, 3);
+		}
+		return extract(this.source, chunkIndices, this.compactIndices, this.sphereBounds);
+	}
+
+	/**
+	 * Creates a mesh with its own buffers from the given triangles of the
+	 * source, which keeps only the vertices these triangles use.
+	 * 
+	 * @param indices
+	 *            the indices of the triangles in the source
+	 */
+	static Mesh extract(final MeshData source, final int[] indices,
+			final boolean compactIndices, final boolean sphereBounds) {
+		// the sorted distinct vertices, their position is the new index
+		int[] vertices = indices.clone();
+		Arrays.sort(vertices);
+		int vertexCount = 0;
+		for (int i = 0; i < vertices.length; i++) {
+			if (i == 0 || vertices[i] != vertices[i - 1]) {
+				vertices[vertexCount++] = vertices[i];
+			}
+		}
+		vertices = Arrays.copyOf(vertices, vertexCount);
+
+		final IndexBufferData<?> newIndices = BufferUtils.createIndexBufferData(
+				indices.length, compactIndices ? Math.max(0, vertexCount - 1) : Integer.MAX_VALUE);
+		for (int i = 0; i < indices.length; i++) {
+			newIndices.put(i, Arrays.binarySearch(vertices, indices[i]));
+		}
+
+		final MeshData meshData = new MeshData();
+		meshData.setIndices(newIndices);
+		final VertexBounds bounds = new VertexBounds();
+		final FloatBufferData positions = gather(source.getVertexCoords(), vertices);
+		bounds.add(positions.getBuffer(), 0, positions.getBuffer().limit());
+		meshData.setVertexCoords(positions);
+		meshData.setNormalCoords(gather(source.getNormalCoords(), vertices));
+		meshData.setColorCoords(gather(source.getColorCoords(), vertices));
+		for (int i = 0; i < source.getNumberOfUnits(); i++) {
+			meshData.setTextureCoords(gather(source.getTextureCoords(i), vertices), i);
+		}
+
+		final Mesh mesh = new Mesh();
+		mesh.setMeshData(meshData);
+		mesh.setModelBound(bounds.toBoundingVolume(sphereBounds), false);
+		return mesh;
+	}
+
+	/**
+	 * @return the tuples of the given vertices, or null if there is no data
+	 */
+	private static FloatBufferData gather(final FloatBufferData data, final int[] vertices) {
+		if (data == null) {
+			return null;
+		}
+		final int size = data.getValuesPerTuple();
+		final FloatBuffer source = data.getBuffer();
+		final FloatBuffer target = BufferUtils.createFloatBuffer(vertices.length * size);
+		for (int v = 0; v < vertices.length; v++) {
+			for (int c = 0; c < size; c++) {
+				target.put(v * size + c, source.get(vertices[v] * size + c));
+			}
+		}
+		return new FloatBufferData(target, size);
+	}
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.URLResourceSource;
+
+/**
+ * Loads many OpenCTM files concurrently with a shared {@link OpenCtmImporter}.
+ * 
+ * The number of loads that are submitted but not yet finished is bounded, so
+ * that the memory needed for decoding stays capped no matter how many
+ * resources are requested. The importer must not be reconfigured while
+ * loads are running.
+ */
+public class OpenCtmBatchImporter {
+
+	private static final Logger logger = Logger.getLogger(OpenCtmBatchImporter.class.getName());
+
+	private final OpenCtmImporter importer;
+	private final ExecutorService executor;
+	private final Semaphore pending;
+
+	/**
+	 * Allows twice as many pending loads as there are processors.
+	 */
+	public OpenCtmBatchImporter(final OpenCtmImporter importer,
+			final ExecutorService executor) {
+		this(importer, executor, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param importer
+	 *            the importer used for every load, including its model locator
+	 * @param executor
+	 *            the executor the loads run on
+	 * @param maxPending
+	 *            the maximum number of loads that are submitted to the
+	 *            executor but not finished yet
+	 */
+	public OpenCtmBatchImporter(final OpenCtmImporter importer,
+			final ExecutorService executor, final int maxPending) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be at least 1");
+		}
+		this.importer = importer;
+		this.executor = executor;
+		this.pending = new Semaphore(maxPending);
+	}
+
+	/**
+	 * Submits a load for each resource, blocking while the maximum number of
+	 * loads is pending.
+	 * 
+	 * @param resources
+	 *            the names of the resources to find
+	 * @return the futures of the loaded meshes, in the order of the resources
+	 */
+	public List<Future<Mesh>> submitAll(final Collection<String> resources)
+			throws InterruptedException {
+		final List<Future<Mesh>> futures = new ArrayList<Future<Mesh>>(resources.size());
+		for (final String resource : resources) {
+			futures.add(submit(resource));
+		}
+		return futures;
+	}
+
+	/**
+	 * Loads all resources and waits until they are loaded. If a load fails,
+	 * the remaining ones are cancelled.
+	 * 
+	 * @param resources
+	 *            the names of the resources to find
+	 * @return the loaded meshes by resource name, in the order of the
+	 *         resources
+	 */
+	public Map<String, Mesh> loadAll(final Collection<String> resources)
+			throws InterruptedException {
+		final List<Future<Mesh>> futures = submitAll(resources);
+		final Map<String, Mesh> meshes = new LinkedHashMap<String, Mesh>();
+		final Iterator<String> names = resources.iterator();
+		try {
+			for (final Future<Mesh> future : futures) {
+				meshes.put(names.next(), future.get());
+			}
+		} catch (final ExecutionException e) {
+			cancel(futures);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (final InterruptedException e) {
+			cancel(futures);
+			throw e;
+		}
+		return meshes;
+	}
+
+	/**
+	 * Probes all *.ctm files in the given directory and its subdirectories
+	 * concurrently. Files that can't be probed are logged and left out.
+	 * 
+	 * @return the metadata by file, sorted by path
+	 */
+	public Map<File, CtmMeshInfo> probeAll(final File directory)
+			throws InterruptedException {
+		final List<File> files = new ArrayList<File>();
+		collectFiles(directory, files);
+		final List<Future<CtmMeshInfo>> futures = new ArrayList<Future<CtmMeshInfo>>(files.size());
+		for (final File file : files) {
+			futures.add(submitProbe(file));
+		}
+		final Map<File, CtmMeshInfo> infos = new TreeMap<File, CtmMeshInfo>();
+		final Iterator<File> it = files.iterator();
+		for (final Future<CtmMeshInfo> future : futures) {
+			final File file = it.next();
+			try {
+				infos.put(file, future.get());
+			} catch (final ExecutionException e) {
+				logger.log(Level.WARNING, "Unable to probe " + file, e.getCause());
+			} catch (final InterruptedException e) {
+				for (final Future<CtmMeshInfo> f : futures) {
+					f.cancel(true);
+				}
+				throw e;
+			}
+		}
+		return infos;
+	}
+
+	private static void collectFiles(final File directory, final List<File> files) {
+		final File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (final File child : children) {
+			if (child.isDirectory()) {
+				collectFiles(child, files);
+			} else if (child.getName().toLowerCase(Locale.ENGLISH).endsWith(".ctm")) {
+				files.add(child);
+			}
+		}
+	}
+
+	private Future<CtmMeshInfo> submitProbe(final File file) throws InterruptedException {
+		return execute(new Callable<CtmMeshInfo>() {
+			@Override
+			public CtmMeshInfo call() throws MalformedURLException {
+				return OpenCtmBatchImporter.this.importer.probe(
+						new URLResourceSource(file.toURI().toURL()));
+			}
+		});
+	}
+
+	private Future<Mesh> submit(final String resource) throws InterruptedException {
+		return execute(new Callable<Mesh>() {
+			@Override
+			public Mesh call() {
+				return OpenCtmBatchImporter.this.importer.load(resource);
+			}
+		});
+	}
+
+	/**
+	 * Runs the work on the executor once a pending load is allowed.
+	 */
+	private <V> Future<V> execute(final Callable<V> work) throws InterruptedException {
+		this.pending.acquire();
+		final PendingTask<V> task = new PendingTask<V>(work);
+		try {
+			this.executor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			this.pending.release();
+			throw e;
+		}
+		return task;
+	}
+
+	private static void cancel(final List<Future<Mesh>> futures) {
+		for (final Future<Mesh> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Gives its pending permit back once its work has finished, or when it is
+	 * cancelled before it started. Loads can't be interrupted, so a load
+	 * that is cancelled while running keeps its permit until it is done
+	 * decoding.
+	 */
+	private class PendingTask<V> extends FutureTask<V> {
+
+		private final AtomicBoolean released = new AtomicBoolean();
+		private volatile boolean started;
+
+		PendingTask(final Callable<V> work) {
+			super(work);
+		}
+
+		@Override
+		public void run() {
+			this.started = true;
+			try {
+				super.run();
+			} finally {
+				release();
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (!this.started) {
+				release();
+			}
+		}
+
+		private void release() {
+			if (this.released.compareAndSet(false, true)) {
+				OpenCtmBatchImporter.this.pending.release();
+			}
+		}
+	}
+
+}
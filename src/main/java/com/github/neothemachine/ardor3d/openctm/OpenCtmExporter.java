@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.errorhandling.InvalidDataException;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * Writes Ardor3D meshes as OpenCTM files.
+ * 
+ * Vertices, normals, indices of any width, colors and the texture
+ * coordinates of all used texture units are exported. Texture units with
+ * one or two components become UV maps. Those with three or four components
+ * become attribute maps named by {@link #attributeMapName(int)}, and the
+ * colors an attribute map named {@link OpenCtmImporter#COLOR_ATTRIBUTE}.
+ * Missing components are filled in as OpenGL does, with 0, or 1 for the
+ * fourth one. Buffers with more components than that are rejected.
+ * 
+ * RAW files are written straight from the mesh buffers through a small
+ * staging buffer. MG1 and MG2 need JOpenCTM's encoders, for which every
+ * buffer is copied once into an array.
+ */
+public class OpenCtmExporter {
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final float UV_PRECISION = 1f / 4096f;
+
+	private static final float ATTRIBUTE_PRECISION = 1f / 256f;
+
+	private String comment = "";
+	private ForkJoinPool pool;
+	private VertexCacheOptimizer vertexCacheOptimizer;
+
+	/**
+	 * @param comment
+	 *            the comment stored in the file header, default is empty
+	 */
+	public OpenCtmExporter setComment(final String comment) {
+		this.comment = comment != null ? comment : "";
+		return this;
+	}
+
+	/**
+	 * @param pool
+	 *            a pool on which the buffers are copied in parallel for the
+	 *            MG1/MG2 encoders, or null to copy on the calling thread
+	 *            (default)
+	 */
+	public OpenCtmExporter setPool(final ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Optimizes a copy of the mesh for the vertex cache before it is written
+	 * as RAW. The MG1/MG2 encoders reorder triangles and vertices for
+	 * compression, so their files are written as is.
+	 * 
+	 * @param optimizer
+	 *            the optimizer to use, or null to write the mesh as is
+	 *            (default). It is copied, so changing it afterwards has no
+	 *            effect on this exporter.
+	 */
+	public OpenCtmExporter setVertexCacheOptimizer(final VertexCacheOptimizer optimizer) {
+		this.vertexCacheOptimizer = optimizer != null ? optimizer.copy() : null;
+		return this;
+	}
+
+	public void save(final Mesh mesh, final File file, final MeshEncoder encoder)
+			throws IOException {
+		try (OutputStream output = new FileOutputStream(file)) {
+			save(mesh, output, encoder);
+		}
+	}
+
+	/**
+	 * Writes the mesh to the given stream. The stream is flushed but not
+	 * closed.
+	 * 
+	 * @param mesh
+	 *            a mesh with triangle indices or without indices
+	 * @param output
+	 *            the stream to write to
+	 * @param encoder
+	 *            the encoder defining the compression method
+	 */
+	public void save(final Mesh mesh, final OutputStream output,
+			final MeshEncoder encoder) throws IOException {
+		MeshData meshData = mesh.getMeshData();
+		if (meshData.getVertexCoords() == null
+				|| meshData.getVertexCoords().getValuesPerTuple() < 3) {
+			throw new IllegalArgumentException("Mesh needs 3D vertices");
+		}
+		if (meshData.getNormalCoords() != null
+				&& meshData.getNormalCoords().getValuesPerTuple() != 3) {
+			throw new IllegalArgumentException("Normals need 3 components, not "
+					+ meshData.getNormalCoords().getValuesPerTuple());
+		}
+		final boolean raw = encoder.getClass().equals(RawEncoder.class);
+		if (raw && this.vertexCacheOptimizer != null) {
+			final Mesh copy = MeshChunker.extract(meshData, toIndexArray(meshData), false, false);
+			this.vertexCacheOptimizer.optimize(copy);
+			meshData = copy.getMeshData();
+		}
+		final List<FloatBufferData> uvMaps = new ArrayList<FloatBufferData>();
+		final List<String> attributeNames = new ArrayList<String>();
+		final List<FloatBufferData> attributeMaps = new ArrayList<FloatBufferData>();
+		for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+			final FloatBufferData coords = meshData.getTextureCoords(i);
+			if (coords == null) {
+				continue;
+			}
+			checkComponents(coords, "Texture unit " + i);
+			if (coords.getValuesPerTuple() <= 2) {
+				uvMaps.add(coords);
+			} else {
+				attributeNames.add(attributeMapName(i));
+				attributeMaps.add(coords);
+			}
+		}
+		if (meshData.getColorCoords() != null) {
+			checkComponents(meshData.getColorCoords(), "Color buffer");
+			attributeNames.add(OpenCtmImporter.COLOR_ATTRIBUTE);
+			attributeMaps.add(meshData.getColorCoords());
+		}
+
+		if (raw) {
+			writeRaw(meshData, uvMaps, attributeNames, attributeMaps, output);
+		} else {
+			writeEncoded(meshData, uvMaps, attributeNames, attributeMaps, output, encoder);
+		}
+	}
+
+	/**
+	 * @return the name of the attribute map a texture unit with three or four
+	 *         components is exported as, to be passed to
+	 *         {@link OpenCtmImporter#setAttributeMapping(String, int)}
+	 */
+	public static String attributeMapName(final int unit) {
+		return "texture" + unit;
+	}
+
+	private static void checkComponents(final FloatBufferData data, final String what) {
+		final int components = data.getValuesPerTuple();
+		if (components < 1 || components > 4) {
+			throw new IllegalArgumentException(what + " has " + components
+					+ " components per vertex, at most 4 can be exported");
+		}
+	}
+
+	private void writeRaw(final MeshData meshData,
+			final List<FloatBufferData> uvMaps, final List<String> attributeNames,
+			final List<FloatBufferData> attributeMaps, final OutputStream output)
+			throws IOException {
+		final int vertexCount = meshData.getVertexCount();
+		final FloatBufferData normals = meshData.getNormalCoords();
+		final RawWriter writer = new RawWriter(Channels.newChannel(output));
+
+		writer.putInt(CtmFormat.OCTM);
+		writer.putInt(CtmFormat.FORMAT_VERSION);
+		writer.putInt(CtmMethod.RAW.tag);
+		writer.putInt(vertexCount);
+		writer.putInt(indexCount(meshData) / 3);
+		writer.putInt(uvMaps.size());
+		writer.putInt(attributeMaps.size());
+		writer.putInt(normals != null ? CtmFormat.FLAG_NORMALS : 0);
+		writer.putString(this.comment);
+
+		writer.putInt(CtmFormat.INDX);
+		writer.putIndices(meshData.getIndices(), indexCount(meshData));
+
+		writer.putInt(CtmFormat.VERT);
+		writer.putFloats(meshData.getVertexCoords(), 3, vertexCount);
+
+		if (normals != null) {
+			writer.putInt(CtmFormat.NORM);
+			writer.putFloats(normals, 3, vertexCount);
+		}
+
+		for (int i = 0; i < uvMaps.size(); i++) {
+			writer.putInt(CtmFormat.TEXC);
+			writer.putString(uvMapName(i));
+			writer.putString("");
+			writer.putFloats(uvMaps.get(i), 2, vertexCount);
+		}
+
+		for (int i = 0; i < attributeMaps.size(); i++) {
+			writer.putInt(CtmFormat.ATTR);
+			writer.putString(attributeNames.get(i));
+			writer.putFloats(attributeMaps.get(i), 4, vertexCount);
+		}
+
+		writer.flush();
+		output.flush();
+	}
+
+	private void writeEncoded(final MeshData meshData,
+			final List<FloatBufferData> uvMaps, final List<String> attributeNames,
+			final List<FloatBufferData> attributeMaps, final OutputStream output,
+			final MeshEncoder encoder) throws IOException {
+		final int vertexCount = meshData.getVertexCount();
+		final List<ParallelCopy> copies = new ArrayList<ParallelCopy>();
+
+		final float[] vertices = new float[vertexCount * 3];
+		copies.add(ParallelCopy.of(meshData.getVertexCoords(), 3, vertices));
+		float[] normals = null;
+		if (meshData.getNormalCoords() != null) {
+			normals = new float[vertexCount * 3];
+			copies.add(ParallelCopy.of(meshData.getNormalCoords(), 3, normals));
+		}
+		final float[][] uvValues = new float[uvMaps.size()][];
+		for (int i = 0; i < uvValues.length; i++) {
+			uvValues[i] = new float[vertexCount * 2];
+			copies.add(ParallelCopy.of(uvMaps.get(i), 2, uvValues[i]));
+		}
+		final float[][] attributeValues = new float[attributeMaps.size()][];
+		for (int i = 0; i < attributeValues.length; i++) {
+			attributeValues[i] = new float[vertexCount * 4];
+			copies.add(ParallelCopy.of(attributeMaps.get(i), 4, attributeValues[i]));
+		}
+		if (this.pool != null) {
+			ParallelCopy.runAll(this.pool, new ArrayList<ForkJoinTask<?>>(copies));
+		} else {
+			for (final ParallelCopy copy : copies) {
+				copy.copy(copy.from, copy.to);
+			}
+		}
+
+		final AttributeData[] ctmUvMaps = new AttributeData[uvValues.length];
+		for (int i = 0; i < ctmUvMaps.length; i++) {
+			ctmUvMaps[i] = new AttributeData(uvMapName(i), "", UV_PRECISION, uvValues[i]);
+		}
+		final AttributeData[] ctmAttributeMaps = new AttributeData[attributeValues.length];
+		for (int i = 0; i < ctmAttributeMaps.length; i++) {
+			ctmAttributeMaps[i] = new AttributeData(attributeNames.get(i), null,
+					ATTRIBUTE_PRECISION, attributeValues[i]);
+		}
+		final darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				vertices, normals, toIndexArray(meshData), ctmUvMaps,
+				ctmAttributeMaps);
+
+		final BufferedOutputStream buffered = new BufferedOutputStream(output, BLOCK_SIZE);
+		try {
+			new CtmFileWriter(buffered, encoder).encode(ctmMesh, this.comment);
+		} catch (final InvalidDataException e) {
+			throw new IOException(e);
+		}
+		buffered.flush();
+	}
+
+	private static String uvMapName(final int index) {
+		return "uv" + index;
+	}
+
+	private static int indexCount(final MeshData meshData) {
+		final IndexBufferData<?> indices = meshData.getIndices();
+		return indices != null ? indices.getBufferLimit() : meshData.getVertexCount();
+	}
+
+	static int[] toIndexArray(final MeshData meshData) {
+		final IndexBufferData<?> indices = meshData.getIndices();
+		final int[] array = new int[indexCount(meshData)];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = indices != null ? indices.get(i) : i;
+		}
+		return array;
+	}
+
+	/**
+	 * Writes little endian values through a staging buffer to a channel.
+	 */
+	private static final class RawWriter {
+
+		private final WritableByteChannel channel;
+		private final ByteBuffer staging = ByteBuffer.allocate(BLOCK_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		RawWriter(final WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(final int value) throws IOException {
+			require(4);
+			this.staging.putInt(value);
+		}
+
+		void putString(final String value) throws IOException {
+			final byte[] bytes = value.getBytes(CtmHeader.CHARSET);
+			putInt(bytes.length);
+			int offset = 0;
+			while (offset < bytes.length) {
+				require(1);
+				final int n = Math.min(bytes.length - offset, this.staging.remaining());
+				this.staging.put(bytes, offset, n);
+				offset += n;
+			}
+		}
+
+		void putIndices(final IndexBufferData<?> indices, final int count)
+				throws IOException {
+			if (indices != null && indices.getBuffer() instanceof IntBuffer) {
+				final IntBuffer source = ((IntBuffer) indices.getBuffer()).duplicate();
+				source.rewind();
+				source.limit(count);
+				while (source.hasRemaining()) {
+					require(4);
+					final int n = Math.min(source.remaining(), this.staging.remaining() / 4);
+					final IntBuffer chunk = source.slice();
+					chunk.limit(n);
+					this.staging.asIntBuffer().put(chunk);
+					this.staging.position(this.staging.position() + n * 4);
+					source.position(source.position() + n);
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					putInt(indices != null ? indices.get(i) : i);
+				}
+			}
+		}
+
+		/**
+		 * Writes the first <code>components</code> values of each tuple,
+		 * filling in those the tuples are short of.
+		 */
+		void putFloats(final FloatBufferData data, final int components,
+				final int tupleCount) throws IOException {
+			final FloatBuffer source = data.getBuffer().duplicate();
+			final int tupleSize = data.getValuesPerTuple();
+			source.rewind();
+			if (tupleSize == components) {
+				source.limit(tupleCount * components);
+				while (source.hasRemaining()) {
+					require(4);
+					final int n = Math.min(source.remaining(), this.staging.remaining() / 4);
+					final FloatBuffer chunk = source.slice();
+					chunk.limit(n);
+					this.staging.asFloatBuffer().put(chunk);
+					this.staging.position(this.staging.position() + n * 4);
+					source.position(source.position() + n);
+				}
+			} else {
+				for (int i = 0; i < tupleCount; i++) {
+					for (int c = 0; c < components; c++) {
+						require(4);
+						this.staging.putFloat(c < tupleSize ? source.get(i * tupleSize + c)
+								: ParallelCopy.missingComponent(c));
+					}
+				}
+			}
+		}
+
+		private void require(final int bytes) throws IOException {
+			if (this.staging.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			this.staging.flip();
+			while (this.staging.hasRemaining()) {
+				this.channel.write(this.staging);
+			}
+			this.staging.clear();
+		}
+	}
+
+}
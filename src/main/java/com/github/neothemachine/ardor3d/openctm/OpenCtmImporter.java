@@ -18,28 +18,340 @@
  */
 package com.github.neothemachine.ardor3d.openctm;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.ardor3d.bounding.BoundingBox;
+import com.ardor3d.bounding.BoundingSphere;
 import com.ardor3d.scenegraph.Mesh;
 import com.ardor3d.scenegraph.MeshData;
-import com.ardor3d.util.geom.BufferUtils;
+import com.ardor3d.scenegraph.Node;
 import com.ardor3d.util.resource.ResourceLocator;
 import com.ardor3d.util.resource.ResourceLocatorTool;
 import com.ardor3d.util.resource.ResourceSource;
+import com.ardor3d.util.resource.URLResourceSource;
 
-import darwin.jopenctm.io.CtmFileReader;
-
+/**
+ * Imports OpenCTM files as Ardor3D meshes.
+ * 
+ * An importer can be shared between threads. Loads read each setting once,
+ * so reconfiguring an importer affects the loads started afterwards only.
+ * 
+ * @see CtmLoaderService
+ */
 public class OpenCtmImporter {
 
-	private ResourceLocator modelLocator;
+	private static final Logger logger = Logger.getLogger(OpenCtmImporter.class.getName());
+
+	/**
+	 * Attribute maps with this name are imported into the color buffer unless
+	 * they are mapped to a texture unit.
+	 */
+	public static final String COLOR_ATTRIBUTE = "Color";
+
+	/** enough for the file header and a few section headers */
+	private static final int PROBE_BLOCK_SIZE = 512;
+
+	// volatile, so that a shared importer can be configured from any thread
+	private volatile ResourceLocator modelLocator;
+	private volatile boolean memoryMapping;
+	private volatile CtmMeshCache meshCache;
+	private volatile CtmDiskCache diskCache;
+	private volatile ForkJoinPool decodePool;
+	private volatile boolean compactIndices = true;
+	private volatile CompactVertexFormat compactVertexFormat;
+	private volatile boolean interleavedVertices;
+	private volatile CtmImportOptions importOptions;
+	private volatile boolean sphereBounds;
+	private volatile VertexCacheOptimizer vertexCacheOptimizer;
+	private volatile CtmMetricsListener metricsListener;
+	private volatile ReadBufferPool readBufferPool = new ReadBufferPool();
+	private volatile DirectBufferPool bufferPool;
+	/** replaced on every change, so that running loads keep their copy */
+	private volatile Map<String, Integer> attributeUnits = Collections.emptyMap();
 
 	public OpenCtmImporter setModelLocator(final ResourceLocator locator) {
 		this.modelLocator = locator;
 		return this;
 	}
 
+	/**
+	 * If enabled, resources that resolve to local files are memory mapped
+	 * instead of being streamed. The sections of RAW files are then used
+	 * directly as mesh buffers without being copied. Other resources are
+	 * streamed as usual.
+	 * 
+	 * @param memoryMapping
+	 *            whether to memory map local files, default is false
+	 */
+	public OpenCtmImporter setMemoryMapping(final boolean memoryMapping) {
+		this.memoryMapping = memoryMapping;
+		return this;
+	}
+
+	/**
+	 * Sets the pool of blocks that streamed resources are read through. The
+	 * block size of the pool is the number of bytes requested from a
+	 * resource at once. Pools can be shared between importers.
+	 * 
+	 * @param pool
+	 *            the pool to use, or null to allocate a block of
+	 *            {@link ReadBufferPool#DEFAULT_BLOCK_SIZE} bytes per load.
+	 *            Default is a pool of its own.
+	 */
+	public OpenCtmImporter setReadBufferPool(final ReadBufferPool pool) {
+		this.readBufferPool = pool;
+		return this;
+	}
+
+	/**
+	 * Sets a pool from which the buffers of imported meshes are allocated.
+	 * Meshes give their buffers back with {@link DirectBufferPool#release(Mesh)}.
+	 * Buffers of failed or cancelled imports go back right away. Meshes that
+	 * go into the mesh cache and memory mapped RAW sections don't use the
+	 * pool.
+	 * 
+	 * @param pool
+	 *            the pool to use, or null to leave the buffers to the garbage
+	 *            collector (default)
+	 */
+	public OpenCtmImporter setBufferPool(final DirectBufferPool pool) {
+		this.bufferPool = pool;
+		return this;
+	}
+
+	/**
+	 * Sets a cache for decoded meshes. Meshes loaded from the cache share
+	 * their buffers with every other mesh loaded from the same file with the
+	 * same settings. Meshes imported with other settings, e.g. another
+	 * vertex format, are cached separately.
+	 * 
+	 * @param meshCache
+	 *            the cache to use, or null to decode every time (default)
+	 */
+	public OpenCtmImporter setMeshCache(final CtmMeshCache meshCache) {
+		this.meshCache = meshCache;
+		return this;
+	}
+
+	/**
+	 * Sets a directory in which decoded MG1/MG2 meshes are stored
+	 * uncompressed. Later loads of the same files memory map those entries
+	 * instead of decoding again.
+	 * 
+	 * @param diskCache
+	 *            the cache to use, or null to disable (default)
+	 */
+	public OpenCtmImporter setDiskCache(final CtmDiskCache diskCache) {
+		this.diskCache = diskCache;
+		return this;
+	}
+
+	/**
+	 * Sets a pool on which the UV maps and attribute maps of MG1/MG2 meshes
+	 * are decoded, each on its own, while JOpenCTM decodes the indices,
+	 * vertices and normals on the loading thread. The buffers are then
+	 * filled in parallel on it, and storing the mesh in the disk cache
+	 * overlaps with that. With a disk cache, JOpenCTM decodes the whole
+	 * file, as the cache needs all of it. Meshes loaded with
+	 * {@link #loadNode(ResourceSource, int)} are split on it, too.
+	 * 
+	 * @param decodePool
+	 *            the pool to use, or null to do everything on the loading
+	 *            thread (default)
+	 */
+	public OpenCtmImporter setDecodePool(final ForkJoinPool decodePool) {
+		this.decodePool = decodePool;
+		return this;
+	}
+
+	/**
+	 * If enabled, the index buffer uses bytes or shorts whenever the vertex
+	 * count allows it. Memory mapped RAW files then can't use a view for
+	 * their indices.
+	 * 
+	 * @param compactIndices
+	 *            whether to use the narrowest index type, default is true
+	 */
+	public OpenCtmImporter setCompactIndices(final boolean compactIndices) {
+		this.compactIndices = compactIndices;
+		return this;
+	}
+
+	/**
+	 * Imports the named attribute map into the texture buffer of the given
+	 * unit, with four components per vertex. A {@link #COLOR_ATTRIBUTE} goes
+	 * to the color buffer and all other attribute maps are skipped unless
+	 * they are mapped.
+	 * 
+	 * @param attributeName
+	 *            the name of the attribute map in the file
+	 * @param textureUnit
+	 *            the texture unit, which should not be used by a UV map
+	 */
+	public synchronized OpenCtmImporter setAttributeMapping(final String attributeName,
+			final int textureUnit) {
+		final Map<String, Integer> units = new HashMap<String, Integer>(this.attributeUnits);
+		units.put(attributeName, textureUnit);
+		this.attributeUnits = units;
+		return this;
+	}
+
+	/**
+	 * The model bound is computed while the vertices are decoded (or taken
+	 * from the grid of MG2 files), so it is never fitted in a second pass.
+	 * 
+	 * @param sphereBounds
+	 *            whether to use a {@link BoundingSphere} around the box
+	 *            instead of a {@link BoundingBox}, default is false
+	 */
+	public OpenCtmImporter setSphereBounds(final boolean sphereBounds) {
+		this.sphereBounds = sphereBounds;
+		return this;
+	}
+
+	/**
+	 * Reorders the triangles (and vertices) of every decoded mesh for the
+	 * vertex cache before it is returned or cached. The ACMR before and
+	 * after is logged at level FINE. As the buffers are reordered in place,
+	 * an {@link CtmImportListener} only sees the stages after the header once
+	 * the mesh is optimized. The optimizer is copied, so changing it
+	 * afterwards has no effect on this importer.
+	 * 
+	 * @param optimizer
+	 *            the optimizer to use, or null to keep the order of the file
+	 *            (default)
+	 */
+	public OpenCtmImporter setVertexCacheOptimizer(final VertexCacheOptimizer optimizer) {
+		this.vertexCacheOptimizer = optimizer != null ? optimizer.copy() : null;
+		return this;
+	}
+
+	/**
+	 * Sets a listener that receives the timings and byte counts of every
+	 * import, see {@link CtmMetricsAggregator} for one that collects them.
+	 * 
+	 * @param listener
+	 *            the listener to notify, or null (default)
+	 */
+	public OpenCtmImporter setMetricsListener(final CtmMetricsListener listener) {
+		this.metricsListener = listener;
+		return this;
+	}
+
+	/**
+	 * Chooses which sections are imported. Meshes loaded with different
+	 * options are cached separately. The options are copied, so changing
+	 * them afterwards has no effect on this importer.
+	 * 
+	 * @param options
+	 *            the sections to import, null (default) imports all of them
+	 */
+	public OpenCtmImporter setImportOptions(final CtmImportOptions options) {
+		this.importOptions = options != null ? options.copy() : null;
+		return this;
+	}
+
+	/**
+	 * Stores the chosen vertex attributes in a compact format after decoding,
+	 * see {@link CompactVertexData#of(Mesh)}. Import listeners still see the
+	 * float buffers, the compact ones replace them before the mesh is
+	 * returned. With a {@link DirectBufferPool}, the float buffers go back to
+	 * the pool right away, unless a listener has seen them. Then they are
+	 * only given back with the mesh. The format is copied, so changing it
+	 * afterwards has no effect on this importer.
+	 * 
+	 * @param format
+	 *            the formats to use, null (default) keeps all attributes as
+	 *            floats
+	 */
+	public OpenCtmImporter setCompactVertexFormat(final CompactVertexFormat format) {
+		this.compactVertexFormat = format != null ? format.copy() : null;
+		return this;
+	}
+
+	/**
+	 * Interleaves the float vertex attributes into a single buffer after
+	 * decoding, see {@link InterleavedVertexData#of(Mesh)}. This way a vertex
+	 * is fetched from one place and needs only one buffer object. Import
+	 * listeners still see the separate buffers, the interleaved one replaces
+	 * them before the mesh is returned. With a {@link DirectBufferPool}, the
+	 * separate buffers go back to the pool right away, unless a listener has
+	 * seen them. Then they are only given back with the mesh.
+	 * 
+	 * Ardor3D's own renderer needs the separate buffers, which it interleaves
+	 * itself when uploading them with DataMode.VBOInterleaved. Can't be
+	 * combined with a compact vertex format.
+	 * 
+	 * @param interleavedVertices
+	 *            whether to interleave the vertex attributes, default is false
+	 */
+	public OpenCtmImporter setInterleavedVertices(final boolean interleavedVertices) {
+		this.interleavedVertices = interleavedVertices;
+		return this;
+	}
+
+	/**
+	 * Drops the scratch arrays of the calling thread. They grow to the
+	 * largest mesh loaded on a thread and are kept for later loads, so that
+	 * those allocate almost nothing besides the mesh buffers. MG1 and MG2
+	 * files still allocate the arrays JOpenCTM decodes into, as it creates
+	 * those itself. Call this after loading an unusually large mesh.
+	 */
+	public static void clearScratchBuffers() {
+		DecodeArena.get().clear();
+	}
+
+	/**
+	 * Reads the metadata of an OpenCTM file without decoding its data.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find.
+	 */
+	public CtmMeshInfo probe(final String resource) {
+		return probe(locate(resource));
+	}
+
+	/**
+	 * Reads the metadata of an OpenCTM file without decoding its data. Only
+	 * the headers are read, the data sections are skipped, which for local
+	 * files means seeking over them.
+	 */
+	public CtmMeshInfo probe(final ResourceSource resource) {
+		if (resource == null) {
+			throw new NullPointerException("Unable to probe null resource");
+		}
+		try {
+			final File file = toFile(resource);
+			final InputStream stream = file != null && file.isFile()
+					? new FileInputStream(file) : resource.openStream();
+			try {
+				final CtmInput input = new CtmStreamInput(stream, PROBE_BLOCK_SIZE);
+				final CtmHeader header = CtmHeader.read(input);
+				return CtmMeshInfo.read(resource.getName(), header, input);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Reads an OpenCTM file from the given resource
 	 * 
@@ -48,62 +360,433 @@ public class OpenCtmImporter {
 	 * @return
 	 */
 	public Mesh load(final String resource) {
+		final ImportContext context = new ImportContext();
+		return load(locate(resource, context), context);
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource
+	 * 
+	 * @param resource
+	 *            a resource pointing to the model we wish to load.
+	 * @return
+	 */
+	public Mesh load(final ResourceSource resource) {
+		return load(resource, new ImportContext());
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource and notifies the listener
+	 * whenever a part of the mesh is complete. The mesh handed to the
+	 * listener is the one that is returned in the end.
+	 * 
+	 * @param resource
+	 *            a resource pointing to the model we wish to load.
+	 * @param listener
+	 *            the listener to notify
+	 * @return
+	 */
+	public Mesh load(final ResourceSource resource, final CtmImportListener listener) {
+		return load(resource, new ImportContext(listener));
+	}
+
+	/**
+	 * Reads an OpenCTM file and builds its levels of detail.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find.
+	 * @see #loadLod(ResourceSource, LodGenerator)
+	 */
+	public CtmLodNode loadLod(final String resource, final LodGenerator generator) {
+		return loadLod(locate(resource), generator);
+	}
+
+	/**
+	 * Reads an OpenCTM file and builds its levels of detail with the given
+	 * generator, see {@link LodGenerator#generate(Mesh)}. Compact vertex
+	 * formats aren't supported here.
+	 * 
+	 * @param resource
+	 *            a resource pointing to the model we wish to load.
+	 * @return a node with the loaded mesh as level 0
+	 */
+	public CtmLodNode loadLod(final ResourceSource resource, final LodGenerator generator) {
+		if (this.compactVertexFormat != null) {
+			throw new IllegalStateException("Meshes with a compact vertex format can't be simplified");
+		}
+		if (this.interleavedVertices) {
+			throw new IllegalStateException("Meshes with interleaved vertices can't be simplified");
+		}
+		return generator.generate(load(resource));
+	}
+
+	/**
+	 * Reads an OpenCTM file and splits it into sub-meshes.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find.
+	 * @see #loadNode(ResourceSource, int)
+	 */
+	public Node loadNode(final String resource, final int maxTriangles) {
+		return loadNode(locate(resource), maxTriangles);
+	}
+
+	/**
+	 * Reads an OpenCTM file and splits it into spatially compact sub-meshes,
+	 * so that they can be culled separately. Each sub-mesh has its own
+	 * vertices and bounds, and at most the given number of triangles. The
+	 * split runs on the decode pool if there is one. The buffers of the whole
+	 * mesh go back to the buffer pool once it has been split.
+	 * 
+	 * Compact vertex formats aren't supported here, and the vertices must be
+	 * imported.
+	 * 
+	 * @param resource
+	 *            a resource pointing to the model we wish to load.
+	 * @param maxTriangles
+	 *            the maximum number of triangles per sub-mesh
+	 * @return a node named after the resource with the sub-meshes as
+	 *         children, or with the mesh itself if it is small enough
+	 */
+	public Node loadNode(final ResourceSource resource, final int maxTriangles) {
+		if (this.compactVertexFormat != null) {
+			throw new IllegalStateException("Meshes with a compact vertex format can't be split");
+		}
+		if (this.interleavedVertices) {
+			throw new IllegalStateException("Meshes with interleaved vertices can't be split");
+		}
+		final Mesh mesh = load(resource);
+		if (mesh.getMeshData().getVertexCoords() == null) {
+			throw new IllegalStateException("Meshes without vertices can't be split");
+		}
+		final MeshData meshData = mesh.getMeshData();
+		final int triangleCount = (meshData.getIndices() != null
+				? meshData.getIndices().getBufferLimit() : meshData.getVertexCount()) / 3;
+		final Node node;
+		if (triangleCount <= maxTriangles) {
+			node = new Node(mesh.getName());
+			node.attachChild(mesh);
+		} else {
+			node = new MeshChunker(mesh, maxTriangles, this.compactIndices,
+					this.sphereBounds).split(mesh.getName(), this.decodePool);
+			// the sub-meshes have buffers of their own
+			final DirectBufferPool bufferPool = this.bufferPool;
+			if (bufferPool != null) {
+				bufferPool.release(mesh);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource on the given executor.
+	 * The resource is located on the executor as well.
+	 * 
+	 * @param resource
+	 *            the name of the resource to find.
+	 * @param executor
+	 *            the executor to load on
+	 * @return the future mesh. Cancelling it aborts the load at the next
+	 *         section boundary and drops the buffers decoded so far.
+	 * @see #loadAsync(ResourceSource, Executor)
+	 */
+	public Future<Mesh> loadAsync(final String resource, final Executor executor) {
+		final ImportContext context = new ImportContext();
+		return submit(new Callable<Mesh>() {
+			@Override
+			public Mesh call() {
+				context.checkCancelled();
+				return load(locate(resource, context), context);
+			}
+		}, context, executor);
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource on the given executor.
+	 * 
+	 * @param resource
+	 *            a resource pointing to the model we wish to load.
+	 * @param executor
+	 *            the executor to load on
+	 * @return the future mesh. Cancelling it aborts the load at the next
+	 *         section boundary (header, indices, vertices, normals, UV maps)
+	 *         and drops the buffers decoded so far.
+	 */
+	public Future<Mesh> loadAsync(final ResourceSource resource, final Executor executor) {
+		return loadAsync(resource, executor, null);
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource on the given executor and
+	 * notifies the listener on that executor whenever a part of the mesh is
+	 * complete.
+	 * 
+	 * @see #loadAsync(ResourceSource, Executor)
+	 * @see #load(ResourceSource, CtmImportListener)
+	 */
+	public Future<Mesh> loadAsync(final ResourceSource resource,
+			final Executor executor, final CtmImportListener listener) {
+		final ImportContext context = new ImportContext(listener);
+		return submit(new Callable<Mesh>() {
+			@Override
+			public Mesh call() {
+				return load(resource, context);
+			}
+		}, context, executor);
+	}
+
+	private static Future<Mesh> submit(final Callable<Mesh> load,
+			final ImportContext context, final Executor executor) {
+		final FutureTask<Mesh> task = new FutureTask<Mesh>(load) {
+			@Override
+			public boolean cancel(final boolean mayInterruptIfRunning) {
+				context.cancel();
+				return super.cancel(mayInterruptIfRunning);
+			}
+		};
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Locates the resource, adding the time it took to the statistics of
+	 * the load.
+	 */
+	ResourceSource locate(final String resource, final ImportContext context) {
+		final long start = System.nanoTime();
+		try {
+			return locate(resource);
+		} finally {
+			context.getStats().addSince(ImportPhase.LOCATE, start);
+		}
+	}
+
+	private ResourceSource locate(final String resource) {
+		final ResourceLocator locator = this.modelLocator;
 		final ResourceSource source;
-		if (this.modelLocator == null) {
+		if (locator == null) {
 			source = ResourceLocatorTool.locateResource(
 					ResourceLocatorTool.TYPE_MODEL, resource);
 		} else {
-			source = this.modelLocator.locateResource(resource);
+			source = locator.locateResource(resource);
 		}
 
 		if (source == null) {
 			throw new Error("Unable to locate '" + resource + "'");
 		}
 
-		return this.load(source);
+		return source;
 	}
 
 	/**
-	 * Reads an OpenCTM file from the given resource
-	 * 
-	 * @param resource
-	 *            a resource pointing to the model we wish to load.
-	 * @return
+	 * Reads an OpenCTM file from the given resource and reports the
+	 * statistics of the load to the metrics listener.
 	 */
-	public Mesh load(final ResourceSource resource) {
-        if (resource == null) {
-            throw new NullPointerException("Unable to load null resource");
+	Mesh load(final ResourceSource resource, final ImportContext context) {
+		if (resource == null) {
+			throw new NullPointerException("Unable to load null resource");
+		}
+		final long start = System.nanoTime();
+		final ImportStats stats = context.getStats();
+		stats.setResourceName(resource.getName());
+		try {
+			return decode(resource, context);
+		} catch (RuntimeException | Error e) {
+			stats.setFailure(e);
+			throw e;
+		} finally {
+			stats.setTotalNanos(System.nanoTime() - start
+					+ stats.getNanos(ImportPhase.LOCATE));
+			final CtmMetricsListener listener = this.metricsListener;
+			if (listener != null) {
+				listener.importFinished(stats);
+			}
+		}
+	}
+
+	/**
+	 * Reads an OpenCTM file from the given resource. RAW files are decoded
+	 * directly into the direct buffers of the resulting mesh.
+	 */
+	private Mesh decode(final ResourceSource resource, final ImportContext context) {
+        final ImportStats stats = context.getStats();
+        final CtmMeshCache cache = this.meshCache;
+        final CtmImportOptions options = this.importOptions;
+        final CompactVertexFormat compactVertexFormat = this.compactVertexFormat;
+        final boolean interleavedVertices = this.interleavedVertices;
+        final boolean compactIndices = this.compactIndices;
+        final boolean sphereBounds = this.sphereBounds;
+        final Map<String, Integer> attributeUnits = this.attributeUnits;
+        final VertexCacheOptimizer optimizer = this.vertexCacheOptimizer;
+        if (compactVertexFormat != null && interleavedVertices) {
+        	throw new IllegalStateException("Compact vertex formats can't be interleaved");
         }
+        // only local files have a key, every setting that changes the mesh is
+        // part of it, so that meshes imported with other settings aren't
+        // handed out
+        final String resourceKey = cache != null ? resourceKey(resource) : null;
+        final String cacheKey = resourceKey == null ? null : resourceKey
+        		+ "|options=" + options
+        		+ "|compactIndices=" + compactIndices
+        		+ "|compactVertexFormat=" + compactVertexFormat
+        		+ "|interleavedVertices=" + interleavedVertices
+        		+ "|vertexCacheOptimizer=" + optimizer
+        		+ "|sphereBounds=" + sphereBounds
+        		+ "|attributeUnits=" + attributeUnits;
+        if (cacheKey != null) {
+        	final Mesh cached = cache.get(cacheKey);
+        	if (cached != null) {
+        		stats.setCacheHit(true);
+        		context.allStagesCompleted(cached);
+        		return cached;
+        	}
+        }
+        // cached meshes share their buffers, so they can't be released
+        final DirectBufferPool bufferPool = cacheKey == null ? this.bufferPool : null;
+        final BufferLease lease = new BufferLease(bufferPool);
+        boolean leased = false;
+        CtmInput input = null;
         try{
-	    	final CtmFileReader ctmReader = new CtmFileReader(resource.openStream());
-	    	darwin.jopenctm.data.Mesh ctmMesh = ctmReader.decode();
+	    	long start = System.nanoTime();
+	    	final CtmDiskCache diskCache = this.diskCache;
+	    	final String diskCacheKey = diskCache != null ? resourceKey(resource) : null;
+	    	input = diskCacheKey != null ? diskCache.open(diskCacheKey) : null;
+	    	final boolean cached = input != null;
+	    	if (!cached) {
+	    		input = openInput(resource);
+	    	}
+	    	start = stats.addSince(ImportPhase.OPEN, start);
+	    	final CtmHeader header = CtmHeader.read(input);
+	    	stats.addSince(ImportPhase.HEADER, start);
+	    	stats.setMethod(header.method);
 	    	
-	        final MeshData meshData = new MeshData();
-	        
-	        IntBuffer indexBuffer = BufferUtils.createIntBuffer(ctmMesh.indices);
-	        meshData.setIndexBuffer(indexBuffer);
-	        
-	        FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(ctmMesh.vertices);
-	        meshData.setVertexBuffer(vertexBuffer);
-	        
-	        FloatBuffer normalBuffer = BufferUtils.createFloatBuffer(ctmMesh.normals);
-	        meshData.setNormalBuffer(normalBuffer);
-	        
-	        for (int i = 0; i < ctmMesh.getUVCount(); i++) {
-	        	FloatBuffer textureBuffer = BufferUtils.createFloatBuffer(ctmMesh.texcoordinates[i].values);
-	        	meshData.setTextureBuffer(textureBuffer, i);
-	        }            
-	
 	        final Mesh mesh = new Mesh();
-	        mesh.setMeshData(meshData);
-	        mesh.setModelBound(new BoundingBox());
+	        mesh.setMeshData(new MeshData());
 	        mesh.setName(resource.getName());
+	        context.setMesh(mesh);
+	    	
+	    	final CtmMeshReader reader = new CtmMeshReader(header, input, context);
+	    	if (diskCacheKey != null && !cached) {
+	    		reader.setDiskCache(diskCache, diskCacheKey);
+	    	}
+	    	reader.setPool(this.decodePool);
+	    	reader.setCompactIndices(compactIndices);
+	    	reader.setSphereBounds(sphereBounds);
+	    	reader.setAttributeUnits(attributeUnits);
+	    	reader.setLease(lease);
+	    	if (options != null) {
+	    		reader.setOptions(options);
+	    	}
+	    	if (optimizer != null) {
+	    		// the optimizer reorders the buffers in place, so listeners only
+	    		// get to see them afterwards
+	    		context.deferStages();
+	    	}
+	        reader.read(mesh);
+	        stats.setBytesRead(input.bytesRead());
+
+	        start = System.nanoTime();
+	        if (optimizer != null && mesh.getMeshData().getIndices() != null) {
+	        	final VertexCacheOptimizer.Result result = optimizer.optimize(mesh);
+	        	if (logger.isLoggable(Level.FINE)) {
+	        		logger.fine("Optimized " + resource.getName() + " for the vertex cache: " + result);
+	        	}
+	        }
+	
+	        if (compactVertexFormat != null) {
+	        	VertexQuantizer.apply(mesh, compactVertexFormat, lease,
+	        			!context.hasPublishedBuffers());
+	        } else if (interleavedVertices) {
+	        	VertexInterleaver.apply(mesh, lease, !context.hasPublishedBuffers());
+	        }
+	        stats.addSince(ImportPhase.POST_PROCESS, start);
+	        context.publishDeferredStages();
+	        
+	        if (cacheKey != null) {
+	        	cache.put(cacheKey, mesh);
+	        }
+	        if (bufferPool != null) {
+	        	bufferPool.register(mesh, lease);
+	        	context.setBufferPool(bufferPool);
+	        }
+	        leased = true;
 	
 	        return mesh;
+        } catch (CancellationException e) {
+        	throw e;
         } catch (Exception e) {
         	throw new RuntimeException(e);
+        } finally {
+        	close(input, resource);
+        	if (!leased) {
+        		lease.releaseAll();
+        	}
         }
             
     }
 
+	/**
+	 * Opens the resource, local files directly as {@link FileInputStream}
+	 * since they are buffered by the input anyway.
+	 */
+	private CtmInput openInput(final ResourceSource resource) throws IOException {
+		final File file = toFile(resource);
+		final InputStream stream;
+		if (file != null && file.isFile()) {
+			if (this.memoryMapping && file.length() <= Integer.MAX_VALUE) {
+				return CtmBufferInput.map(file);
+			}
+			stream = new FileInputStream(file);
+		} else {
+			stream = resource.openStream();
+		}
+		final ReadBufferPool pool = this.readBufferPool;
+		return pool != null ? new CtmStreamInput(stream, pool) : new CtmStreamInput(stream);
+	}
+
+	/**
+	 * Closes the input, logging failures only, as the mesh is complete
+	 * anyway or the load failed for another reason.
+	 */
+	private static void close(final CtmInput input, final ResourceSource resource) {
+		if (input == null) {
+			return;
+		}
+		try {
+			input.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to close " + resource.getName(), e);
+		}
+	}
+
+	/**
+	 * @return a key identifying the current contents of the resource, or null
+	 *         if the resource isn't a local file
+	 */
+	static String resourceKey(final ResourceSource resource) {
+		final File file = toFile(resource);
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		return file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
+	}
+
+	/**
+	 * @return the local file the resource points to, or null if it isn't one
+	 */
+	static File toFile(final ResourceSource resource) {
+		if (!(resource instanceof URLResourceSource)) {
+			return null;
+		}
+		final URL url = ((URLResourceSource) resource).getURL();
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+
+/**
+ * Fork/join copies between the heap arrays JOpenCTM works with and mesh
+ * buffers. Large copies are split into ranges, so that several channels and
+ * parts of the same channel are copied at the same time.
+ */
+abstract class ParallelCopy extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int THRESHOLD = 256 * 1024;
+
+	final int from;
+	final int to;
+
+	ParallelCopy(final int from, final int to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.to - this.from <= THRESHOLD) {
+			copy(this.from, this.to);
+		} else {
+			final int middle = (this.from + this.to) >>> 1;
+			invokeAll(split(this.from, middle), split(middle, this.to));
+		}
+	}
+
+	abstract void copy(int from, int to);
+
+	abstract ParallelCopy split(int from, int to);
+
+	/**
+	 * Runs all tasks on the pool and waits for them.
+	 */
+	static void runAll(final ForkJoinPool pool, final List<ForkJoinTask<?>> tasks) {
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Copies the whole array into the buffer, which must have the same size.
+	 */
+	static ParallelCopy of(final float[] source, final FloatBuffer target) {
+		return new FloatsToBuffer(source, target, null, 0, source.length);
+	}
+
+	/**
+	 * Copies the whole array of positions into the buffer, which must have
+	 * the same size, and adds them to the bounds on the way.
+	 */
+	static ParallelCopy of(final float[] source, final FloatBuffer target,
+			final VertexBounds bounds) {
+		return new FloatsToBuffer(source, target, bounds, 0, source.length);
+	}
+
+	/**
+	 * Copies the whole array into the buffer, which must have the same size.
+	 */
+	static ParallelCopy of(final int[] source, final IntBuffer target) {
+		return new IntsToBuffer(source, target, 0, source.length);
+	}
+
+	/**
+	 * Copies the whole array into the index buffer, which must have the same
+	 * size but may be narrower.
+	 */
+	static ParallelCopy of(final int[] source, final IndexBufferData<?> target) {
+		if (target.getBuffer() instanceof IntBuffer) {
+			return of(source, (IntBuffer) target.getBuffer());
+		}
+		return new IntsToIndices(source, target, 0, source.length);
+	}
+
+	/**
+	 * Copies the first <code>components</code> values of each tuple into the
+	 * array, filling in those the tuples are short of with
+	 * {@link #missingComponent(int)}.
+	 */
+	static ParallelCopy of(final FloatBufferData source, final int components,
+			final float[] target) {
+		return new BufferToFloats(source.getBuffer(), source.getValuesPerTuple(),
+				components, target, 0, target.length / components);
+	}
+
+	/**
+	 * @return the value of a component a tuple doesn't have, as OpenGL fills
+	 *         it in: 0, or 1 for the fourth component
+	 */
+	static float missingComponent(final int component) {
+		return component == 3 ? 1 : 0;
+	}
+
+	private static final class FloatsToBuffer extends ParallelCopy {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] source;
+		private final FloatBuffer target;
+		private final VertexBounds bounds;
+
+		FloatsToBuffer(final float[] source, final FloatBuffer target,
+				final VertexBounds bounds, final int from, final int to) {
+			super(from, to);
+			this.source = source;
+			this.target = target;
+			this.bounds = bounds;
+		}
+
+		@Override
+		void copy(final int from, final int to) {
+			final FloatBuffer target = this.target.duplicate();
+			target.clear();
+			target.position(from);
+			target.put(this.source, from, to - from);
+			if (this.bounds != null) {
+				// the range was just read, so it is still cached
+				final VertexBounds bounds = new VertexBounds();
+				bounds.add(this.source, from, to);
+				this.bounds.merge(bounds);
+			}
+		}
+
+		@Override
+		ParallelCopy split(final int from, final int to) {
+			return new FloatsToBuffer(this.source, this.target, this.bounds, from, to);
+		}
+	}
+
+	private static final class IntsToBuffer extends ParallelCopy {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] source;
+		private final IntBuffer target;
+
+		IntsToBuffer(final int[] source, final IntBuffer target, final int from,
+				final int to) {
+			super(from, to);
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		void copy(final int from, final int to) {
+			final IntBuffer target = this.target.duplicate();
+			target.clear();
+			target.position(from);
+			target.put(this.source, from, to - from);
+		}
+
+		@Override
+		ParallelCopy split(final int from, final int to) {
+			return new IntsToBuffer(this.source, this.target, from, to);
+		}
+	}
+
+	private static final class IntsToIndices extends ParallelCopy {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] source;
+		private final IndexBufferData<?> target;
+
+		IntsToIndices(final int[] source, final IndexBufferData<?> target,
+				final int from, final int to) {
+			super(from, to);
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		void copy(final int from, final int to) {
+			for (int i = from; i < to; i++) {
+				this.target.put(i, this.source[i]);
+			}
+		}
+
+		@Override
+		ParallelCopy split(final int from, final int to) {
+			return new IntsToIndices(this.source, this.target, from, to);
+		}
+	}
+
+	/**
+	 * Works on tuples rather than values.
+	 */
+	private static final class BufferToFloats extends ParallelCopy {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FloatBuffer source;
+		private final int tupleSize;
+		private final int components;
+		private final float[] target;
+
+		BufferToFloats(final FloatBuffer source, final int tupleSize,
+				final int components, final float[] target, final int from,
+				final int to) {
+			super(from, to);
+			this.source = source;
+			this.tupleSize = tupleSize;
+			this.components = components;
+			this.target = target;
+		}
+
+		@Override
+		void copy(final int from, final int to) {
+			final FloatBuffer source = this.source.duplicate();
+			source.clear();
+			if (this.tupleSize == this.components) {
+				source.position(from * this.tupleSize);
+				source.get(this.target, from * this.components, (to - from) * this.components);
+			} else {
+				for (int i = from; i < to; i++) {
+					for (int c = 0; c < this.components; c++) {
+						this.target[i * this.components + c] = c < this.tupleSize
+								? source.get(i * this.tupleSize + c) : missingComponent(c);
+					}
+				}
+			}
+		}
+
+		@Override
+		ParallelCopy split(final int from, final int to) {
+			return new BufferToFloats(this.source, this.tupleSize, this.components,
+					this.target, from, to);
+		}
+	}
+
+}
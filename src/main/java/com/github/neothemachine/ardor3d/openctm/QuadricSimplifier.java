@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Simplifies a triangle mesh by quadric error edge collapses (Garland and
+ * Heckbert).
+ * 
+ * Vertices are only ever collapsed onto one of their neighbours, so that no
+ * new vertices (and attributes) need to be made up. Vertices on open edges
+ * are locked, which keeps the borders of a mesh and of the chunks it was
+ * split into in place. Ties are broken by vertex numbers, so the result is
+ * deterministic.
+ */
+final class QuadricSimplifier {
+
+	private final float[] positions;
+	/** three vertices per triangle, -1 for removed triangles */
+	private final int[] triangles;
+	private final double[] quadrics;
+	private final boolean[] locked;
+	private final boolean[] removed;
+	private final int[] stamps;
+	private final int[][] vertexTriangles;
+	private final int[] vertexTriangleCounts;
+	private int triangleCount;
+
+	/**
+	 * @param positions
+	 *            three values per vertex
+	 * @param triangles
+	 *            three vertices per triangle, which are modified in place
+	 */
+	QuadricSimplifier(final float[] positions, final int[] triangles) {
+		final int vertexCount = positions.length / 3;
+		this.positions = positions;
+		this.triangles = triangles;
+		this.triangleCount = triangles.length / 3;
+		this.quadrics = new double[vertexCount * 10];
+		this.locked = new boolean[vertexCount];
+		this.removed = new boolean[vertexCount];
+		this.stamps = new int[vertexCount];
+		this.vertexTriangles = new int[vertexCount][];
+		this.vertexTriangleCounts = new int[vertexCount];
+
+		final Map<Long, Integer> edgeUses = new HashMap<Long, Integer>();
+		for (int t = 0; t < this.triangleCount; t++) {
+			addQuadric(t);
+			for (int k = 0; k < 3; k++) {
+				final int a = triangles[t * 3 + k];
+				final int b = triangles[t * 3 + (k + 1) % 3];
+				addVertexTriangle(a, t);
+				final Long edge = edgeKey(a, b);
+				final Integer uses = edgeUses.get(edge);
+				edgeUses.put(edge, uses == null ? 1 : uses + 1);
+			}
+		}
+		for (final Map.Entry<Long, Integer> edge : edgeUses.entrySet()) {
+			if (edge.getValue() == 1) {
+				this.locked[(int) (edge.getKey() >>> 32)] = true;
+				this.locked[(int) (edge.getKey() & 0xffffffffL)] = true;
+			}
+		}
+	}
+
+	/**
+	 * Collapses edges until at most the given number of triangles remains or
+	 * no edge can be collapsed anymore.
+	 * 
+	 * @return the remaining triangles
+	 */
+	int[] simplify(final int targetTriangles) {
+		final PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>();
+		for (int t = 0; t < this.triangles.length / 3; t++) {
+			for (int k = 0; k < 3; k++) {
+				final int a = this.triangles[t * 3 + k];
+				final int b = this.triangles[t * 3 + (k + 1) % 3];
+				if (a < b) {
+					offer(queue, a, b);
+				}
+			}
+		}
+
+		while (this.triangleCount > targetTriangles && !queue.isEmpty()) {
+			final Collapse collapse = queue.poll();
+			if (this.removed[collapse.from] || this.removed[collapse.to]
+					|| this.stamps[collapse.from] != collapse.fromStamp
+					|| this.stamps[collapse.to] != collapse.toStamp) {
+				// outdated
+				continue;
+			}
+			if (flips(collapse.from, collapse.to)) {
+				continue;
+			}
+			collapse(collapse.from, collapse.to);
+			for (final int neighbour : neighbours(collapse.to)) {
+				offer(queue, collapse.to, neighbour);
+			}
+		}
+
+		final int[] remaining = new int[this.triangleCount * 3];
+		int i = 0;
+		for (int t = 0; t < this.triangles.length / 3; t++) {
+			if (this.triangles[t * 3] >= 0) {
+				System.arraycopy(this.triangles, t * 3, remaining, i, 3);
+				i += 3;
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Queues the cheaper direction of collapsing the edge, if any.
+	 */
+	private void offer(final PriorityQueue<Collapse> queue, final int a, final int b) {
+		final double toB = this.locked[a] ? Double.POSITIVE_INFINITY : cost(a, b);
+		final double toA = this.locked[b] ? Double.POSITIVE_INFINITY : cost(b, a);
+		if (toB == Double.POSITIVE_INFINITY && toA == Double.POSITIVE_INFINITY) {
+			return;
+		}
+		if (toB <= toA) {
+			queue.add(new Collapse(toB, a, b, this.stamps[a], this.stamps[b]));
+		} else {
+			queue.add(new Collapse(toA, b, a, this.stamps[b], this.stamps[a]));
+		}
+	}
+
+	/**
+	 * @return the error of moving <code>from</code> onto <code>to</code>
+	 */
+	private double cost(final int from, final int to) {
+		final double x = this.positions[to * 3];
+		final double y = this.positions[to * 3 + 1];
+		final double z = this.positions[to * 3 + 2];
+		final double[] q = this.quadrics;
+		final int f = from * 10;
+		final int t = to * 10;
+		final double a2 = q[f] + q[t], ab = q[f + 1] + q[t + 1], ac = q[f + 2] + q[t + 2],
+				ad = q[f + 3] + q[t + 3], b2 = q[f + 4] + q[t + 4], bc = q[f + 5] + q[t + 5],
+				bd = q[f + 6] + q[t + 6], c2 = q[f + 7] + q[t + 7], cd = q[f + 8] + q[t + 8],
+				d2 = q[f + 9] + q[t + 9];
+		return a2 * x * x + 2 * ab * x * y + 2 * ac * x * z + 2 * ad * x
+				+ b2 * y * y + 2 * bc * y * z + 2 * bd * y
+				+ c2 * z * z + 2 * cd * z + d2;
+	}
+
+	/**
+	 * @return whether moving <code>from</code> onto <code>to</code> turns a
+	 *         remaining triangle over
+	 */
+	private boolean flips(final int from, final int to) {
+		for (int i = 0; i < this.vertexTriangleCounts[from]; i++) {
+			final int t = this.vertexTriangles[from][i];
+			if (this.triangles[t * 3] < 0 || contains(t, to)) {
+				continue;
+			}
+			final double[] before = normal(t, -1, -1);
+			final double[] after = normal(t, from, to);
+			if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collapse(final int from, final int to) {
+		for (int i = 0; i < this.vertexTriangleCounts[from]; i++) {
+			final int t = this.vertexTriangles[from][i];
+			if (this.triangles[t * 3] < 0) {
+				continue;
+			}
+			if (contains(t, to)) {
+				this.triangles[t * 3] = -1;
+				this.triangles[t * 3 + 1] = -1;
+				this.triangles[t * 3 + 2] = -1;
+				this.triangleCount--;
+			} else {
+				for (int k = 0; k < 3; k++) {
+					if (this.triangles[t * 3 + k] == from) {
+						this.triangles[t * 3 + k] = to;
+					}
+				}
+				addVertexTriangle(to, t);
+			}
+		}
+		for (int j = 0; j < 10; j++) {
+			this.quadrics[to * 10 + j] += this.quadrics[from * 10 + j];
+		}
+		this.removed[from] = true;
+		this.vertexTriangles[from] = null;
+		this.vertexTriangleCounts[from] = 0;
+		this.stamps[to]++;
+	}
+
+	/**
+	 * @return the distinct vertices sharing a remaining triangle with the
+	 *         vertex, in ascending order
+	 */
+	private int[] neighbours(final int vertex) {
+		int[] neighbours = new int[this.vertexTriangleCounts[vertex] * 2];
+		int count = 0;
+		for (int i = 0; i < this.vertexTriangleCounts[vertex]; i++) {
+			final int t = this.vertexTriangles[vertex][i];
+			if (this.triangles[t * 3] < 0) {
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				final int other = this.triangles[t * 3 + k];
+				if (other != vertex) {
+					neighbours[count++] = other;
+				}
+			}
+		}
+		Arrays.sort(neighbours, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || neighbours[i] != neighbours[i - 1]) {
+				neighbours[distinct++] = neighbours[i];
+			}
+		}
+		return Arrays.copyOf(neighbours, distinct);
+	}
+
+	private boolean contains(final int triangle, final int vertex) {
+		return this.triangles[triangle * 3] == vertex
+				|| this.triangles[triangle * 3 + 1] == vertex
+				|| this.triangles[triangle * 3 + 2] == vertex;
+	}
+
+	/**
+	 * @return the (unnormalized) normal of the triangle with
+	 *         <code>replaced</code> moved to <code>replacement</code>
+	 */
+	private double[] normal(final int triangle, final int replaced, final int replacement) {
+		final double[] p = new double[9];
+		for (int k = 0; k < 3; k++) {
+			int v = this.triangles[triangle * 3 + k];
+			if (v == replaced) {
+				v = replacement;
+			}
+			for (int c = 0; c < 3; c++) {
+				p[k * 3 + c] = this.positions[v * 3 + c];
+			}
+		}
+		final double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+		final double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+		return new double[] {uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+	}
+
+	/**
+	 * Adds the plane of the triangle, weighted by its area, to the quadrics
+	 * of its vertices.
+	 */
+	private void addQuadric(final int triangle) {
+		final double[] n = normal(triangle, -1, -1);
+		final double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+		if (length == 0) {
+			return;
+		}
+		final double a = n[0] / length;
+		final double b = n[1] / length;
+		final double c = n[2] / length;
+		final int v0 = this.triangles[triangle * 3];
+		final double d = -(a * this.positions[v0 * 3] + b * this.positions[v0 * 3 + 1]
+				+ c * this.positions[v0 * 3 + 2]);
+		final double area = length / 2;
+		final double[] plane = {a * a, a * b, a * c, a * d, b * b, b * c, b * d, c * c, c * d, d * d};
+		for (int k = 0; k < 3; k++) {
+			final int v = this.triangles[triangle * 3 + k];
+			for (int j = 0; j < 10; j++) {
+				this.quadrics[v * 10 + j] += area * plane[j];
+			}
+		}
+	}
+
+	private void addVertexTriangle(final int vertex, final int triangle) {
+		int[] list = this.vertexTriangles[vertex];
+		final int count = this.vertexTriangleCounts[vertex];
+		if (list == null) {
+			list = new int[6];
+		} else if (count == list.length) {
+			list = Arrays.copyOf(list, count * 2);
+		}
+		list[count] = triangle;
+		this.vertexTriangles[vertex] = list;
+		this.vertexTriangleCounts[vertex] = count + 1;
+	}
+
+	private static Long edgeKey(final int a, final int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private static final class Collapse implements Comparable<Collapse> {
+
+		final double cost;
+		final int from;
+		final int to;
+		final int fromStamp;
+		final int toStamp;
+
+		Collapse(final double cost, final int from, final int to,
+				final int fromStamp, final int toStamp) {
+			this.cost = cost;
+			this.from = from;
+			this.to = to;
+			this.fromStamp = fromStamp;
+			this.toStamp = toStamp;
+		}
+
+		@Override
+		public int compareTo(final Collapse other) {
+			if (this.cost != other.cost) {
+				return this.cost < other.cost ? -1 : 1;
+			}
+			if (this.from != other.from) {
+				return this.from < other.from ? -1 : 1;
+			}
+			return this.to < other.to ? -1 : this.to > other.to ? 1 : 0;
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the blocks that streamed resources are read through, for
+ * {@link OpenCtmImporter#setReadBufferPool(ReadBufferPool)}.
+ * 
+ * Every streamed load takes one block and returns it once the resource is
+ * closed, so a pool holding as many blocks as there are concurrent loads
+ * makes streaming allocation free. Blocks beyond that are dropped when
+ * they are returned.
+ */
+public class ReadBufferPool {
+
+	/** large enough to read a few sections at once even on network file systems */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/** a block always holds the largest primitive value */
+	private static final int MIN_BLOCK_SIZE = 16;
+
+	private final int blockSize;
+	private final int maxPooled;
+	private final ArrayDeque<byte[]> blocks = new ArrayDeque<byte[]>();
+
+	private final AtomicLong allocations = new AtomicLong();
+
+	/**
+	 * Creates a pool of {@link #DEFAULT_BLOCK_SIZE} blocks that keeps a block
+	 * for each processor.
+	 */
+	public ReadBufferPool() {
+		this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param blockSize
+	 *            the number of bytes that are read from a resource at once
+	 * @param maxPooled
+	 *            the maximum number of blocks that are kept for reuse
+	 */
+	public ReadBufferPool(final int blockSize, final int maxPooled) {
+		if (blockSize < MIN_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size must be at least "
+					+ MIN_BLOCK_SIZE + " bytes, was " + blockSize);
+		}
+		this.blockSize = blockSize;
+		this.maxPooled = maxPooled;
+	}
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * @return the number of blocks currently waiting for reuse
+	 */
+	public synchronized int getPooledCount() {
+		return this.blocks.size();
+	}
+
+	/**
+	 * @return the number of blocks that had to be allocated because the pool
+	 *         was empty
+	 */
+	public long getAllocationCount() {
+		return this.allocations.get();
+	}
+
+	/**
+	 * Drops all pooled blocks.
+	 */
+	public synchronized void clear() {
+		this.blocks.clear();
+	}
+
+	/**
+	 * @return a pooled block, or a new one if there is none
+	 */
+	byte[] acquire() {
+		synchronized (this) {
+			final byte[] block = this.blocks.pollFirst();
+			if (block != null) {
+				return block;
+			}
+		}
+		this.allocations.incrementAndGet();
+		return new byte[this.blockSize];
+	}
+
+	/**
+	 * Returns a block taken with {@link #acquire()}. It must not be used
+	 * afterwards.
+	 */
+	synchronized void release(final byte[] block) {
+		if (this.blocks.size() < this.maxPooled) {
+			this.blocks.addFirst(block);
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+
+import com.ardor3d.bounding.BoundingBox;
+import com.ardor3d.bounding.BoundingSphere;
+import com.ardor3d.bounding.BoundingVolume;
+import com.ardor3d.math.Vector3;
+
+/**
+ * Axis-aligned bounds of vertex positions (three values per vertex), which
+ * are accumulated while the positions are being decoded.
+ */
+final class VertexBounds {
+
+	private final float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+	private final float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+	VertexBounds() {
+	}
+
+	/**
+	 * Creates bounds with a known extent, e.g. from an MG2 grid.
+	 */
+	VertexBounds(final float[] min, final float[] max) {
+		System.arraycopy(min, 0, this.min, 0, 3);
+		System.arraycopy(max, 0, this.max, 0, 3);
+	}
+
+	/**
+	 * Adds the positions in the given range, which may start and end in the
+	 * middle of a vertex.
+	 */
+	void add(final float[] values, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			add(i % 3, values[i]);
+		}
+	}
+
+	/**
+	 * @see #add(float[], int, int)
+	 */
+	void add(final FloatBuffer values, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			add(i % 3, values.get(i));
+		}
+	}
+
+	private void add(final int component, final float value) {
+		if (value < this.min[component]) {
+			this.min[component] = value;
+		}
+		if (value > this.max[component]) {
+			this.max[component] = value;
+		}
+	}
+
+	/**
+	 * Adds the bounds of another part of the same positions.
+	 */
+	synchronized void merge(final VertexBounds other) {
+		for (int c = 0; c < 3; c++) {
+			this.min[c] = Math.min(this.min[c], other.min[c]);
+			this.max[c] = Math.max(this.max[c], other.max[c]);
+		}
+	}
+
+	boolean isEmpty() {
+		return this.min[0] > this.max[0];
+	}
+
+	/**
+	 * @return a box or, if <code>sphere</code> is true, the sphere around it
+	 */
+	synchronized BoundingVolume toBoundingVolume(final boolean sphere) {
+		if (isEmpty()) {
+			return sphere ? new BoundingSphere() : new BoundingBox();
+		}
+		final Vector3 center = new Vector3(
+				(this.min[0] + (double) this.max[0]) / 2,
+				(this.min[1] + (double) this.max[1]) / 2,
+				(this.min[2] + (double) this.max[2]) / 2);
+		final double xExtent = (this.max[0] - (double) this.min[0]) / 2;
+		final double yExtent = (this.max[1] - (double) this.min[1]) / 2;
+		final double zExtent = (this.max[2] - (double) this.min[2]) / 2;
+		if (sphere) {
+			final double radius = Math.sqrt(xExtent * xExtent + yExtent * yExtent + zExtent * zExtent);
+			return new BoundingSphere(radius, center);
+		}
+		return new BoundingBox(center, xExtent, yExtent, zExtent);
+	}
+
+}
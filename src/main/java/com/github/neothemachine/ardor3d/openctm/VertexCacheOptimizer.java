@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Reorders the triangles of a mesh for the post-transform vertex cache of
+ * the GPU, using Tom Forsyth's linear-speed vertex cache optimization, and
+ * optionally the vertices by first use for fetch locality.
+ * 
+ * The result is measured as the average cache miss ratio (ACMR), i.e. the
+ * number of transformed vertices per triangle with a FIFO cache of the
+ * configured size.
+ */
+public class VertexCacheOptimizer {
+
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	private int cacheSize = 32;
+	private boolean reorderVertices = true;
+
+	/**
+	 * @param cacheSize
+	 *            the number of vertices in the simulated cache, at least 4,
+	 *            default is 32
+	 */
+	public VertexCacheOptimizer setCacheSize(final int cacheSize) {
+		if (cacheSize < 4) {
+			throw new IllegalArgumentException("cacheSize must be at least 4");
+		}
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	public int getCacheSize() {
+		return this.cacheSize;
+	}
+
+	/**
+	 * @param reorderVertices
+	 *            whether to also store the vertices in the order they are
+	 *            first used, default is true
+	 */
+	public VertexCacheOptimizer setReorderVertices(final boolean reorderVertices) {
+		this.reorderVertices = reorderVertices;
+		return this;
+	}
+
+	/**
+	 * @return an independent optimizer with the same settings
+	 */
+	VertexCacheOptimizer copy() {
+		return new VertexCacheOptimizer().setCacheSize(this.cacheSize)
+				.setReorderVertices(this.reorderVertices);
+	}
+
+	/**
+	 * Describes the settings, two optimizers with the same description
+	 * produce the same meshes.
+	 */
+	@Override
+	public String toString() {
+		return "VertexCacheOptimizer[cacheSize=" + this.cacheSize
+				+ ", reorderVertices=" + this.reorderVertices + "]";
+	}
+
+	/**
+	 * Optimizes the given mesh of triangles in place. The index buffer and
+	 * the reordered vertex channels are rewritten, unless they are read-only,
+	 * in which case they get new buffers. The scratch arrays come from the
+	 * {@link DecodeArena} of the calling thread.
+	 */
+	public Result optimize(final Mesh mesh) {
+		final MeshData meshData = mesh.getMeshData();
+		final IndexBufferData<?> indexData = meshData.getIndices();
+		if (indexData == null) {
+			throw new IllegalArgumentException("Can't optimize a mesh without indices");
+		}
+		final DecodeArena arena = DecodeArena.get();
+		final int indexCount = indexData.getBufferLimit();
+		final int[] indices = arena.ints(DecodeArena.INDICES, indexCount);
+		for (int i = 0; i < indexCount; i++) {
+			indices[i] = indexData.get(i);
+		}
+		final int vertexCount = vertexCount(meshData, indices, indexCount);
+
+		final double before = acmr(indices, indexCount, this.cacheSize, arena);
+		final int[] optimized = optimize(indices, indexCount, vertexCount, this.cacheSize, arena);
+		if (this.reorderVertices) {
+			final int[] remap = firstUse(optimized, indexCount, vertexCount, arena);
+			for (int i = 0; i < indexCount; i++) {
+				optimized[i] = remap[optimized[i]];
+			}
+			meshData.setVertexCoords(reorder(meshData.getVertexCoords(), remap, arena));
+			meshData.setNormalCoords(reorder(meshData.getNormalCoords(), remap, arena));
+			meshData.setColorCoords(reorder(meshData.getColorCoords(), remap, arena));
+			for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+				meshData.setTextureCoords(reorder(meshData.getTextureCoords(i), remap, arena), i);
+			}
+		}
+		for (int i = 0; i < indexCount; i++) {
+			indexData.put(i, optimized[i]);
+		}
+		return new Result(indexCount / 3, before, acmr(optimized, indexCount, this.cacheSize, arena));
+	}
+
+	/**
+	 * @return the average number of cache misses per triangle with a FIFO
+	 *         cache of the given size
+	 */
+	public static double acmr(final int[] indices, final int cacheSize) {
+		return acmr(indices, indices.length, cacheSize, DecodeArena.get());
+	}
+
+	/**
+	 * @see #acmr(int[], int)
+	 */
+	private static double acmr(final int[] indices, final int indexCount,
+			final int cacheSize, final DecodeArena arena) {
+		if (indexCount < 3) {
+			return 0;
+		}
+		int vertexCount = 0;
+		for (int i = 0; i < indexCount; i++) {
+			vertexCount = Math.max(vertexCount, indices[i] + 1);
+		}
+		// the number of insertions when a vertex was put into the cache
+		final int[] inserted = arena.clearedInts(DecodeArena.INSERTED, vertexCount);
+		int insertions = 0;
+		for (int i = 0; i < indexCount; i++) {
+			final int index = indices[i];
+			if (inserted[index] == 0 || insertions - inserted[index] >= cacheSize) {
+				insertions++;
+				inserted[index] = insertions;
+			}
+		}
+		return insertions / (indexCount / 3.0);
+	}
+
+	private static int vertexCount(final MeshData meshData, final int[] indices,
+			final int indexCount) {
+		int count = 0;
+		for (int i = 0; i < indexCount; i++) {
+			count = Math.max(count, indices[i] + 1);
+		}
+		count = Math.max(count, tupleCount(meshData.getVertexCoords()));
+		count = Math.max(count, tupleCount(meshData.getNormalCoords()));
+		count = Math.max(count, tupleCount(meshData.getColorCoords()));
+		for (int i = 0; i < meshData.getNumberOfUnits(); i++) {
+			count = Math.max(count, tupleCount(meshData.getTextureCoords(i)));
+		}
+		return count;
+	}
+
+	private static int tupleCount(final FloatBufferData data) {
+		return data != null ? data.getBuffer().limit() / data.getValuesPerTuple() : 0;
+	}
+
+	/**
+	 * @return the triangles in the optimized order, in an array of the arena
+	 */
+	private static int[] optimize(final int[] indices, final int indexCount,
+			final int vertexCount, final int cacheSize, final DecodeArena arena) {
+		final int triangleCount = indexCount / 3;
+
+		// the triangles that aren't emitted yet of each vertex are at
+		// adjacency[offsets[v], offsets[v] + remaining[v])
+		final int[] remaining = arena.clearedInts(DecodeArena.REMAINING, vertexCount);
+		for (int i = 0; i < indexCount; i++) {
+			remaining[indices[i]]++;
+		}
+		final int[] offsets = arena.ints(DecodeArena.OFFSETS, vertexCount + 1);
+		offsets[0] = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] = offsets[v] + remaining[v];
+		}
+		final int[] adjacency = arena.ints(DecodeArena.ADJACENCY, indexCount);
+		final int[] fill = arena.ints(DecodeArena.FILL, vertexCount + 1);
+		System.arraycopy(offsets, 0, fill, 0, vertexCount + 1);
+		for (int i = 0; i < indexCount; i++) {
+			adjacency[fill[indices[i]]++] = i / 3;
+		}
+
+		final int[] cachePositions = arena.ints(DecodeArena.CACHE_POSITIONS, vertexCount);
+		final float[] vertexScores = arena.floats(DecodeArena.VERTEX_SCORES, vertexCount);
+		for (int v = 0; v < vertexCount; v++) {
+			cachePositions[v] = -1;
+			vertexScores[v] = score(-1, remaining[v], cacheSize);
+		}
+		final float[] triangleScores = arena.floats(DecodeArena.TRIANGLE_SCORES, triangleCount);
+		int best = -1;
+		for (int t = 0; t < triangleCount; t++) {
+			triangleScores[t] = vertexScores[indices[t * 3]]
+					+ vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+			if (best < 0 || triangleScores[t] > triangleScores[best]) {
+				best = t;
+			}
+		}
+
+		final int[] emitted = arena.clearedInts(DecodeArena.EMITTED, triangleCount);
+		final int[] output = arena.ints(DecodeArena.OPTIMIZED, indexCount);
+		int[] cache = new int[cacheSize + 3];
+		int[] nextCache = new int[cacheSize + 3];
+		int cacheUsed = 0;
+		int cursor = 0;
+		for (int out = 0; out < triangleCount; out++) {
+			if (best < 0) {
+				// nothing in the cache has triangles left, continue anywhere
+				while (emitted[cursor] != 0) {
+					cursor++;
+				}
+				best = cursor;
+			}
+			emitted[best] = 1;
+			System.arraycopy(indices, best * 3, output, out * 3, 3);
+
+			// the vertices of the triangle go to the front of the cache
+			int nextUsed = 0;
+			for (int k = 0; k < 3; k++) {
+				final int v = indices[best * 3 + k];
+				removeTriangle(adjacency, offsets[v], remaining[v], best);
+				remaining[v]--;
+				if (cachePositions[v] != -2) {
+					nextCache[nextUsed++] = v;
+					cachePositions[v] = -2;
+				}
+			}
+			for (int i = 0; i < cacheUsed; i++) {
+				final int v = cache[i];
+				if (cachePositions[v] != -2) {
+					nextCache[nextUsed++] = v;
+					cachePositions[v] = -2;
+				}
+			}
+			for (int i = 0; i < nextUsed; i++) {
+				final int v = nextCache[i];
+				cachePositions[v] = i < cacheSize ? i : -1;
+				vertexScores[v] = score(cachePositions[v], remaining[v], cacheSize);
+			}
+			final int[] swap = cache;
+			cache = nextCache;
+			nextCache = swap;
+			cacheUsed = Math.min(nextUsed, cacheSize);
+
+			// only triangles around the cache changed their score
+			best = -1;
+			for (int i = 0; i < cacheUsed; i++) {
+				final int v = cache[i];
+				for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++) {
+					final int t = adjacency[j];
+					triangleScores[t] = vertexScores[indices[t * 3]]
+							+ vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+					if (best < 0 || triangleScores[t] > triangleScores[best]) {
+						best = t;
+					}
+				}
+			}
+		}
+		return output;
+	}
+
+	private static void removeTriangle(final int[] adjacency, final int offset,
+			final int count, final int triangle) {
+		for (int j = offset; j < offset + count; j++) {
+			if (adjacency[j] == triangle) {
+				adjacency[j] = adjacency[offset + count - 1];
+				adjacency[offset + count - 1] = triangle;
+				return;
+			}
+		}
+	}
+
+	private static float score(final int cachePosition, final int remaining, final int cacheSize) {
+		if (remaining == 0) {
+			return -1;
+		}
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3) {
+				// the vertices of the last triangle shouldn't be favored too
+				// much, or strips are preferred over fans
+				score = LAST_TRIANGLE_SCORE;
+			} else {
+				score = (float) Math.pow(1 - (cachePosition - 3) / (float) (cacheSize - 3),
+						CACHE_DECAY_POWER);
+			}
+		}
+		return score + VALENCE_BOOST_SCALE * (float) Math.pow(remaining, -VALENCE_BOOST_POWER);
+	}
+
+	/**
+	 * @return the new number of each vertex, in the order of first use, in
+	 *         an array of the arena. Unused vertices go to the end.
+	 */
+	private static int[] firstUse(final int[] indices, final int indexCount,
+			final int vertexCount, final DecodeArena arena) {
+		final int[] remap = arena.ints(DecodeArena.REMAP, vertexCount);
+		for (int v = 0; v < vertexCount; v++) {
+			remap[v] = -1;
+		}
+		int next = 0;
+		for (int i = 0; i < indexCount; i++) {
+			final int index = indices[i];
+			if (remap[index] < 0) {
+				remap[index] = next++;
+			}
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+		}
+		return remap;
+	}
+
+	/**
+	 * Moves each vertex to its new number, in place if the buffer is
+	 * writable.
+	 */
+	private static FloatBufferData reorder(final FloatBufferData data, final int[] remap,
+			final DecodeArena arena) {
+		if (data == null) {
+			return null;
+		}
+		final int size = data.getValuesPerTuple();
+		final FloatBuffer source = data.getBuffer();
+		final int limit = source.limit();
+		final float[] values = arena.floats(DecodeArena.REORDER, limit);
+		source.rewind();
+		source.get(values, 0, limit);
+		source.rewind();
+		if (source.isReadOnly()) {
+			final FloatBuffer target = BufferUtils.createFloatBuffer(limit);
+			write(values, remap, size, target);
+			return new FloatBufferData(target, size);
+		}
+		write(values, remap, size, source);
+		return data;
+	}
+
+	private static void write(final float[] values, final int[] remap, final int size,
+			final FloatBuffer target) {
+		for (int v = 0; v < target.limit() / size; v++) {
+			for (int c = 0; c < size; c++) {
+				target.put(remap[v] * size + c, values[v * size + c]);
+			}
+		}
+	}
+
+	/**
+	 * The cache efficiency of a mesh before and after the optimization.
+	 */
+	public static final class Result {
+
+		private final int triangleCount;
+		private final double acmrBefore;
+		private final double acmrAfter;
+
+		Result(final int triangleCount, final double acmrBefore, final double acmrAfter) {
+			this.triangleCount = triangleCount;
+			this.acmrBefore = acmrBefore;
+			this.acmrAfter = acmrAfter;
+		}
+
+		public int getTriangleCount() {
+			return this.triangleCount;
+		}
+
+		public double getAcmrBefore() {
+			return this.acmrBefore;
+		}
+
+		public double getAcmrAfter() {
+			return this.acmrAfter;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d triangles, ACMR %.3f -> %.3f",
+					this.triangleCount, this.acmrBefore, this.acmrAfter);
+		}
+	}
+
+}
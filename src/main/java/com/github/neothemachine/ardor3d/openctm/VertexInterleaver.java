@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.FloatBuffer;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+
+/**
+ * Packs the float attributes of a mesh into one buffer, see
+ * {@link InterleavedVertexData}.
+ */
+final class VertexInterleaver {
+
+	private VertexInterleaver() {
+	}
+
+	/**
+	 * Replaces the float buffers of the mesh with a single interleaved one,
+	 * which is attached as {@link InterleavedVertexData}. The indices stay
+	 * where they are. The interleaved buffer is allocated from the given
+	 * lease.
+	 * 
+	 * @param giveBack
+	 *            whether the replaced buffers are given back to the lease
+	 *            right away, which is only safe if nobody else has seen them.
+	 *            Otherwise they stay part of it.
+	 */
+	static void apply(final Mesh mesh, final BufferLease lease, final boolean giveBack) {
+		final MeshData meshData = mesh.getMeshData();
+		final int units = meshData.getNumberOfUnits();
+
+		int stride = 0;
+		int vertexCount = -1;
+		final FloatBufferData vertices = meshData.getVertexCoords();
+		if (vertices != null) {
+			stride += vertices.getValuesPerTuple();
+			vertexCount = vertices.getTupleCount();
+		}
+		final FloatBufferData normals = meshData.getNormalCoords();
+		if (normals != null) {
+			stride += normals.getValuesPerTuple();
+			vertexCount = normals.getTupleCount();
+		}
+		final FloatBufferData colors = meshData.getColorCoords();
+		if (colors != null) {
+			stride += colors.getValuesPerTuple();
+			vertexCount = colors.getTupleCount();
+		}
+		for (int unit = 0; unit < units; unit++) {
+			final FloatBufferData coords = meshData.getTextureCoords(unit);
+			if (coords != null) {
+				stride += coords.getValuesPerTuple();
+				vertexCount = coords.getTupleCount();
+			}
+		}
+		if (vertexCount < 0) {
+			// nothing to interleave
+			return;
+		}
+
+		final FloatBuffer target = lease.createFloatBuffer(vertexCount * stride);
+		final InterleavedVertexData data = new InterleavedVertexData(target, stride,
+				vertexCount, units);
+		int offset = 0;
+		if (vertices != null) {
+			data.positionOffset = offset;
+			offset = copy(vertices, target, stride, offset);
+			if (giveBack) {
+				lease.giveBack(vertices.getBuffer());
+			}
+			meshData.setVertexCoords(null);
+		}
+		if (normals != null) {
+			data.normalOffset = offset;
+			offset = copy(normals, target, stride, offset);
+			if (giveBack) {
+				lease.giveBack(normals.getBuffer());
+			}
+			meshData.setNormalCoords(null);
+		}
+		if (colors != null) {
+			data.colorOffset = offset;
+			offset = copy(colors, target, stride, offset);
+			if (giveBack) {
+				lease.giveBack(colors.getBuffer());
+			}
+			meshData.setColorCoords(null);
+		}
+		for (int unit = 0; unit < units; unit++) {
+			final FloatBufferData coords = meshData.getTextureCoords(unit);
+			if (coords != null) {
+				data.textureOffsets[unit] = offset;
+				data.textureSizes[unit] = coords.getValuesPerTuple();
+				offset = copy(coords, target, stride, offset);
+				if (giveBack) {
+					lease.giveBack(coords.getBuffer());
+				}
+				meshData.setTextureCoords(null, unit);
+			}
+		}
+
+		mesh.setUserData(data);
+	}
+
+	/**
+	 * Copies one attribute into its slot of every vertex. The source is read
+	 * sequentially, the target with the stride.
+	 * 
+	 * @return the offset of the next attribute
+	 */
+	private static int copy(final FloatBufferData coords, final FloatBuffer target,
+			final int stride, final int offset) {
+		final FloatBuffer source = coords.getBuffer();
+		final int size = coords.getValuesPerTuple();
+		final int count = coords.getTupleCount();
+		for (int v = 0; v < count; v++) {
+			final int from = v * size;
+			final int to = v * stride + offset;
+			for (int c = 0; c < size; c++) {
+				target.put(to + c, source.get(from + c));
+			}
+		}
+		return offset + size;
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012 Maik Riechert
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * (version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301  USA.
+ */
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.NormalFormat;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.TextureFormat;
+
+/**
+ * Converts the float attributes of a mesh into the formats chosen by a
+ * {@link CompactVertexFormat}, measuring the error on the way.
+ */
+final class VertexQuantizer {
+
+	private static final int UNSIGNED_SHORT_MAX = 0xffff;
+
+	private VertexQuantizer() {
+	}
+
+	/**
+	 * Replaces the chosen float buffers of the mesh with compact ones, which
+	 * are attached as {@link CompactVertexData}. The compact buffers are
+	 * allocated from the given lease.
+	 * 
+	 * @param giveBack
+	 *            whether the float buffers are given back to the lease right
+	 *            away, which is only safe if nobody else has seen them.
+	 *            Otherwise they stay part of it.
+	 */
+	static void apply(final Mesh mesh, final CompactVertexFormat format,
+			final BufferLease lease, final boolean giveBack) {
+		final MeshData meshData = mesh.getMeshData();
+		final CompactVertexData data = new CompactVertexData(meshData.getNumberOfUnits());
+
+		if (format.isQuantizedPositions() && meshData.getVertexCoords() != null) {
+			quantizePositions(meshData.getVertexCoords(), data, lease);
+			if (giveBack) {
+				lease.giveBack(meshData.getVertexBuffer());
+			}
+			meshData.setVertexCoords(null);
+		}
+
+		if (format.getNormalFormat() != NormalFormat.FLOAT
+				&& meshData.getNormalCoords() != null) {
+			quantizeNormals(meshData.getNormalCoords(), format.getNormalFormat(), data, lease);
+			if (giveBack) {
+				lease.giveBack(meshData.getNormalBuffer());
+			}
+			meshData.setNormalCoords(null);
+		}
+
+		if (format.getTextureFormat() != TextureFormat.FLOAT) {
+			data.textureFormat = format.getTextureFormat();
+			for (int unit = 0; unit < meshData.getNumberOfUnits(); unit++) {
+				final FloatBufferData coords = meshData.getTextureCoords(unit);
+				if (coords == null) {
+					continue;
+				}
+				if (data.textureFormat == TextureFormat.HALF_FLOAT) {
+					toHalfFloats(coords, unit, data, lease);
+				} else {
+					quantizeTextureCoords(coords, unit, data, lease);
+				}
+				if (giveBack) {
+					lease.giveBack(coords.getBuffer());
+				}
+				meshData.setTextureCoords(null, unit);
+			}
+		}
+
+		mesh.setUserData(data);
+	}
+
+	private static void quantizePositions(final FloatBufferData coords,
+			final CompactVertexData data, final BufferLease lease) {
+		final FloatBuffer source = coords.getBuffer();
+		final int size = coords.getValuesPerTuple();
+		final float[] offset = new float[size];
+		final float[] scale = new float[size];
+		range(source, size, offset, scale);
+
+		final ShortBuffer target = lease.createShortBuffer(source.limit());
+		data.positionError = quantize(source, size, offset, scale, target);
+		data.positions = target;
+		data.positionOffset = offset;
+		data.positionScale = scale;
+	}
+
+	private static void quantizeTextureCoords(final FloatBufferData coords,
+			final int unit, final CompactVertexData data, final BufferLease lease) {
+		final FloatBuffer source = coords.getBuffer();
+		final int size = coords.getValuesPerTuple();
+		final float[] offset = new float[size];
+		final float[] scale = new float[size];
+		range(source, size, offset, scale);
+
+		final ShortBuffer target = lease.createShortBuffer(source.limit());
+		data.textureError[unit] = quantize(source, size, offset, scale, target);
+		data.textureCoords[unit] = target;
+		data.textureOffset[unit] = offset;
+		data.textureScale[unit] = scale;
+	}
+
+	/**
+	 * Computes the minimum (offset) and the scale mapping the range onto
+	 * 0..65535 of every component.
+	 */
+	private static void range(final FloatBuffer source, final int size,
+			final float[] offset, final float[] scale) {
+		final float[] max = new float[size];
+		for (int c = 0; c < size; c++) {
+			offset[c] = Float.POSITIVE_INFINITY;
+			max[c] = Float.NEGATIVE_INFINITY;
+		}
+		for (int i = 0; i < source.limit(); i++) {
+			final int c = i % size;
+			final float value = source.get(i);
+			offset[c] = Math.min(offset[c], value);
+			max[c] = Math.max(max[c], value);
+		}
+		for (int c = 0; c < size; c++) {
+			if (offset[c] > max[c]) {
+				// no values
+				offset[c] = 0;
+				max[c] = 0;
+			}
+			scale[c] = max[c] > offset[c] ? (max[c] - offset[c]) / UNSIGNED_SHORT_MAX : 1;
+		}
+	}
+
+	/**
+	 * @return the maximum absolute error
+	 */
+	private static float quantize(final FloatBuffer source, final int size,
+			final float[] offset, final float[] scale, final ShortBuffer target) {
+		float error = 0;
+		for (int i = 0; i < source.limit(); i++) {
+			final int c = i % size;
+			final float value = source.get(i);
+			final int quantized = Math.min(UNSIGNED_SHORT_MAX,
+					Math.max(0, Math.round((value - offset[c]) / scale[c])));
+			target.put(i, (short) quantized);
+			error = Math.max(error, Math.abs(quantized * scale[c] + offset[c] - value));
+		}
+		return error;
+	}
+
+	private static void quantizeNormals(final FloatBufferData coords,
+			final NormalFormat format, final CompactVertexData data,
+			final BufferLease lease) {
+		final FloatBuffer source = coords.getBuffer();
+		final int max = format == NormalFormat.BYTE ? Byte.MAX_VALUE : Short.MAX_VALUE;
+		final ByteBuffer bytes = format == NormalFormat.BYTE ? lease.createByteBuffer(source.limit()) : null;
+		final ShortBuffer shorts = format == NormalFormat.SHORT ? lease.createShortBuffer(source.limit()) : null;
+
+		float error = 0;
+		for (int i = 0; i < source.limit(); i++) {
+			final float value = source.get(i);
+			final int packed = Math.round(Math.max(-1, Math.min(1, value)) * max);
+			if (bytes != null) {
+				bytes.put(i, (byte) packed);
+			} else {
+				shorts.put(i, (short) packed);
+			}
+			error = Math.max(error, Math.abs((float) packed / max - value));
+		}
+		data.normalFormat = format;
+		data.normals = bytes != null ? bytes : shorts;
+		data.normalError = error;
+	}
+
+	private static void toHalfFloats(final FloatBufferData coords,
+			final int unit, final CompactVertexData data, final BufferLease lease) {
+		final FloatBuffer source = coords.getBuffer();
+		final ShortBuffer target = lease.createShortBuffer(source.limit());
+		float error = 0;
+		for (int i = 0; i < source.limit(); i++) {
+			final float value = source.get(i);
+			final short half = toHalf(value);
+			target.put(i, half);
+			error = Math.max(error, Math.abs(fromHalf(half) - value));
+		}
+		data.textureCoords[unit] = target;
+		data.textureError[unit] = error;
+	}
+
+	/**
+	 * Rounds to the nearest half float, clamping to the largest finite one.
+	 */
+	static short toHalf(final float value) {
+		final int bits = Float.floatToIntBits(value);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int floatExponent = (bits >>> 23) & 0xff;
+		final int exponent = floatExponent - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+
+		if (floatExponent == 0xff) {
+			// infinity or NaN
+			return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		if (exponent >= 31) {
+			return (short) (sign | 0x7bff);
+		}
+		if (exponent <= 0) {
+			// subnormal or zero
+			if (exponent < -10) {
+				return (short) sign;
+			}
+			mantissa |= 0x800000;
+			final int shift = 14 - exponent;
+			int half = mantissa >> shift;
+			final int rest = mantissa & ((1 << shift) - 1);
+			final int halfway = 1 << (shift - 1);
+			if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		int half = (exponent << 10) | (mantissa >> 13);
+		final int rest = mantissa & 0x1fff;
+		if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+			half++;
+		}
+		if ((half & 0x7c00) == 0x7c00) {
+			half = 0x7bff;
+		}
+		return (short) (sign | half);
+	}
+
+	static float fromHalf(final short half) {
+		final int exponent = (half >>> 10) & 0x1f;
+		final int mantissa = half & 0x3ff;
+		final float magnitude;
+		if (exponent == 0) {
+			magnitude = mantissa / (float) (1 << 24);
+		} else if (exponent == 31) {
+			magnitude = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			magnitude = Float.intBitsToFloat(((exponent + 112) << 23) | (mantissa << 13));
+		}
+		return (half & 0x8000) != 0 ? -magnitude : magnitude;
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether asynchronous loads give the same meshes as synchronous
+ * ones and whether cancelled loads stop and give their buffers back.
+ */
+public class AsyncLoadTest {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void testLoadAsync() throws Exception {
+		for (String name : TestMeshes.ALL) {
+			Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(name));
+			Mesh mesh = new OpenCtmImporter().loadAsync(TestMeshes.resource(name), this.executor).get();
+			
+			assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(mesh), 0);
+			assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(mesh));
+		}
+	}
+
+	@Test
+	public void testCancelBeforeStart() throws Exception {
+		CountDownLatch gate = block();
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		FinishedListener finished = new FinishedListener();
+		Future<Mesh> future = new OpenCtmImporter()
+			.setBufferPool(pool)
+			.setMetricsListener(finished)
+			.loadAsync(TestMeshes.resource(TestMeshes.RAW), this.executor);
+		
+		assertTrue(future.cancel(false));
+		gate.countDown();
+		drain();
+		
+		assertTrue(future.isCancelled());
+		try {
+			future.get();
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+		// the load never ran
+		assertEquals(0, finished.stats.size());
+		assertEquals(0, pool.getAllocatedBytes());
+	}
+
+	@Test
+	public void testCancelMidDecode() throws Exception {
+		for (String name : TestMeshes.ALL) {
+			CountDownLatch gate = block();
+			DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+			FinishedListener finished = new FinishedListener();
+			final List<ImportStage> stages = new ArrayList<ImportStage>();
+			final List<Future<Mesh>> futures = new ArrayList<Future<Mesh>>();
+			Future<Mesh> future = new OpenCtmImporter()
+				.setBufferPool(pool)
+				.setMetricsListener(finished)
+				.loadAsync(TestMeshes.resource(name), this.executor, new CtmImportListener() {
+					@Override
+					public void stageCompleted(Mesh mesh, ImportStage stage, int index) {
+						stages.add(stage);
+						if (stage == ImportStage.INDICES) {
+							futures.get(0).cancel(false);
+						}
+					}
+				});
+			futures.add(future);
+			gate.countDown();
+			drain();
+			
+			assertTrue(future.isCancelled());
+			assertEquals(ImportStage.INDICES, stages.get(stages.size() - 1));
+			assertEquals(1, finished.stats.size());
+			assertTrue(finished.stats.get(0).getFailure() instanceof CancellationException);
+			// the buffers decoded so far went back to the pool
+			assertTrue(pool.getAllocatedBytes() > 0);
+			assertEquals(0, pool.getLeasedBytes());
+			assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+		}
+	}
+
+	/**
+	 * Keeps the executor busy until the returned latch is counted down.
+	 */
+	private CountDownLatch block() {
+		final CountDownLatch gate = new CountDownLatch(1);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return gate;
+	}
+
+	/**
+	 * Waits until everything submitted so far has run.
+	 */
+	private void drain() throws Exception {
+		this.executor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}).get(10, TimeUnit.SECONDS);
+	}
+
+	private static class FinishedListener implements CtmMetricsListener {
+
+		final List<ImportStats> stats = new ArrayList<ImportStats>();
+
+		@Override
+		public void importFinished(ImportStats stats) {
+			this.stats.add(stats);
+		}
+	}
+
+}
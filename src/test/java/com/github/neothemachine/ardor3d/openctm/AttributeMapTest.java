@@ -0,0 +1,191 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.FloatBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.shape.Teapot;
+import com.ardor3d.util.geom.BufferUtils;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * This tests whether attribute maps end up in the color buffer and the
+ * mapped texture units, and whether the exporter writes colors and texture
+ * units of every size so that they come back.
+ */
+public class AttributeMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Mesh teapot = new Teapot("teapot");
+	private final int vertexCount = teapot.getMeshData().getVertexCount();
+	private final float[] colors = values(1);
+	private final float[] occlusion = values(2);
+	private final float[] curvature = values(3);
+
+	@Test
+	public void testRAW() throws Exception {
+		check(load(encode(new RawEncoder())));
+	}
+
+	@Test
+	public void testMG1() throws Exception {
+		check(load(encode(new MG1Encoder())));
+	}
+
+	@Test
+	public void testMappedRAW() throws Exception {
+		File file = folder.newFile("attributes.ctm");
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(encode(new RawEncoder()));
+		} finally {
+			output.close();
+		}
+		Mesh mesh = createImporter().setMemoryMapping(true).load(
+				new URLResourceSource(file.toURI().toURL()));
+		check(mesh);
+	}
+
+	@Test
+	public void testExportColors() throws Exception {
+		Mesh mesh = new Teapot("teapot");
+		mesh.getMeshData().setColorBuffer(BufferUtils.createFloatBuffer(colors));
+		for (MeshEncoder encoder : new MeshEncoder[] {new RawEncoder(), new MG1Encoder()}) {
+			Mesh imported = exportAndLoad(mesh, encoder, new OpenCtmImporter());
+			assertArrayEquals(colors, read(imported.getMeshData().getColorBuffer()), 0);
+		}
+	}
+
+	@Test
+	public void testExportRGB() throws Exception {
+		Mesh mesh = new Teapot("teapot");
+		float[] rgb = new float[vertexCount * 3];
+		for (int i = 0; i < vertexCount; i++) {
+			System.arraycopy(colors, i * 4, rgb, i * 3, 3);
+		}
+		mesh.getMeshData().setColorCoords(new FloatBufferData(BufferUtils.createFloatBuffer(rgb), 3));
+		
+		Mesh imported = exportAndLoad(mesh, new RawEncoder(), new OpenCtmImporter());
+		float[] rgba = read(imported.getMeshData().getColorBuffer());
+		for (int i = 0; i < vertexCount; i++) {
+			for (int c = 0; c < 3; c++) {
+				assertEquals(rgb[i * 3 + c], rgba[i * 4 + c], 0);
+			}
+			// alpha is filled in as opaque
+			assertEquals(1, rgba[i * 4 + 3], 0);
+		}
+	}
+
+	@Test
+	public void testExportOneComponentUVMap() throws Exception {
+		Mesh mesh = new Teapot("teapot");
+		float[] u = new float[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			u[i] = colors[i];
+		}
+		mesh.getMeshData().setTextureCoords(new FloatBufferData(BufferUtils.createFloatBuffer(u), 1), 0);
+		
+		for (MeshEncoder encoder : new MeshEncoder[] {new RawEncoder(), new MG1Encoder()}) {
+			float[] uv = WriteReadTest.readUVMap(exportAndLoad(mesh, encoder, new OpenCtmImporter()));
+			for (int i = 0; i < vertexCount; i++) {
+				assertEquals(u[i], uv[i * 2], 0);
+				assertEquals(0, uv[i * 2 + 1], 0);
+			}
+		}
+	}
+
+	@Test
+	public void testExportAttributeUnit() throws Exception {
+		Mesh mesh = new Teapot("teapot");
+		mesh.getMeshData().setTextureCoords(new FloatBufferData(BufferUtils.createFloatBuffer(occlusion), 4), 1);
+		OpenCtmImporter importer = new OpenCtmImporter().setAttributeMapping(
+				OpenCtmExporter.attributeMapName(1), 1);
+		
+		for (MeshEncoder encoder : new MeshEncoder[] {new RawEncoder(), new MG1Encoder()}) {
+			Mesh imported = exportAndLoad(mesh, encoder, importer);
+			assertEquals(4, imported.getMeshData().getTextureCoords(1).getValuesPerTuple());
+			assertArrayEquals(occlusion, read(imported.getMeshData().getTextureBuffer(1)), 0);
+			assertArrayEquals(WriteReadTest.readUVMap(mesh), WriteReadTest.readUVMap(imported), 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testExportTooManyComponents() throws Exception {
+		Mesh mesh = new Teapot("teapot");
+		mesh.getMeshData().setTextureCoords(new FloatBufferData(
+				BufferUtils.createFloatBuffer(vertexCount * 5), 5), 1);
+		new OpenCtmExporter().save(mesh, new ByteArrayOutputStream(), new RawEncoder());
+	}
+
+	private Mesh exportAndLoad(Mesh mesh, MeshEncoder encoder, OpenCtmImporter importer)
+			throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new OpenCtmExporter().save(mesh, output, encoder);
+		return importer.load(new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+	}
+
+	private void check(Mesh mesh) {
+		assertArrayEquals(colors, read(mesh.getMeshData().getColorBuffer()), 0);
+		assertEquals(4, mesh.getMeshData().getTextureCoords(1).getValuesPerTuple());
+		assertArrayEquals(occlusion, read(mesh.getMeshData().getTextureBuffer(1)), 0);
+		assertEquals(2, mesh.getMeshData().getNumberOfUnits());
+		assertArrayEquals(WriteReadTest.readUVMap(teapot), WriteReadTest.readUVMap(mesh), 0);
+	}
+
+	private OpenCtmImporter createImporter() {
+		return new OpenCtmImporter().setAttributeMapping("Occlusion", 1);
+	}
+
+	private Mesh load(byte[] file) {
+		return createImporter().load(new StreamResource(new ByteArrayInputStream(file)));
+	}
+
+	private byte[] encode(MeshEncoder enc) throws Exception {
+		AttributeData[] uvMaps = {new AttributeData("", "", 10, WriteReadTest.readUVMap(teapot))};
+		AttributeData[] attributes = {
+				new AttributeData(OpenCtmImporter.COLOR_ATTRIBUTE, null, 10, colors),
+				new AttributeData("Curvature", null, 10, curvature),
+				new AttributeData("Occlusion", null, 10, occlusion)};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				WriteReadTest.readVertices(teapot), WriteReadTest.readNormals(teapot),
+				WriteReadTest.readIndices(teapot), uvMaps, attributes);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new CtmFileWriter(output, enc).encode(ctmMesh, "");
+		return output.toByteArray();
+	}
+
+	private float[] values(int seed) {
+		float[] values = new float[vertexCount * 4];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i * seed % 256) / 255f;
+		}
+		return values;
+	}
+
+	private static float[] read(FloatBuffer buffer) {
+		float[] values = new float[buffer.limit()];
+		buffer.rewind();
+		buffer.get(values);
+		return values;
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.ResourceLocator;
+import com.ardor3d.util.resource.ResourceSource;
+import com.ardor3d.util.resource.SimpleResourceLocator;
+
+/**
+ * This tests whether the batch importer loads all resources through the
+ * model locator of its importer, and whether cancelled loads free their
+ * pending slot once they no longer decode.
+ */
+public class BatchImportTest {
+
+	@Test
+	public void testLoadAll() throws Exception {
+		URL dir = new URL(getClass().getClassLoader().getResource(TestMeshes.RAW), ".");
+		OpenCtmImporter importer = new OpenCtmImporter().setModelLocator(new SimpleResourceLocator(dir));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<String> names = Arrays.asList(TestMeshes.RAW, TestMeshes.MG1, TestMeshes.MG2);
+			Map<String, Mesh> meshes = new OpenCtmBatchImporter(importer, executor, 1).loadAll(names);
+			
+			assertEquals(names, Arrays.asList(meshes.keySet().toArray()));
+			for (Mesh mesh : meshes.values()) {
+				assertEquals(WriteReadTest.readIndices(meshes.get(names.get(0))).length,
+						WriteReadTest.readIndices(mesh).length);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testCancelQueued() throws Exception {
+		URL dir = new URL(getClass().getClassLoader().getResource(TestMeshes.RAW), ".");
+		OpenCtmImporter importer = new OpenCtmImporter().setModelLocator(new SimpleResourceLocator(dir));
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// keeps the loads in the queue until they are cancelled
+			final CountDownLatch gate = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			OpenCtmBatchImporter batch = new OpenCtmBatchImporter(importer, executor, 2);
+			List<Future<Mesh>> queued = batch.submitAll(Arrays.asList(TestMeshes.RAW, TestMeshes.MG1));
+			for (Future<Mesh> future : queued) {
+				assertTrue(future.cancel(true));
+			}
+			gate.countDown();
+			
+			List<String> names = Arrays.asList(TestMeshes.ALL);
+			assertEquals(names.size(), batch.loadAll(names).size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testCancelRunning() throws Exception {
+		URL dir = new URL(getClass().getClassLoader().getResource(TestMeshes.RAW), ".");
+		final SimpleResourceLocator files = new SimpleResourceLocator(dir);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		// stands for a decode that can't be interrupted
+		OpenCtmImporter importer = new OpenCtmImporter().setModelLocator(new ResourceLocator() {
+			@Override
+			public ResourceSource locateResource(String resourceName) {
+				if (TestMeshes.RAW.equals(resourceName)) {
+					started.countDown();
+					boolean interrupted = false;
+					while (gate.getCount() > 0) {
+						try {
+							gate.await();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return files.locateResource(resourceName);
+			}
+		});
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final OpenCtmBatchImporter batch = new OpenCtmBatchImporter(importer, executor, 1);
+			Future<Mesh> running = batch.submitAll(Arrays.asList(TestMeshes.RAW)).get(0);
+			started.await();
+			assertTrue(running.cancel(true));
+			
+			final CountDownLatch submitted = new CountDownLatch(1);
+			Thread next = new Thread() {
+				@Override
+				public void run() {
+					try {
+						batch.submitAll(Arrays.asList(TestMeshes.MG1)).get(0).get();
+						submitted.countDown();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			next.start();
+			// the cancelled load is still decoding, so its slot stays taken
+			assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+			
+			gate.countDown();
+			assertTrue(submitted.await(5, TimeUnit.SECONDS));
+			next.join();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
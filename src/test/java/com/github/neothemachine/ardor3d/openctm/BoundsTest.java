@@ -0,0 +1,99 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ardor3d.bounding.BoundingBox;
+import com.ardor3d.bounding.BoundingSphere;
+import com.ardor3d.math.Vector3;
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether the bounds computed while decoding enclose all
+ * vertices and are as tight as the ones fitted by Ardor3D.
+ */
+public class BoundsTest {
+
+	@Test
+	public void testRAW() {
+		checkExact(new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW)));
+	}
+
+	@Test
+	public void testMappedRAW() {
+		checkExact(new OpenCtmImporter().setMemoryMapping(true).load(TestMeshes.resource(TestMeshes.RAW)));
+	}
+
+	@Test
+	public void testMG1() {
+		checkExact(new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG1)));
+	}
+
+	@Test
+	public void testMG2Grid() {
+		Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG2));
+		BoundingBox bound = (BoundingBox) mesh.getModelBound();
+		BoundingBox fitted = fit(mesh);
+		
+		// the grid is grown by the vertex precision
+		assertTrue(bound.getXExtent() >= fitted.getXExtent());
+		assertTrue(bound.getYExtent() >= fitted.getYExtent());
+		assertTrue(bound.getZExtent() >= fitted.getZExtent());
+		assertEquals(fitted.getXExtent(), bound.getXExtent(), fitted.getXExtent() * 0.01);
+		assertEquals(fitted.getYExtent(), bound.getYExtent(), fitted.getYExtent() * 0.01);
+		assertEquals(fitted.getZExtent(), bound.getZExtent(), fitted.getZExtent() * 0.01);
+		checkContains(mesh);
+	}
+
+	@Test
+	public void testSphere() {
+		Mesh mesh = new OpenCtmImporter().setSphereBounds(true).load(TestMeshes.resource(TestMeshes.MG1));
+		assertTrue(mesh.getModelBound() instanceof BoundingSphere);
+		checkContains(mesh);
+	}
+
+	@Test
+	public void testCachedBound() {
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(new CtmMeshCache(Long.MAX_VALUE));
+		Mesh first = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		Mesh second = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		assertNotSame(first.getModelBound(), second.getModelBound());
+		assertEquals(first.getModelBound().getCenter(), second.getModelBound().getCenter());
+	}
+
+	private void checkExact(Mesh mesh) {
+		BoundingBox bound = (BoundingBox) mesh.getModelBound();
+		BoundingBox fitted = fit(mesh);
+		assertEquals(fitted.getCenter().getX(), bound.getCenter().getX(), 1e-6);
+		assertEquals(fitted.getCenter().getY(), bound.getCenter().getY(), 1e-6);
+		assertEquals(fitted.getCenter().getZ(), bound.getCenter().getZ(), 1e-6);
+		assertEquals(fitted.getXExtent(), bound.getXExtent(), 1e-6);
+		assertEquals(fitted.getYExtent(), bound.getYExtent(), 1e-6);
+		assertEquals(fitted.getZExtent(), bound.getZExtent(), 1e-6);
+		checkContains(mesh);
+	}
+
+	private void checkContains(Mesh mesh) {
+		float[] vertices = WriteReadTest.readVertices(mesh);
+		Vector3 center = new Vector3(mesh.getModelBound().getCenter());
+		for (int i = 0; i < vertices.length; i += 3) {
+			Vector3 offset = new Vector3(vertices[i], vertices[i + 1], vertices[i + 2]).subtractLocal(center);
+			if (mesh.getModelBound() instanceof BoundingSphere) {
+				assertTrue(offset.length() <= ((BoundingSphere) mesh.getModelBound()).getRadius() + 1e-5);
+			} else {
+				BoundingBox box = (BoundingBox) mesh.getModelBound();
+				assertTrue(Math.abs(offset.getX()) <= box.getXExtent() + 1e-5);
+				assertTrue(Math.abs(offset.getY()) <= box.getYExtent() + 1e-5);
+				assertTrue(Math.abs(offset.getZ()) <= box.getZExtent() + 1e-5);
+			}
+		}
+	}
+
+	private static BoundingBox fit(Mesh mesh) {
+		BoundingBox fitted = new BoundingBox();
+		fitted.computeFromPoints(mesh.getMeshData().getVertexBuffer());
+		return fitted;
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.URLResourceSource;
+
+/**
+ * This tests whether released meshes give their buffers back to the pool
+ * and whether meshes that are never released are reported.
+ */
+public class BufferPoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSizeClasses() {
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		ByteBuffer small = pool.acquire(1);
+		assertEquals(4096, small.capacity());
+		assertEquals(1, small.limit());
+		ByteBuffer block = pool.acquire(5000);
+		assertEquals(8192, block.capacity());
+		assertEquals(5000, block.limit());
+		assertEquals(4096 + 8192, pool.getLeasedBytes());
+		
+		pool.giveBack(block);
+		assertSame(block, pool.acquire(6000));
+		assertEquals(1, pool.getHits());
+		assertEquals(2, pool.getMisses());
+	}
+
+	@Test
+	public void testRelease() {
+		for (String name : TestMeshes.ALL) {
+			DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+			OpenCtmImporter importer = new OpenCtmImporter().setBufferPool(pool);
+			Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(name));
+			
+			Mesh first = importer.load(TestMeshes.resource(name));
+			long allocated = pool.getAllocatedBytes();
+			assertTrue(allocated > 0);
+			assertEquals(allocated, pool.getLeasedBytes());
+			assertEquals(1, pool.getUnreleasedCount());
+			
+			assertTrue(pool.release(first));
+			assertFalse(pool.release(first));
+			assertNull(first.getMeshData().getVertexBuffer());
+			assertEquals(allocated, pool.getPooledBytes());
+			assertEquals(0, pool.getLeasedBytes());
+			
+			Mesh second = importer.load(TestMeshes.resource(name));
+			assertEquals(allocated, pool.getAllocatedBytes());
+			assertEquals(pool.getMisses(), pool.getHits());
+			assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(second), 0);
+			assertArrayEquals(WriteReadTest.readNormals(reference), WriteReadTest.readNormals(second), 0);
+			assertArrayEquals(WriteReadTest.readUVMap(reference), WriteReadTest.readUVMap(second), 0);
+			assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(second));
+		}
+	}
+
+	@Test
+	public void testNotPooled() {
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		Mesh cached = new OpenCtmImporter()
+			.setBufferPool(pool)
+			.setMeshCache(new CtmMeshCache(Long.MAX_VALUE))
+			.load(TestMeshes.resource(TestMeshes.RAW));
+		Mesh mapped = new OpenCtmImporter()
+			.setBufferPool(pool)
+			.setMemoryMapping(true)
+			.setCompactIndices(false)
+			.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertFalse(pool.release(cached));
+		assertEquals(0, pool.getAllocatedBytes());
+		assertTrue(pool.release(mapped));
+		assertEquals(0, pool.getLeasedBytes());
+	}
+
+	@Test
+	public void testFailedImport() throws Exception {
+		File file = this.folder.newFile("truncated.ctm");
+		try (InputStream input = getClass().getClassLoader().getResourceAsStream(TestMeshes.RAW);
+				OutputStream output = new FileOutputStream(file)) {
+			byte[] bytes = new byte[4096];
+			int read = input.read(bytes);
+			output.write(bytes, 0, read);
+		}
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		try {
+			new OpenCtmImporter().setBufferPool(pool).load(new URLResourceSource(file.toURI().toURL()));
+			fail();
+		} catch (RuntimeException e) {
+			// truncated
+		}
+		assertTrue(pool.getAllocatedBytes() > 0);
+		assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+		assertEquals(0, pool.getUnreleasedCount());
+	}
+
+	@Test
+	public void testLeakDetection() throws Exception {
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE).setLeakDetection(true);
+		OpenCtmImporter importer = new OpenCtmImporter().setBufferPool(pool);
+		pool.release(importer.load(TestMeshes.resource(TestMeshes.RAW)));
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			pool.checkLeaks();
+		}
+		assertEquals(1, pool.getLeakCount());
+		assertEquals(1, pool.getReleaseCount());
+		assertEquals(0, pool.getLeasedBytes());
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.ardor3d.bounding.BoundingBox;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.Node;
+import com.ardor3d.scenegraph.Spatial;
+
+/**
+ * This tests whether chunked meshes contain every triangle exactly once and
+ * stay within the triangle budget.
+ */
+public class ChunkTest {
+
+	@Test
+	public void testSequential() {
+		check(new OpenCtmImporter(), 100);
+	}
+
+	@Test
+	public void testParallel() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			check(new OpenCtmImporter().setDecodePool(pool), 100);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSmallMesh() {
+		Node node = new OpenCtmImporter().loadNode(TestMeshes.resource(TestMeshes.RAW), Integer.MAX_VALUE);
+		assertEquals(1, node.getNumberOfChildren());
+	}
+
+	private void check(OpenCtmImporter importer, int maxTriangles) {
+		Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW));
+		Node node = importer.loadNode(TestMeshes.resource(TestMeshes.RAW), maxTriangles);
+		
+		assertTrue(node.getNumberOfChildren() > 1);
+		List<String> expected = TestMeshes.triangles(mesh);
+		List<String> actual = new ArrayList<String>();
+		for (Spatial child : node.getChildren()) {
+			Mesh chunk = (Mesh) child;
+			List<String> chunkTriangles = TestMeshes.triangles(chunk);
+			assertTrue(chunkTriangles.size() <= maxTriangles);
+			assertTrue(chunk.getMeshData().getVertexCount() <= chunkTriangles.size() * 3);
+			checkBound(chunk);
+			actual.addAll(chunkTriangles);
+		}
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+	}
+
+	private static void checkBound(Mesh chunk) {
+		BoundingBox bound = (BoundingBox) chunk.getModelBound();
+		BoundingBox fitted = new BoundingBox();
+		fitted.computeFromPoints(chunk.getMeshData().getVertexBuffer());
+		assertEquals(fitted.getXExtent(), bound.getXExtent(), 1e-6);
+		assertEquals(fitted.getYExtent(), bound.getYExtent(), 1e-6);
+		assertEquals(fitted.getZExtent(), bound.getZExtent(), 1e-6);
+	}
+
+}
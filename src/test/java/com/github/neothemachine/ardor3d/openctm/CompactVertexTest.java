@@ -0,0 +1,139 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.NormalFormat;
+import com.github.neothemachine.ardor3d.openctm.CompactVertexFormat.TextureFormat;
+
+/**
+ * This tests whether compact vertex attributes decode to the float ones
+ * within the reported error.
+ */
+public class CompactVertexTest {
+
+	@Test
+	public void testHalfFloatConversion() {
+		float[] values = {0, -0f, 1, -1, 0.5f, 0.1f, 65504, 1e-7f, 6.1e-5f, -3.14159f};
+		for (float value : values) {
+			float decoded = VertexQuantizer.fromHalf(VertexQuantizer.toHalf(value));
+			assertEquals(value, decoded, Math.max(Math.abs(value) / 2048, 1f / (1 << 25)));
+		}
+		assertEquals(65504, VertexQuantizer.fromHalf(VertexQuantizer.toHalf(1e6f)), 0);
+		assertTrue(Float.isNaN(VertexQuantizer.fromHalf(VertexQuantizer.toHalf(Float.NaN))));
+	}
+
+	@Test
+	public void testCompactAttributes() {
+		Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW));
+		float[] vertices = WriteReadTest.readVertices(reference);
+		float[] normals = WriteReadTest.readNormals(reference);
+		float[] uvMap = WriteReadTest.readUVMap(reference);
+		
+		OpenCtmImporter importer = new OpenCtmImporter().setCompactVertexFormat(
+				new CompactVertexFormat()
+					.setNormalFormat(NormalFormat.BYTE)
+					.setTextureFormat(TextureFormat.HALF_FLOAT)
+					.setQuantizedPositions(true));
+		Mesh mesh = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		CompactVertexData data = CompactVertexData.of(mesh);
+		
+		assertNotNull(data);
+		assertNull(mesh.getMeshData().getVertexCoords());
+		assertNull(mesh.getMeshData().getNormalCoords());
+		assertNull(mesh.getMeshData().getTextureCoords(0));
+		assertNotNull(mesh.getModelBound());
+		
+		ShortBuffer positions = data.getPositions();
+		for (int i = 0; i < vertices.length; i++) {
+			float decoded = (positions.get(i) & 0xffff) * data.getPositionScale()[i % 3]
+					+ data.getPositionOffset()[i % 3];
+			assertEquals(vertices[i], decoded, data.getPositionError() * 1.001f);
+		}
+		
+		ByteBuffer packedNormals = (ByteBuffer) data.getNormals();
+		assertTrue(data.getNormalError() <= 0.5f / 127 + 1e-6f);
+		for (int i = 0; i < normals.length; i++) {
+			assertEquals(normals[i], packedNormals.get(i) / 127f, data.getNormalError() * 1.001f);
+		}
+		
+		ShortBuffer halfs = data.getTextureCoords(0);
+		for (int i = 0; i < uvMap.length; i++) {
+			assertEquals(uvMap[i], VertexQuantizer.fromHalf(halfs.get(i)), data.getTextureError(0));
+		}
+	}
+	
+	@Test
+	public void testUnsignedShortTextureCoords() {
+		Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG2));
+		float[] uvMap = WriteReadTest.readUVMap(reference);
+		
+		OpenCtmImporter importer = new OpenCtmImporter().setCompactVertexFormat(
+				new CompactVertexFormat().setTextureFormat(TextureFormat.UNSIGNED_SHORT));
+		Mesh mesh = importer.load(TestMeshes.resource(TestMeshes.MG2));
+		CompactVertexData data = CompactVertexData.of(mesh);
+		
+		assertNotNull(mesh.getMeshData().getVertexCoords());
+		assertNotNull(mesh.getMeshData().getNormalCoords());
+		assertNull(data.getNormals());
+		
+		ShortBuffer coords = data.getTextureCoords(0);
+		for (int i = 0; i < uvMap.length; i++) {
+			float decoded = (coords.get(i) & 0xffff) * data.getTextureScale(0)[i % 2]
+					+ data.getTextureOffset(0)[i % 2];
+			assertEquals(uvMap[i], decoded, data.getTextureError(0) * 1.001f);
+		}
+	}
+
+	@Test
+	public void testBufferPool() {
+		CompactVertexFormat format = new CompactVertexFormat()
+			.setNormalFormat(NormalFormat.BYTE)
+			.setTextureFormat(TextureFormat.HALF_FLOAT)
+			.setQuantizedPositions(true);
+		DirectBufferPool floats = new DirectBufferPool(Long.MAX_VALUE);
+		new OpenCtmImporter().setBufferPool(floats).load(TestMeshes.resource(TestMeshes.RAW));
+		
+		// the float buffers go back to the pool as soon as they are replaced
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		Mesh mesh = new OpenCtmImporter().setBufferPool(pool).setCompactVertexFormat(format)
+			.load(TestMeshes.resource(TestMeshes.RAW));
+		assertTrue(pool.getPooledBytes() > 0);
+		assertEquals(pool.getAllocatedBytes(), pool.getLeasedBytes() + pool.getPooledBytes());
+		assertTrue(pool.getLeasedBytes() < floats.getLeasedBytes());
+		assertTrue(pool.release(mesh));
+		assertEquals(0, pool.getLeasedBytes());
+		
+		// unless a listener was handed them
+		DirectBufferPool published = new DirectBufferPool(Long.MAX_VALUE);
+		new OpenCtmImporter().setBufferPool(published).setCompactVertexFormat(format)
+			.load(TestMeshes.resource(TestMeshes.RAW), new CtmImportListener() {
+				@Override
+				public void stageCompleted(Mesh mesh, ImportStage stage, int index) {
+				}
+			});
+		assertEquals(0, published.getPooledBytes());
+		assertTrue(published.getLeasedBytes() > floats.getLeasedBytes());
+	}
+
+	@Test
+	public void testFormatCopied() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		CompactVertexFormat format = new CompactVertexFormat().setNormalFormat(NormalFormat.BYTE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache).setCompactVertexFormat(format);
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		// changing the format afterwards affects neither the import nor the key
+		format.setNormalFormat(NormalFormat.SHORT);
+		Mesh mesh = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertTrue(CompactVertexData.of(mesh).getNormals() instanceof ByteBuffer);
+		assertEquals(1, cache.getHits());
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.io.CtmFileReader;
+
+/**
+ * This tests whether repeated loads reuse the scratch arrays of the thread
+ * instead of allocating new ones, using the allocation counter of the JVM.
+ * JOpenCTM's decoder allocates its own arrays, so for MG2 files only the
+ * allocations on top of it are tested, including the packed sections that
+ * are handed to it.
+ */
+public class DecodeArenaTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReuse() {
+		DecodeArena arena = new DecodeArena();
+		int[] ints = arena.ints(DecodeArena.INDICES, 100);
+		assertSame(ints, arena.ints(DecodeArena.INDICES, 50));
+		assertNotSame(ints, arena.ints(DecodeArena.INDICES, 101));
+		// grows by at least half
+		assertEquals(150, arena.ints(DecodeArena.INDICES, 101).length);
+		assertEquals(150 * 4, arena.getCapacity());
+		
+		int[] cleared = arena.clearedInts(DecodeArena.INDICES, 10);
+		cleared[5] = 7;
+		assertEquals(0, arena.clearedInts(DecodeArena.INDICES, 10)[5]);
+		
+		byte[] bytes = arena.bytes(DecodeArena.SECTIONS, 4, 0);
+		bytes[3] = 7;
+		// the kept values survive growing
+		assertEquals(7, arena.bytes(DecodeArena.SECTIONS, 1000, 4)[3]);
+		
+		arena.clear();
+		assertEquals(0, arena.getCapacity());
+	}
+
+	@Test
+	public void testSteadyStateAllocation() throws Exception {
+		com.sun.management.ThreadMXBean allocations = TestMeshes.allocationCounter();
+		Assume.assumeNotNull(allocations);
+		
+		File file = this.folder.newFile("sphere.ctm");
+		new OpenCtmExporter().save(new Sphere("sphere", 256, 256, 1), file, new RawEncoder());
+		URLResourceSource resource = new URLResourceSource(file.toURI().toURL());
+		OpenCtmImporter importer = new OpenCtmImporter()
+			.setVertexCacheOptimizer(new VertexCacheOptimizer())
+			.setReadBufferPool(new ReadBufferPool(ReadBufferPool.DEFAULT_BLOCK_SIZE, 1));
+		
+		OpenCtmImporter.clearScratchBuffers();
+		for (int i = 0; i < 3; i++) {
+			importer.load(resource);
+		}
+		DecodeArena arena = DecodeArena.get();
+		int growCount = arena.getGrowCount();
+		
+		long before = TestMeshes.allocatedBytes(allocations);
+		int loads = 5;
+		for (int i = 0; i < loads; i++) {
+			importer.load(resource);
+		}
+		long perLoad = (TestMeshes.allocatedBytes(allocations) - before) / loads;
+		
+		assertEquals(growCount, arena.getGrowCount());
+		// without the arena, each load would allocate all of its capacity
+		assertTrue(perLoad + " bytes per load, scratch " + arena.getCapacity(),
+				perLoad < arena.getCapacity() / 20);
+	}
+
+	@Test
+	public void testDecodedAllocation() throws Exception {
+		com.sun.management.ThreadMXBean allocations = TestMeshes.allocationCounter();
+		Assume.assumeNotNull(allocations);
+		
+		File file = this.folder.newFile("sphere.ctm");
+		new OpenCtmExporter().save(new Sphere("sphere", 256, 256, 1), file, new MG2Encoder());
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		URLResourceSource resource = new URLResourceSource(file.toURI().toURL());
+		OpenCtmImporter importer = new OpenCtmImporter()
+			.setReadBufferPool(new ReadBufferPool(ReadBufferPool.DEFAULT_BLOCK_SIZE, 1));
+		for (int i = 0; i < 3; i++) {
+			new CtmFileReader(new ByteArrayInputStream(bytes)).decode();
+			importer.load(resource);
+		}
+		
+		int loads = 5;
+		long before = TestMeshes.allocatedBytes(allocations);
+		for (int i = 0; i < loads; i++) {
+			new CtmFileReader(new ByteArrayInputStream(bytes)).decode();
+		}
+		long perDecode = (TestMeshes.allocatedBytes(allocations) - before) / loads;
+		before = TestMeshes.allocatedBytes(allocations);
+		for (int i = 0; i < loads; i++) {
+			importer.load(resource);
+		}
+		long perLoad = (TestMeshes.allocatedBytes(allocations) - before) / loads;
+		
+		// the output buffers are direct, so the heap is left to the decoder
+		assertTrue(perLoad + " bytes per load, " + perDecode + " per decode",
+				perLoad < perDecode + perDecode / 10);
+	}
+
+	@Test
+	public void testSkippedSectionsReuse() throws Exception {
+		File file = this.folder.newFile("sphere.ctm");
+		new OpenCtmExporter().save(new Sphere("sphere", 256, 256, 1), file, new MG2Encoder());
+		URLResourceSource resource = new URLResourceSource(file.toURI().toURL());
+		// leaving out the normals makes the importer copy the other sections
+		OpenCtmImporter importer = new OpenCtmImporter()
+			.setImportOptions(new CtmImportOptions().setNormals(false))
+			.setReadBufferPool(new ReadBufferPool(ReadBufferPool.DEFAULT_BLOCK_SIZE, 1));
+		
+		OpenCtmImporter.clearScratchBuffers();
+		for (int i = 0; i < 3; i++) {
+			importer.load(resource);
+		}
+		DecodeArena arena = DecodeArena.get();
+		int growCount = arena.getGrowCount();
+		long capacity = arena.getCapacity();
+		assertTrue(capacity > 0);
+		
+		for (int i = 0; i < 5; i++) {
+			importer.load(resource);
+		}
+		assertEquals(growCount, arena.getGrowCount());
+		assertEquals(capacity, arena.getCapacity());
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.geom.BufferUtils;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileReader;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * This tests whether RAW files are decoded straight into direct buffers, i.e.
+ * without first decoding the whole mesh into heap arrays.
+ * 
+ * The heap allocated by the loading thread is used as an upper bound of the
+ * peak heap usage of both paths.
+ */
+public class DirectDecodeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRawHeapUsage() throws Exception {
+		com.sun.management.ThreadMXBean allocations = TestMeshes.allocationCounter();
+		Assume.assumeNotNull(allocations);
+		byte[] file = writeRaw(new Sphere("Sphere", 256, 256, 1));
+		
+		// warm up both paths, so that class loading doesn't count
+		loadLegacy(file);
+		load(file);
+		
+		long start = TestMeshes.allocatedBytes(allocations);
+		Mesh legacy = loadLegacy(file);
+		long legacyBytes = TestMeshes.allocatedBytes(allocations) - start;
+		
+		start = TestMeshes.allocatedBytes(allocations);
+		Mesh direct = load(file);
+		long directBytes = TestMeshes.allocatedBytes(allocations) - start;
+		
+		assertArrayEquals(WriteReadTest.readVertices(legacy), WriteReadTest.readVertices(direct), Float.MIN_VALUE);
+		assertArrayEquals(WriteReadTest.readIndices(legacy), WriteReadTest.readIndices(direct));
+		
+		// the legacy path holds the whole mesh on the heap once
+		assertTrue("legacy " + legacyBytes + ", direct " + directBytes, directBytes * 4 < legacyBytes);
+		assertTrue("direct " + directBytes + ", file " + file.length, directBytes < file.length / 4);
+	}
+	
+	@Test
+	public void testInvalidIndices() throws Exception {
+		int vertexCount = new OpenCtmImporter().probe(TestMeshes.resource(TestMeshes.RAW)).getVertexCount();
+		for (int index : new int[] {vertexCount, -1}) {
+			File file = writeCorrupt(index);
+			URLResourceSource resource = new URLResourceSource(file.toURI().toURL());
+			// narrowed, copied and mapped indices
+			checkInvalid(new OpenCtmImporter(), resource);
+			checkInvalid(new OpenCtmImporter().setCompactIndices(false), resource);
+			checkInvalid(new OpenCtmImporter().setCompactIndices(false).setMemoryMapping(true), resource);
+		}
+	}
+	
+	private void checkInvalid(OpenCtmImporter importer, URLResourceSource resource) {
+		try {
+			importer.load(resource);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertTrue(e.getCause().getMessage().startsWith("Invalid index"));
+		}
+	}
+	
+	/**
+	 * @return the RAW teapot with its last index replaced
+	 */
+	private File writeCorrupt(int index) throws Exception {
+		byte[] bytes;
+		try (InputStream input = TestMeshes.resource(TestMeshes.RAW).openStream()) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] block = new byte[4096];
+			int read;
+			while ((read = input.read(block)) > 0) {
+				output.write(block, 0, read);
+			}
+			bytes = output.toByteArray();
+		}
+		ByteBuffer view = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int vert = indexOf(bytes, "VERT");
+		view.putInt(vert - 4, index);
+		
+		File file = this.folder.newFile();
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+	
+	private static int indexOf(byte[] bytes, String tag) {
+		byte[] pattern = tag.getBytes();
+		outer: for (int i = 0; i <= bytes.length - pattern.length; i++) {
+			for (int k = 0; k < pattern.length; k++) {
+				if (bytes[i + k] != pattern[k]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		throw new AssertionError(tag);
+	}
+	
+	private byte[] writeRaw(Mesh mesh) throws Exception {
+		AttributeData[] uvMaps = {new AttributeData("", "", 10, WriteReadTest.readUVMap(mesh))};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				WriteReadTest.readVertices(mesh), WriteReadTest.readNormals(mesh),
+				WriteReadTest.readIndices(mesh), uvMaps, new AttributeData[0]);
+		
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new CtmFileWriter(output, new RawEncoder()).encode(ctmMesh, "");
+		return output.toByteArray();
+	}
+	
+	private Mesh load(byte[] file) {
+		return new OpenCtmImporter().load(new StreamResource(new ByteArrayInputStream(file)));
+	}
+	
+	/**
+	 * The way OpenCtmImporter used to decode files. 
+	 */
+	private Mesh loadLegacy(byte[] file) throws Exception {
+		darwin.jopenctm.data.Mesh ctmMesh = new CtmFileReader(new ByteArrayInputStream(file)).decode();
+		MeshData meshData = new MeshData();
+		meshData.setIndexBuffer(BufferUtils.createIntBuffer(ctmMesh.indices));
+		meshData.setVertexBuffer(BufferUtils.createFloatBuffer(ctmMesh.vertices));
+		meshData.setNormalBuffer(BufferUtils.createFloatBuffer(ctmMesh.normals));
+		meshData.setTextureBuffer(BufferUtils.createFloatBuffer(ctmMesh.texcoordinates[0].values), 0);
+		Mesh mesh = new Mesh();
+		mesh.setMeshData(meshData);
+		return mesh;
+	}
+	
+}
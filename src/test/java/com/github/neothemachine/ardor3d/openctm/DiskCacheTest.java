@@ -0,0 +1,73 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether decoded MG2 meshes are read back correctly from the
+ * disk cache and whether broken entries are replaced.
+ */
+public class DiskCacheTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWarmLoad() throws Exception {
+		OpenCtmImporter importer = new OpenCtmImporter().setDiskCache(new CtmDiskCache(folder.getRoot()));
+		
+		Mesh cold = importer.load(TestMeshes.resource(TestMeshes.MG2));
+		assertEquals(1, folder.getRoot().listFiles().length);
+		Mesh warm = importer.load(TestMeshes.resource(TestMeshes.MG2));
+		
+		assertArrayEquals(WriteReadTest.readVertices(cold), WriteReadTest.readVertices(warm), 0);
+		assertArrayEquals(WriteReadTest.readNormals(cold), WriteReadTest.readNormals(warm), 0);
+		assertArrayEquals(WriteReadTest.readUVMap(cold), WriteReadTest.readUVMap(warm), 0);
+		assertArrayEquals(WriteReadTest.readIndices(cold), WriteReadTest.readIndices(warm));
+	}
+	
+	@Test
+	public void testTruncatedEntry() throws Exception {
+		OpenCtmImporter importer = new OpenCtmImporter().setDiskCache(new CtmDiskCache(folder.getRoot()));
+		Mesh cold = importer.load(TestMeshes.resource(TestMeshes.MG1));
+		
+		File entry = folder.getRoot().listFiles()[0];
+		long length = entry.length();
+		RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+		raf.setLength(length - 1);
+		raf.close();
+		
+		Mesh reloaded = importer.load(TestMeshes.resource(TestMeshes.MG1));
+		assertArrayEquals(WriteReadTest.readVertices(cold), WriteReadTest.readVertices(reloaded), 0);
+		assertEquals(1, folder.getRoot().listFiles().length);
+		assertEquals(length, folder.getRoot().listFiles()[0].length());
+	}
+	
+	@Test
+	public void testBrokenEntry() throws Exception {
+		CtmDiskCache cache = new CtmDiskCache(folder.getRoot()).setVerifyChecksums(true);
+		OpenCtmImporter importer = new OpenCtmImporter().setDiskCache(cache);
+		Mesh cold = importer.load(TestMeshes.resource(TestMeshes.MG1));
+		
+		File entry = folder.getRoot().listFiles()[0];
+		RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+		raf.seek(raf.length() - 1);
+		int last = raf.read();
+		raf.seek(raf.length() - 1);
+		raf.write(last ^ 0xff);
+		raf.close();
+		
+		Mesh reloaded = importer.load(TestMeshes.resource(TestMeshes.MG1));
+		assertArrayEquals(WriteReadTest.readVertices(cold), WriteReadTest.readVertices(reloaded), 0);
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+	
+}
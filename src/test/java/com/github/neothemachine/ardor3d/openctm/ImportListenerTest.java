@@ -0,0 +1,81 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ardor3d.bounding.BoundingVolume;
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether the import stages are published in order and with the
+ * mesh that is returned in the end.
+ */
+public class ImportListenerTest {
+	
+	private static final List<ImportStage> ALL_STAGES = Arrays.asList(ImportStage.HEADER,
+			ImportStage.INDICES, ImportStage.VERTICES, ImportStage.NORMALS, ImportStage.UV_MAP);
+
+	@Test
+	public void testStreamed() {
+		testStages(new OpenCtmImporter(), TestMeshes.RAW);
+	}
+	
+	@Test
+	public void testMapped() {
+		testStages(new OpenCtmImporter().setMemoryMapping(true), TestMeshes.RAW);
+	}
+	
+	@Test
+	public void testDecoded() {
+		testStages(new OpenCtmImporter(), TestMeshes.MG2);
+	}
+	
+	@Test
+	public void testGridBound() {
+		final List<BoundingVolume> bounds = new ArrayList<BoundingVolume>();
+		Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG2),
+				new CtmImportListener() {
+					@Override
+					public void stageCompleted(Mesh mesh, ImportStage stage, int index) {
+						if (stage == ImportStage.HEADER) {
+							bounds.add(mesh.getModelBound());
+						}
+					}
+				});
+		
+		// MG2 files know their bounds before anything is decoded
+		assertNotNull(bounds.get(0));
+		assertSame(mesh.getModelBound(), bounds.get(0));
+	}
+	
+	private void testStages(OpenCtmImporter importer, String name) {
+		final List<ImportStage> stages = new ArrayList<ImportStage>();
+		final List<Mesh> meshes = new ArrayList<Mesh>();
+		
+		Mesh mesh = importer.load(TestMeshes.resource(name),
+				new CtmImportListener() {
+					@Override
+					public void stageCompleted(Mesh mesh, ImportStage stage, int index) {
+						if (stage == ImportStage.VERTICES) {
+							assertEquals(mesh.getMeshData().getVertexBuffer().limit(), 
+									mesh.getMeshData().getVertexCount() * 3);
+							// the bounding box can be shown with the vertices
+							assertNotNull(mesh.getModelBound());
+						}
+						stages.add(stage);
+						meshes.add(mesh);
+					}
+				});
+		
+		assertEquals(ALL_STAGES, stages);
+		for (Mesh published : meshes) {
+			assertSame(mesh, published);
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.FloatBuffer;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * This tests whether skipped sections get no buffers while the others are
+ * imported as usual.
+ */
+public class ImportOptionsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testGeometryOnly() {
+		for (String name : TestMeshes.ALL) {
+			for (boolean mapped : new boolean[] {false, true}) {
+				Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(name));
+				Mesh mesh = new OpenCtmImporter()
+					.setMemoryMapping(mapped)
+					.setImportOptions(CtmImportOptions.geometryOnly())
+					.load(TestMeshes.resource(name));
+				
+				assertNull(mesh.getMeshData().getNormalCoords());
+				assertNull(mesh.getMeshData().getTextureCoords(0));
+				assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(mesh), 0);
+				assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(mesh));
+				assertNotNull(mesh.getModelBound());
+			}
+		}
+	}
+
+	@Test
+	public void testSkipVertices() {
+		for (String name : TestMeshes.ALL) {
+			Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(name));
+			Mesh mesh = new OpenCtmImporter()
+				.setImportOptions(new CtmImportOptions().setVertices(false).setIndices(false))
+				.load(TestMeshes.resource(name));
+			
+			assertNull(mesh.getMeshData().getVertexCoords());
+			assertNull(mesh.getMeshData().getIndices());
+			assertArrayEquals(WriteReadTest.readNormals(reference), WriteReadTest.readNormals(mesh), 0);
+			assertArrayEquals(WriteReadTest.readUVMap(reference), WriteReadTest.readUVMap(mesh), 0);
+		}
+	}
+
+	@Test
+	public void testCachedSeparately() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache);
+		
+		Mesh full = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		importer.setImportOptions(CtmImportOptions.geometryOnly());
+		Mesh geometry = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertNotNull(full.getMeshData().getNormalCoords());
+		assertNull(geometry.getMeshData().getNormalCoords());
+		assertEquals(2, cache.getMeshCount());
+	}
+
+	@Test
+	public void testOptionsCopied() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		CtmImportOptions options = new CtmImportOptions();
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache).setImportOptions(options);
+		
+		Mesh full = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		// changing the options afterwards neither affects the import nor
+		// the cache key of the meshes already cached
+		options.setNormals(false);
+		Mesh again = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertNotNull(full.getMeshData().getNormalCoords());
+		assertNotNull(again.getMeshData().getNormalCoords());
+		assertEquals(1, cache.getMeshCount());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testSkipFirstUVMap() throws Exception {
+		Mesh teapot = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW));
+		float[] uvMap = WriteReadTest.readUVMap(teapot);
+		float[] flipped = new float[uvMap.length];
+		for (int i = 0; i < uvMap.length; i++) {
+			flipped[i] = 1 - uvMap[i];
+		}
+		AttributeData[] uvMaps = {new AttributeData("first", "", 1f / 4096, uvMap),
+				new AttributeData("second", "", 1f / 4096, flipped)};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				WriteReadTest.readVertices(teapot), WriteReadTest.readNormals(teapot),
+				WriteReadTest.readIndices(teapot), uvMaps, new AttributeData[0]);
+		
+		for (MeshEncoder encoder : new MeshEncoder[] {new MG1Encoder(), new MG2Encoder()}) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new CtmFileWriter(output, encoder).encode(ctmMesh, "");
+			Mesh reference = new OpenCtmImporter().load(
+					new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			Mesh mesh = new OpenCtmImporter()
+				.setImportOptions(new CtmImportOptions().setUVMap(0, false).setNormals(false))
+				.load(new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			
+			// the second map keeps its unit
+			assertNull(mesh.getMeshData().getTextureCoords(0));
+			assertNull(mesh.getMeshData().getNormalCoords());
+			assertArrayEquals(read(reference.getMeshData().getTextureBuffer(1)),
+					read(mesh.getMeshData().getTextureBuffer(1)), 0);
+			assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(mesh), 0);
+			assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(mesh));
+		}
+	}
+
+	@Test
+	public void testSkippedNotDecoded() throws Exception {
+		com.sun.management.ThreadMXBean allocations = TestMeshes.allocationCounter();
+		Assume.assumeNotNull(allocations);
+		
+		File file = this.folder.newFile("sphere.ctm");
+		Sphere sphere = new Sphere("sphere", 256, 256, 1);
+		new OpenCtmExporter().save(sphere, file, new MG2Encoder());
+		URLResourceSource resource = new URLResourceSource(file.toURI().toURL());
+		OpenCtmImporter full = new OpenCtmImporter();
+		OpenCtmImporter geometry = new OpenCtmImporter()
+			.setImportOptions(CtmImportOptions.geometryOnly());
+		full.load(resource);
+		geometry.load(resource);
+		
+		long before = TestMeshes.allocatedBytes(allocations);
+		full.load(resource);
+		long fullBytes = TestMeshes.allocatedBytes(allocations) - before;
+		before = TestMeshes.allocatedBytes(allocations);
+		geometry.load(resource);
+		long geometryBytes = TestMeshes.allocatedBytes(allocations) - before;
+		
+		// JOpenCTM never decoded the normals and the UV map
+		long skipped = sphere.getMeshData().getVertexCount() * 5L * 4L;
+		assertTrue(geometryBytes + " bytes instead of " + fullBytes,
+				fullBytes - geometryBytes >= skipped);
+	}
+
+	private static float[] read(FloatBuffer buffer) {
+		float[] values = new float[buffer.limit()];
+		buffer.rewind();
+		buffer.get(values);
+		return values;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether interleaved vertex attributes match the separate ones.
+ */
+public class InterleavedVertexTest {
+
+	@Test
+	public void testInterleavedAttributes() {
+		for (String name : TestMeshes.ALL) {
+			Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(name));
+			float[] vertices = WriteReadTest.readVertices(reference);
+			float[] normals = WriteReadTest.readNormals(reference);
+			float[] uvMap = WriteReadTest.readUVMap(reference);
+			
+			Mesh mesh = new OpenCtmImporter().setInterleavedVertices(true).load(TestMeshes.resource(name));
+			InterleavedVertexData data = InterleavedVertexData.of(mesh);
+			
+			assertNotNull(data);
+			assertNull(mesh.getMeshData().getVertexCoords());
+			assertNull(mesh.getMeshData().getNormalCoords());
+			assertNull(mesh.getMeshData().getTextureCoords(0));
+			assertNotNull(mesh.getModelBound());
+			assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(mesh));
+			
+			assertEquals(8, data.getStride());
+			assertEquals(vertices.length / 3, data.getVertexCount());
+			assertEquals(0, data.getPositionOffset());
+			assertEquals(3, data.getNormalOffset());
+			assertEquals(-1, data.getColorOffset());
+			assertEquals(6, data.getTextureOffset(0));
+			assertEquals(2, data.getTextureSize(0));
+			
+			FloatBuffer buffer = data.getBuffer();
+			assertEquals(data.getVertexCount() * data.getStride(), buffer.limit());
+			for (int v = 0; v < data.getVertexCount(); v++) {
+				int base = v * data.getStride();
+				for (int c = 0; c < 3; c++) {
+					assertEquals(vertices[v * 3 + c], buffer.get(base + data.getPositionOffset() + c), 0);
+					assertEquals(normals[v * 3 + c], buffer.get(base + data.getNormalOffset() + c), 0);
+				}
+				for (int c = 0; c < 2; c++) {
+					assertEquals(uvMap[v * 2 + c], buffer.get(base + data.getTextureOffset(0) + c), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSkippedSections() {
+		Mesh mesh = new OpenCtmImporter()
+			.setInterleavedVertices(true)
+			.setImportOptions(CtmImportOptions.geometryOnly())
+			.load(TestMeshes.resource(TestMeshes.RAW));
+		InterleavedVertexData data = InterleavedVertexData.of(mesh);
+		
+		assertEquals(3, data.getStride());
+		assertEquals(0, data.getPositionOffset());
+		assertEquals(-1, data.getNormalOffset());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCompactFormat() {
+		new OpenCtmImporter()
+			.setInterleavedVertices(true)
+			.setCompactVertexFormat(new CompactVertexFormat().setQuantizedPositions(true))
+			.load(TestMeshes.resource(TestMeshes.RAW));
+	}
+
+	@Test
+	public void testRelease() {
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		Mesh mesh = new OpenCtmImporter()
+			.setInterleavedVertices(true)
+			.setBufferPool(pool)
+			.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertTrue(MeshBuffers.byteSize(mesh) > MeshBuffers.byteSize(mesh.getMeshData()));
+		// the separate buffers went back to the pool when they were replaced
+		assertTrue(pool.getPooledBytes() > 0);
+		assertEquals(pool.getAllocatedBytes(), pool.getLeasedBytes() + pool.getPooledBytes());
+		assertTrue(pool.release(mesh));
+		assertNull(InterleavedVertexData.of(mesh));
+		assertEquals(0, pool.getLeasedBytes());
+	}
+
+}
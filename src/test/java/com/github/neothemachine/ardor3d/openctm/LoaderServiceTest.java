@@ -0,0 +1,141 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether identical requests in flight share one decode while
+ * every caller still gets a mesh of its own.
+ */
+public class LoaderServiceTest {
+
+	private ExecutorService executor;
+	private CountDownLatch blocked;
+
+	@Before
+	public void setUp() {
+		this.executor = Executors.newSingleThreadExecutor();
+		this.blocked = new CountDownLatch(1);
+		// keeps the requests in flight until the test releases the worker
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					LoaderServiceTest.this.blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		this.blocked.countDown();
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void testDeduplicated() throws Exception {
+		CtmLoaderService service = new CtmLoaderService(new OpenCtmImporter(), this.executor);
+		Future<Mesh> first = service.submit(TestMeshes.resource(TestMeshes.MG2));
+		Future<Mesh> second = service.submit(TestMeshes.resource(TestMeshes.MG2));
+		Future<Mesh> other = service.submit(TestMeshes.resource(TestMeshes.RAW));
+		assertEquals(2, service.getInFlightCount());
+		assertEquals(1, service.getDeduplicatedCount());
+		
+		this.blocked.countDown();
+		Mesh a = first.get();
+		Mesh b = second.get();
+		assertNotSame(a, b);
+		assertSame(a, first.get());
+		assertSame(a.getMeshData().getVertexBuffer(), b.getMeshData().getVertexBuffer());
+		assertNotSame(a.getMeshData().getVertexBuffer(), other.get().getMeshData().getVertexBuffer());
+		assertEquals(0, service.getInFlightCount());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		CtmLoaderService service = new CtmLoaderService(new OpenCtmImporter(), this.executor);
+		Future<Mesh> first = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		Future<Mesh> second = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		
+		// the decode continues for the other caller
+		assertTrue(first.cancel(true));
+		assertTrue(first.isCancelled());
+		assertFalse(second.isDone());
+		assertEquals(1, service.getInFlightCount());
+		
+		// the last caller cancels the decode, later requests start a new one
+		assertTrue(second.cancel(true));
+		assertEquals(0, service.getInFlightCount());
+		Future<Mesh> third = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		assertEquals(1, service.getDeduplicatedCount());
+		
+		this.blocked.countDown();
+		assertNotNull(third.get().getMeshData().getVertexBuffer());
+		try {
+			second.get();
+			fail();
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCanLoad() {
+		CtmLoaderService service = new CtmLoaderService(new OpenCtmImporter(), this.executor);
+		assertTrue(service.canLoad("models/teapot.CTM"));
+		assertFalse(service.canLoad("models/teapot.obj"));
+	}
+
+	@Test
+	public void testBufferPool() throws Exception {
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		CtmLoaderService service = new CtmLoaderService(
+				new OpenCtmImporter().setBufferPool(pool), this.executor);
+		Future<Mesh> first = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		Future<Mesh> second = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		Future<Mesh> cancelled = service.submit(TestMeshes.resource(TestMeshes.MG1));
+		assertTrue(cancelled.cancel(false));
+		
+		this.blocked.countDown();
+		Mesh a = first.get();
+		Mesh b = second.get();
+		long leased = pool.getLeasedBytes();
+		assertTrue(leased > 0);
+		// only the meshes of the callers are left
+		assertEquals(2, pool.getUnreleasedCount());
+		
+		assertTrue(pool.release(a));
+		assertFalse(pool.release(a));
+		assertEquals(leased, pool.getLeasedBytes());
+		assertEquals(0, pool.getPooledBytes());
+		// the other mesh keeps its buffers
+		Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG1));
+		assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(b), 0);
+		
+		assertTrue(pool.release(b));
+		assertEquals(0, pool.getLeasedBytes());
+		assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+		assertEquals(0, pool.getUnreleasedCount());
+		
+		// a single caller releases the memory on its own
+		Mesh c = service.load(TestMeshes.resource(TestMeshes.MG1));
+		assertEquals(pool.getAllocatedBytes(), pool.getLeasedBytes());
+		assertTrue(pool.release(c));
+		assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+
+import darwin.jopenctm.compression.RawEncoder;
+
+/**
+ * This tests whether the levels of detail shrink as configured, are
+ * deterministic and survive a round trip through CTM files.
+ */
+public class LodTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLevels() {
+		Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW));
+		int triangles = WriteReadTest.readIndices(mesh).length / 3;
+		
+		CtmLodNode node = new LodGenerator().setRatios(0.5f, 0.2f).setChunkTriangles(500).generate(mesh);
+		
+		assertEquals(3, node.getLevelCount());
+		assertSame(mesh, node.getLevel(0));
+		int previous = triangles;
+		for (int i = 1; i < node.getLevelCount(); i++) {
+			Mesh level = node.getLevel(i);
+			int levelTriangles = WriteReadTest.readIndices(level).length / 3;
+			assertTrue(levelTriangles < previous);
+			assertTrue(level.getMeshData().getVertexCount() < mesh.getMeshData().getVertexCount());
+			assertNotNull(level.getMeshData().getNormalCoords());
+			assertNotNull(level.getMeshData().getTextureCoords(0));
+			previous = levelTriangles;
+		}
+		// borders are locked, so the targets are only approached
+		assertTrue(WriteReadTest.readIndices(node.getLevel(1)).length / 3 < triangles * 0.7);
+	}
+
+	@Test
+	public void testDeterministic() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.RAW));
+			CtmLodNode sequential = new LodGenerator().setChunkTriangles(300).generate(mesh);
+			CtmLodNode parallel = new LodGenerator().setChunkTriangles(300).setPool(pool).generate(mesh);
+			for (int i = 1; i < sequential.getLevelCount(); i++) {
+				assertArrayEquals(WriteReadTest.readIndices(sequential.getLevel(i)),
+						WriteReadTest.readIndices(parallel.getLevel(i)));
+				assertArrayEquals(WriteReadTest.readVertices(sequential.getLevel(i)),
+						WriteReadTest.readVertices(parallel.getLevel(i)), 0);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSwitchDistances() {
+		CtmLodNode node = new OpenCtmImporter().loadLod(TestMeshes.resource(TestMeshes.RAW),
+				new LodGenerator().setRatios(0.5f, 0.25f).setSwitchDistances(10, 20));
+		assertEquals(0, node.selectLevel(5));
+		assertEquals(1, node.selectLevel(10));
+		assertEquals(1, node.selectLevel(15));
+		assertEquals(2, node.selectLevel(100));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		LodGenerator generator = new LodGenerator().setRatios(0.5f);
+		CtmLodNode node = new OpenCtmImporter().loadLod(TestMeshes.resource(TestMeshes.RAW), generator);
+		
+		List<File> files = generator.save(node, folder.getRoot(), "teapot", new RawEncoder());
+		assertEquals("teapot_lod1.ctm", files.get(1).getName());
+		CtmLodNode loaded = generator.load(new OpenCtmImporter(), files);
+		
+		assertEquals("teapot", loaded.getName());
+		assertArrayEquals(node.getSwitchDistances(), loaded.getSwitchDistances(), 1e-6);
+		for (int i = 0; i < node.getLevelCount(); i++) {
+			assertArrayEquals(WriteReadTest.readIndices(node.getLevel(i)),
+					WriteReadTest.readIndices(loaded.getLevel(i)));
+		}
+	}
+
+}
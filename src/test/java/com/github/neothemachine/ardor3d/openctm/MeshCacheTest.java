@@ -0,0 +1,118 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.ardor3d.bounding.BoundingSphere;
+import com.ardor3d.scenegraph.Mesh;
+
+/**
+ * This tests whether cached meshes share the memory of their buffers,
+ * whether meshes imported with other settings are kept apart and whether
+ * the cache stays within its budget.
+ */
+public class MeshCacheTest {
+
+	@Test
+	public void testSharedBuffers() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache);
+		
+		Mesh first = importer.load(TestMeshes.resource(TestMeshes.MG2));
+		Mesh second = importer.load(TestMeshes.resource(TestMeshes.MG2));
+		
+		assertNotSame(first, second);
+		assertNotSame(first.getMeshData(), second.getMeshData());
+		assertArrayEquals(WriteReadTest.readVertices(first), WriteReadTest.readVertices(second), 0);
+		assertArrayEquals(WriteReadTest.readIndices(first), WriteReadTest.readIndices(second));
+		
+		// the same memory, but positions of their own
+		FloatBuffer firstVertices = first.getMeshData().getVertexBuffer();
+		FloatBuffer secondVertices = second.getMeshData().getVertexBuffer();
+		assertNotSame(firstVertices, secondVertices);
+		firstVertices.put(0, 42);
+		assertEquals(42, secondVertices.get(0), 0);
+		firstVertices.position(3);
+		assertEquals(0, secondVertices.position());
+		assertEquals(0, importer.load(TestMeshes.resource(TestMeshes.MG2)).getMeshData().getVertexBuffer().position());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void testSettingsInKey() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache);
+		
+		assertTrue(importer.load(TestMeshes.resource(TestMeshes.MG2)).getMeshData().getIndexBuffer() instanceof ShortBuffer);
+		importer.setCompactIndices(false);
+		assertTrue(importer.load(TestMeshes.resource(TestMeshes.MG2)).getMeshData().getIndexBuffer() instanceof IntBuffer);
+		importer.setInterleavedVertices(true);
+		assertNotNull(InterleavedVertexData.of(importer.load(TestMeshes.resource(TestMeshes.MG2))));
+		importer.setVertexCacheOptimizer(new VertexCacheOptimizer());
+		importer.load(TestMeshes.resource(TestMeshes.MG2));
+		importer.setVertexCacheOptimizer(new VertexCacheOptimizer().setCacheSize(16));
+		importer.load(TestMeshes.resource(TestMeshes.MG2));
+		importer.setSphereBounds(true);
+		assertTrue(importer.load(TestMeshes.resource(TestMeshes.MG2)).getModelBound() instanceof BoundingSphere);
+		assertEquals(0, cache.getHits());
+		
+		importer.setVertexCacheOptimizer(new VertexCacheOptimizer().setCacheSize(16));
+		importer.load(TestMeshes.resource(TestMeshes.MG2));
+		assertEquals(1, cache.getHits());
+		assertEquals(6, cache.getMisses());
+	}
+	
+	@Test
+	public void testStreamsNotCached() throws Exception {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		DirectBufferPool pool = new DirectBufferPool(Long.MAX_VALUE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache).setBufferPool(pool);
+		
+		Mesh teapot = importer.load(new StreamResource(new ByteArrayInputStream(bytes(TestMeshes.RAW))));
+		Mesh other = importer.load(new StreamResource(new ByteArrayInputStream(bytes(TestMeshes.MG1))));
+		
+		// streams have no key, so each is decoded and neither is cached
+		assertEquals(0, cache.getMeshCount());
+		assertEquals(0, cache.getHits());
+		assertNotSame(teapot.getMeshData().getVertexBuffer(), other.getMeshData().getVertexBuffer());
+		assertArrayEquals(WriteReadTest.readVertices(new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG1))),
+				WriteReadTest.readVertices(other), 0);
+		// and their buffers still come from the pool
+		assertTrue(pool.release(teapot));
+		assertTrue(pool.release(other));
+		assertEquals(0, pool.getLeasedBytes());
+	}
+
+	@Test
+	public void testEviction() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache);
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		// room for exactly one teapot
+		cache = new CtmMeshCache(cache.getSize());
+		importer.setMeshCache(cache);
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		importer.load(TestMeshes.resource(TestMeshes.MG1));
+		
+		assertEquals(1, cache.getMeshCount());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getSize() <= cache.getBudget());
+	}
+
+	private static byte[] bytes(String name) throws Exception {
+		try (InputStream input = TestMeshes.resource(name).openStream()) {
+			return IOUtils.toByteArray(input);
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ardor3d.util.resource.URLResourceSource;
+
+/**
+ * This tests whether every import reports its timings and byte counts and
+ * whether the aggregator sums them up.
+ */
+public class MetricsTest {
+
+	@Test
+	public void testStats() throws Exception {
+		for (String name : TestMeshes.ALL) {
+			for (boolean mapped : new boolean[] {false, true}) {
+				RecordingListener listener = new RecordingListener();
+				URLResourceSource resource = TestMeshes.resource(name);
+				new OpenCtmImporter()
+					.setMemoryMapping(mapped)
+					.setMetricsListener(listener)
+					.load(resource);
+				
+				assertEquals(1, listener.stats.size());
+				ImportStats stats = listener.stats.get(0);
+				assertNull(stats.getFailure());
+				assertFalse(stats.isCacheHit());
+				assertEquals(resource.getName(), stats.getResourceName());
+				assertNotNull(stats.getMethod());
+				long fileSize = new File(resource.getURL().toURI()).length();
+				assertTrue(stats.getBytesRead() > 0);
+				assertTrue(stats.getBytesRead() <= fileSize);
+				
+				long phases = 0;
+				for (ImportPhase phase : ImportPhase.values()) {
+					assertTrue(stats.getNanos(phase) >= 0);
+					phases += stats.getNanos(phase);
+				}
+				assertTrue(stats.getTotalNanos() >= phases);
+				assertTrue(stats.getNanos(ImportPhase.FILL) > 0);
+				assertEquals(stats.getMethod() != CtmMethod.RAW, stats.getNanos(ImportPhase.DECODE) > 0);
+				
+				// indices, vertices, normals and the UV map
+				assertEquals(4, stats.getSections().size());
+				assertEquals("INDX", stats.getSections().get(0).getTag());
+				assertEquals("VERT", stats.getSections().get(1).getTag());
+				for (ImportStats.Section section : stats.getSections()) {
+					assertTrue(section.getDecodedBytes() > 0);
+					if (stats.getMethod() == CtmMethod.RAW) {
+						assertTrue(section.getStoredBytes() >= section.getDecodedBytes());
+					} else {
+						assertEquals(-1, section.getStoredBytes());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCacheHitAndFailure() {
+		RecordingListener listener = new RecordingListener();
+		OpenCtmImporter importer = new OpenCtmImporter()
+			.setMeshCache(new CtmMeshCache(Long.MAX_VALUE))
+			.setMetricsListener(listener);
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		importer.load(TestMeshes.resource(TestMeshes.RAW));
+		try {
+			importer.load(new URLResourceSource(getClass().getResource("MetricsTest.class")));
+			fail();
+		} catch (RuntimeException e) {
+			// not a CTM file
+		}
+		
+		assertEquals(3, listener.stats.size());
+		assertFalse(listener.stats.get(0).isCacheHit());
+		assertTrue(listener.stats.get(1).isCacheHit());
+		assertNotNull(listener.stats.get(2).getFailure());
+	}
+
+	@Test
+	public void testAggregator() {
+		CtmMetricsAggregator aggregator = new CtmMetricsAggregator();
+		OpenCtmImporter importer = new OpenCtmImporter().setMetricsListener(aggregator);
+		for (String name : TestMeshes.ALL) {
+			importer.load(TestMeshes.resource(name));
+		}
+		
+		assertEquals(TestMeshes.ALL.length, aggregator.getImportCount());
+		assertEquals(0, aggregator.getFailureCount());
+		assertEquals(TestMeshes.ALL.length, aggregator.getHistogram(ImportPhase.FILL).getCount());
+		// only the RAW sections are timed separately
+		assertEquals(1, aggregator.getSectionHistogram("VERT").getCount());
+		assertTrue(aggregator.getDecodedBytes() > aggregator.getStoredBytes());
+		
+		String dump = aggregator.dump();
+		assertTrue(dump.contains("DECODE nanos"));
+		assertTrue(dump.contains("VERT section nanos"));
+		
+		aggregator.reset();
+		assertEquals(0, aggregator.getImportCount());
+		assertEquals(0, aggregator.getHistogram(ImportPhase.FILL).getCount());
+	}
+
+	@Test
+	public void testHistogram() {
+		CtmMetricsAggregator.Histogram histogram = new CtmMetricsAggregator.Histogram();
+		for (int i = 0; i < 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(99, histogram.getMax());
+		assertEquals(1, histogram.getBucket(0));
+		assertEquals(1, histogram.getBucket(1));
+		assertEquals(2, histogram.getBucket(2));
+		// 50 lies in [32, 64)
+		assertEquals(63, histogram.getPercentile(0.5));
+		assertEquals(99, histogram.getPercentile(1));
+	}
+
+	private static class RecordingListener implements CtmMetricsListener {
+
+		final List<ImportStats> stats = new ArrayList<ImportStats>();
+
+		@Override
+		public void importFinished(ImportStats stats) {
+			this.stats.add(stats);
+		}
+	}
+
+}
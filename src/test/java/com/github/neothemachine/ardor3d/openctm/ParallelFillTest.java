@@ -0,0 +1,145 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ardor3d.bounding.BoundingBox;
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
+import com.ardor3d.scenegraph.shape.Sphere;
+import com.ardor3d.util.geom.BufferUtils;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+
+/**
+ * This tests whether buffers filled on a fork/join pool match the ones
+ * filled on the loading thread, for meshes large enough to be split into
+ * ranges, and whether UV maps and attribute maps decoded on the pool match
+ * the ones JOpenCTM decodes.
+ */
+public class ParallelFillTest {
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@After
+	public void tearDown() {
+		this.pool.shutdown();
+	}
+
+	@Test
+	public void testReferenceFiles() {
+		for (String name : new String[] {TestMeshes.MG1, TestMeshes.MG2}) {
+			Mesh serial = new OpenCtmImporter().load(TestMeshes.resource(name));
+			Mesh parallel = new OpenCtmImporter().setDecodePool(this.pool)
+				.load(TestMeshes.resource(name));
+			check(serial, parallel);
+		}
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		// 512 * 512 vertices are split into several ranges per channel
+		Mesh sphere = new Sphere("sphere", 512, 512, 1);
+		for (MeshEncoder encoder : new MeshEncoder[] {new MG1Encoder(), new MG2Encoder()}) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new OpenCtmExporter().save(sphere, output, encoder);
+			Mesh serial = new OpenCtmImporter().load(
+					new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			Mesh parallel = new OpenCtmImporter().setDecodePool(this.pool).load(
+					new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			check(serial, parallel);
+		}
+	}
+
+	@Test
+	public void testMaps() throws Exception {
+		Mesh sphere = new Sphere("sphere", 128, 128, 1);
+		MeshData meshData = sphere.getMeshData();
+		int vertexCount = meshData.getVertexCount();
+		meshData.setTextureCoords(new FloatBufferData(
+				BufferUtils.createFloatBuffer(values(vertexCount * 2, 3)), 2), 1);
+		meshData.setTextureCoords(new FloatBufferData(
+				BufferUtils.createFloatBuffer(values(vertexCount * 4, 5)), 4), 2);
+		meshData.setColorBuffer(BufferUtils.createFloatBuffer(values(vertexCount * 4, 7)));
+		
+		for (MeshEncoder encoder : new MeshEncoder[] {new MG1Encoder(), new MG2Encoder()}) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new OpenCtmExporter().save(sphere, output, encoder);
+			Mesh serial = createImporter().load(
+					new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			Mesh parallel = createImporter().setDecodePool(this.pool).load(
+					new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			check(serial, parallel);
+			for (int unit = 1; unit <= 2; unit++) {
+				assertArrayEquals(read(serial.getMeshData().getTextureBuffer(unit)),
+						read(parallel.getMeshData().getTextureBuffer(unit)), 0);
+			}
+			assertArrayEquals(read(serial.getMeshData().getColorBuffer()),
+					read(parallel.getMeshData().getColorBuffer()), 0);
+			
+			// maps left out are skipped on the pool as well
+			Mesh skipped = createImporter().setDecodePool(this.pool)
+				.setImportOptions(new CtmImportOptions().setUVMap(0, false))
+				.load(new StreamResource(new ByteArrayInputStream(output.toByteArray())));
+			assertNull(skipped.getMeshData().getTextureCoords(0));
+			assertArrayEquals(read(serial.getMeshData().getTextureBuffer(1)),
+					read(skipped.getMeshData().getTextureBuffer(1)), 0);
+		}
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		Mesh sphere = new Sphere("sphere", 512, 512, 1);
+		for (MeshEncoder encoder : new MeshEncoder[] {new MG1Encoder(), new MG2Encoder()}) {
+			ByteArrayOutputStream serial = new ByteArrayOutputStream();
+			new OpenCtmExporter().save(sphere, serial, encoder);
+			ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+			new OpenCtmExporter().setPool(this.pool).save(sphere, parallel, encoder);
+			assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+		}
+	}
+
+	private static OpenCtmImporter createImporter() {
+		return new OpenCtmImporter().setAttributeMapping(OpenCtmExporter.attributeMapName(2), 2);
+	}
+
+	private static float[] values(int count, int seed) {
+		float[] values = new float[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = (i * seed % 256) / 255f;
+		}
+		return values;
+	}
+
+	private static float[] read(FloatBuffer buffer) {
+		float[] values = new float[buffer.limit()];
+		buffer.rewind();
+		buffer.get(values);
+		return values;
+	}
+
+	private static void check(Mesh serial, Mesh parallel) {
+		assertArrayEquals(WriteReadTest.readIndices(serial), WriteReadTest.readIndices(parallel));
+		assertArrayEquals(WriteReadTest.readVertices(serial), WriteReadTest.readVertices(parallel), 0);
+		assertArrayEquals(WriteReadTest.readNormals(serial), WriteReadTest.readNormals(parallel), 0);
+		assertArrayEquals(WriteReadTest.readUVMap(serial), WriteReadTest.readUVMap(parallel), 0);
+		// the bounds of all ranges are merged
+		BoundingBox serialBound = (BoundingBox) serial.getModelBound();
+		BoundingBox parallelBound = (BoundingBox) parallel.getModelBound();
+		assertEquals(serialBound.getCenter(), parallelBound.getCenter());
+		assertEquals(serialBound.getXExtent(), parallelBound.getXExtent(), 0);
+		assertEquals(serialBound.getYExtent(), parallelBound.getYExtent(), 0);
+		assertEquals(serialBound.getZExtent(), parallelBound.getZExtent(), 0);
+	}
+
+}
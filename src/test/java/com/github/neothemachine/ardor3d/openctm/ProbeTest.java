@@ -0,0 +1,113 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.shape.Teapot;
+import com.ardor3d.util.resource.URLResourceSource;
+
+import darwin.jopenctm.compression.MG1Encoder;
+import darwin.jopenctm.compression.MG2Encoder;
+import darwin.jopenctm.compression.MeshEncoder;
+import darwin.jopenctm.compression.RawEncoder;
+import darwin.jopenctm.data.AttributeData;
+import darwin.jopenctm.io.CtmFileWriter;
+
+/**
+ * This tests whether probing reports the same counts as loading and finds
+ * the names of all sections.
+ */
+public class ProbeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReferenceFiles() {
+		OpenCtmImporter importer = new OpenCtmImporter();
+		String[] names = TestMeshes.ALL;
+		CtmMethod[] methods = {CtmMethod.RAW, CtmMethod.MG1, CtmMethod.MG2};
+		for (int i = 0; i < names.length; i++) {
+			CtmMeshInfo info = importer.probe(TestMeshes.resource(names[i]));
+			Mesh mesh = importer.load(TestMeshes.resource(names[i]));
+			
+			assertEquals(methods[i], info.getMethod());
+			assertEquals(mesh.getMeshData().getVertexCount(), info.getVertexCount());
+			assertEquals(mesh.getMeshData().getIndices().getBufferLimit(), info.getTriangleCount() * 3);
+			assertTrue(info.hasNormals());
+			assertEquals(1, info.getUVMapCount());
+			assertEquals(1, info.getUVMapNames().size());
+		}
+	}
+
+	@Test
+	public void testSectionNames() throws Exception {
+		MeshEncoder[] encoders = {new RawEncoder(), new MG1Encoder(), new MG2Encoder()};
+		for (MeshEncoder enc : encoders) {
+			File file = write(folder.newFile(), enc);
+			CtmMeshInfo info = new OpenCtmImporter().probe(new URLResourceSource(file.toURI().toURL()));
+			
+			assertEquals("probe test", info.getComment());
+			assertEquals(Arrays.asList("diffuse", "lightmap"), info.getUVMapNames());
+			assertEquals(Arrays.asList("diffuse.png", "lightmap.png"), info.getUVMapFileNames());
+			assertEquals(Arrays.asList("Color", "Occlusion"), info.getAttributeMapNames());
+		}
+	}
+
+	@Test
+	public void testProbeAll() throws Exception {
+		File directory = folder.newFolder("models");
+		File subdirectory = new File(directory, "sub");
+		assertTrue(subdirectory.mkdir());
+		File first = write(new File(directory, "first.ctm"), new RawEncoder());
+		File second = write(new File(subdirectory, "second.CTM"), new MG1Encoder());
+		assertTrue(new File(directory, "broken.ctm").createNewFile());
+		assertTrue(new File(directory, "readme.txt").createNewFile());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Map<File, CtmMeshInfo> infos = new OpenCtmBatchImporter(
+					new OpenCtmImporter(), executor).probeAll(directory);
+			assertEquals(2, infos.size());
+			assertEquals(CtmMethod.RAW, infos.get(first).getMethod());
+			assertEquals(CtmMethod.MG1, infos.get(second).getMethod());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private File write(File file, MeshEncoder enc) throws Exception {
+		Mesh teapot = new Teapot("teapot");
+		float[] uvMap = WriteReadTest.readUVMap(teapot);
+		float[] attribute = new float[teapot.getMeshData().getVertexCount() * 4];
+		AttributeData[] uvMaps = {
+				new AttributeData("diffuse", "diffuse.png", 1f / 4096, uvMap),
+				new AttributeData("lightmap", "lightmap.png", 1f / 4096, uvMap)};
+		AttributeData[] attributes = {
+				new AttributeData("Color", null, 1f / 256, attribute),
+				new AttributeData("Occlusion", null, 1f / 256, attribute)};
+		darwin.jopenctm.data.Mesh ctmMesh = new darwin.jopenctm.data.Mesh(
+				WriteReadTest.readVertices(teapot), WriteReadTest.readNormals(teapot),
+				WriteReadTest.readIndices(teapot), uvMaps, attributes);
+		
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			new CtmFileWriter(output, enc).encode(ctmMesh, "probe test");
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+
+}
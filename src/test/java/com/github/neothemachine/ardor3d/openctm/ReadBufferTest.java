@@ -0,0 +1,92 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+
+import darwin.jopenctm.io.CtmFileReader;
+
+/**
+ * This tests whether streamed loads reuse the blocks of the pool, work
+ * with any block size and close their sources.
+ */
+public class ReadBufferTest {
+
+	@Test
+	public void testBlocksReused() {
+		ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.DEFAULT_BLOCK_SIZE, 2);
+		OpenCtmImporter importer = new OpenCtmImporter().setReadBufferPool(pool);
+		for (int i = 0; i < 3; i++) {
+			for (String name : TestMeshes.ALL) {
+				importer.load(TestMeshes.resource(name));
+			}
+		}
+		assertEquals(1, pool.getAllocationCount());
+		assertEquals(1, pool.getPooledCount());
+	}
+
+	@Test
+	public void testBlockSizes() {
+		for (String name : TestMeshes.ALL) {
+			Mesh reference = new OpenCtmImporter().setReadBufferPool(null).load(TestMeshes.resource(name));
+			for (int blockSize : new int[] {16, 100, 4096}) {
+				Mesh mesh = new OpenCtmImporter()
+					.setReadBufferPool(new ReadBufferPool(blockSize, 1))
+					.load(TestMeshes.resource(name));
+				
+				assertArrayEquals(WriteReadTest.readVertices(reference), WriteReadTest.readVertices(mesh), 0);
+				assertArrayEquals(WriteReadTest.readNormals(reference), WriteReadTest.readNormals(mesh), 0);
+				assertArrayEquals(WriteReadTest.readUVMap(reference), WriteReadTest.readUVMap(mesh), 0);
+				assertArrayEquals(WriteReadTest.readIndices(reference), WriteReadTest.readIndices(mesh));
+			}
+		}
+	}
+
+	@Test
+	public void testSourceClosed() throws Exception {
+		ReadBufferPool pool = new ReadBufferPool(1024, 1);
+		TrackingStream source = new TrackingStream(TestMeshes.resource(TestMeshes.MG1).openStream());
+		CtmStreamInput input = new CtmStreamInput(source, pool);
+		CtmHeader header = CtmHeader.read(input);
+		InputStream rest = new SequenceInputStream(
+				new ByteArrayInputStream(header.toByteArray()), input.remainingStream());
+		darwin.jopenctm.data.Mesh mesh = new CtmFileReader(rest).decode();
+		assertTrue(mesh.vertices.length > 0);
+		assertFalse(source.closed);
+		assertEquals(0, pool.getPooledCount());
+		
+		input.close();
+		input.close();
+		assertTrue(source.closed);
+		assertEquals(1, pool.getPooledCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTinyBlocks() {
+		new ReadBufferPool(4, 1);
+	}
+
+	private static class TrackingStream extends FilterInputStream {
+
+		boolean closed;
+
+		TrackingStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.closed = true;
+			super.close();
+		}
+	}
+
+}
@@ -7,12 +7,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.ardor3d.bounding.BoundingBox;
 import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.URLResourceSource;
 
 import darwin.jopenctm.compression.RawEncoder;
 import darwin.jopenctm.data.AttributeData;
@@ -71,6 +74,44 @@ public class TeapotReferenceTest {
 		assertEquals(117.1, mesh.getModelBound().getVolume(), 0.1);
 	}
 	
+	@Test
+	public void testMappedRAW() {
+		
+		Mesh mesh = loadMappedMesh("teapot_ref_raw.ctm");
+		
+		assertArrayEquals(getVertices(), WriteReadTest.readVertices(mesh), Float.MIN_VALUE);
+		assertArrayEquals(getNormals(), WriteReadTest.readNormals(mesh), Float.MIN_VALUE);
+		assertArrayEquals(getUVMap(), WriteReadTest.readUVMap(mesh), Float.MIN_VALUE);
+		assertArrayEquals(getIndices(), WriteReadTest.readIndices(mesh));
+	}
+	
+	@Test
+	public void testMappedMG1() {
+		
+		Mesh mesh = loadMappedMesh("teapot_ref_mg1.ctm");
+		
+		assertArrayEquals(getVertices(), WriteReadTest.readVertices(mesh), Float.MIN_VALUE);
+		assertEquals(getIndices().length, WriteReadTest.readIndices(mesh).length);
+	}
+	
+	@Test
+	public void testCompactIndices() {
+		URLResourceSource raw = new URLResourceSource(getClass().getClassLoader().getResource("teapot_ref_raw.ctm"));
+		URLResourceSource mg2 = new URLResourceSource(getClass().getClassLoader().getResource("teapot_ref_mg2.ctm"));
+		
+		assertTrue(new OpenCtmImporter().load(raw).getMeshData().getIndices().getBuffer() instanceof ShortBuffer);
+		assertTrue(new OpenCtmImporter().load(mg2).getMeshData().getIndices().getBuffer() instanceof ShortBuffer);
+		
+		Mesh mesh = new OpenCtmImporter().setCompactIndices(false).load(raw);
+		assertTrue(mesh.getMeshData().getIndices().getBuffer() instanceof IntBuffer);
+		assertArrayEquals(getIndices(), WriteReadTest.readIndices(mesh));
+	}
+	
+	private Mesh loadMappedMesh(String path) {
+		OpenCtmImporter importer = new OpenCtmImporter().setMemoryMapping(true);
+		return importer.load(new URLResourceSource(getClass().getClassLoader().getResource(path)));
+	}
+	
 	private Mesh loadMesh(String path) throws FileNotFoundException {
 		OpenCtmImporter importer = new OpenCtmImporter();
 		FileInputStream input = new FileInputStream(getResource(path));
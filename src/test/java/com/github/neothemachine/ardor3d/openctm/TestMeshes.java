@@ -0,0 +1,71 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.util.resource.URLResourceSource;
+
+/**
+ * The reference teapots and helpers shared by the tests.
+ */
+final class TestMeshes {
+
+	static final String RAW = "teapot_ref_raw.ctm";
+	static final String MG1 = "teapot_ref_mg1.ctm";
+	static final String MG2 = "teapot_ref_mg2.ctm";
+	static final String[] ALL = {RAW, MG1, MG2};
+
+	private TestMeshes() {
+	}
+
+	static URLResourceSource resource(String name) {
+		return new URLResourceSource(TestMeshes.class.getClassLoader().getResource(name));
+	}
+
+	/**
+	 * @return the triangles as their vertex positions, which don't depend on
+	 *         the vertex order
+	 */
+	static List<String> triangles(Mesh mesh) {
+		float[] vertices = WriteReadTest.readVertices(mesh);
+		int[] indices = WriteReadTest.readIndices(mesh);
+		List<String> triangles = new ArrayList<String>();
+		for (int i = 0; i < indices.length; i += 3) {
+			StringBuilder triangle = new StringBuilder();
+			for (int k = 0; k < 3; k++) {
+				int v = indices[i + k] * 3;
+				triangle.append(vertices[v]).append(',').append(vertices[v + 1]).append(',')
+						.append(vertices[v + 2]).append(';');
+			}
+			triangles.add(triangle.toString());
+		}
+		return triangles;
+	}
+
+	/**
+	 * @return the heap allocation counter of the JVM, or null if it has none
+	 */
+	static com.sun.management.ThreadMXBean allocationCounter() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		if (!allocations.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		return allocations;
+	}
+
+	/**
+	 * @return the heap allocated by the calling thread so far
+	 */
+	static long allocatedBytes(com.sun.management.ThreadMXBean allocations) {
+		return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
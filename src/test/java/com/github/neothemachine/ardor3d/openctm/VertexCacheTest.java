@@ -0,0 +1,142 @@
+package com.github.neothemachine.ardor3d.openctm;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.shape.Sphere;
+
+import darwin.jopenctm.compression.RawEncoder;
+
+/**
+ * This tests whether the vertex cache optimization keeps all triangles and
+ * lowers the ACMR.
+ */
+public class VertexCacheTest {
+
+	@Test
+	public void testAcmr() {
+		// two triangles sharing an edge, all vertices fit into the cache
+		assertEquals(2.0, VertexCacheOptimizer.acmr(new int[] {0, 1, 2, 2, 1, 3}, 4), 0);
+		// with a cache of one vertex, every shared vertex is transformed again
+		assertEquals(3.0, VertexCacheOptimizer.acmr(new int[] {0, 1, 2, 2, 1, 3}, 1), 0);
+	}
+
+	@Test
+	public void testImport() {
+		Mesh reference = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG1));
+		Mesh mesh = new OpenCtmImporter()
+			.setVertexCacheOptimizer(new VertexCacheOptimizer())
+			.load(TestMeshes.resource(TestMeshes.MG1));
+		
+		assertEquals(sortedTriangles(reference), sortedTriangles(mesh));
+		int[] indices = WriteReadTest.readIndices(mesh);
+		assertTrue(VertexCacheOptimizer.acmr(indices, 32)
+				<= VertexCacheOptimizer.acmr(WriteReadTest.readIndices(reference), 32));
+		// vertices are stored in the order of first use
+		int next = 0;
+		for (int index : indices) {
+			assertTrue(index <= next);
+			if (index == next) {
+				next++;
+			}
+		}
+	}
+
+	@Test
+	public void testListener() {
+		final List<ImportStage> stages = new ArrayList<ImportStage>();
+		final List<int[]> published = new ArrayList<int[]>();
+		Mesh mesh = new OpenCtmImporter()
+			.setVertexCacheOptimizer(new VertexCacheOptimizer())
+			.load(TestMeshes.resource(TestMeshes.RAW), new CtmImportListener() {
+				@Override
+				public void stageCompleted(Mesh mesh, ImportStage stage, int index) {
+					stages.add(stage);
+					if (stage == ImportStage.INDICES) {
+						published.add(WriteReadTest.readIndices(mesh));
+					}
+				}
+			});
+		
+		assertEquals(ImportStage.HEADER, stages.get(0));
+		assertTrue(stages.contains(ImportStage.VERTICES));
+		// listeners only see the optimized buffers
+		assertEquals(1, published.size());
+		assertArrayEquals(WriteReadTest.readIndices(mesh), published.get(0));
+	}
+
+	@Test
+	public void testOptimizerCopied() {
+		CtmMeshCache cache = new CtmMeshCache(Long.MAX_VALUE);
+		VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+		OpenCtmImporter importer = new OpenCtmImporter().setMeshCache(cache)
+			.setVertexCacheOptimizer(optimizer);
+		Mesh optimized = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		// changing the optimizer afterwards affects neither the import nor
+		// the key
+		optimizer.setReorderVertices(false);
+		Mesh again = importer.load(TestMeshes.resource(TestMeshes.RAW));
+		
+		assertEquals(1, cache.getHits());
+		assertArrayEquals(WriteReadTest.readIndices(optimized), WriteReadTest.readIndices(again));
+	}
+
+	@Test
+	public void testScrambled() {
+		Mesh mesh = new Sphere("sphere", 64, 64, 1);
+		int[] indices = WriteReadTest.readIndices(mesh);
+		// a bad order: every other triangle first
+		int[] scrambled = new int[indices.length];
+		int out = 0;
+		for (int start = 0; start < 2; start++) {
+			for (int t = start; t < indices.length / 3; t += 2) {
+				System.arraycopy(indices, t * 3, scrambled, out, 3);
+				out += 3;
+			}
+		}
+		for (int i = 0; i < scrambled.length; i++) {
+			mesh.getMeshData().getIndices().put(i, scrambled[i]);
+		}
+		List<String> before = sortedTriangles(mesh);
+		
+		VertexCacheOptimizer.Result result = new VertexCacheOptimizer().optimize(mesh);
+		
+		assertEquals(before, sortedTriangles(mesh));
+		assertTrue(result.toString(), result.getAcmrAfter() < result.getAcmrBefore());
+		assertTrue(result.toString(), result.getAcmrAfter() < 1.0);
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		Mesh mesh = new OpenCtmImporter().load(TestMeshes.resource(TestMeshes.MG1));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new OpenCtmExporter().setVertexCacheOptimizer(new VertexCacheOptimizer())
+			.save(mesh, output, new RawEncoder());
+		Mesh loaded = new OpenCtmImporter().load(new StreamResource(
+				new ByteArrayInputStream(output.toByteArray())));
+		
+		assertEquals(sortedTriangles(mesh), sortedTriangles(loaded));
+		assertTrue(VertexCacheOptimizer.acmr(WriteReadTest.readIndices(loaded), 32)
+				<= VertexCacheOptimizer.acmr(WriteReadTest.readIndices(mesh), 32));
+	}
+
+	/**
+	 * @return the sorted triangles as vertex positions, which don't depend on
+	 *         the order of vertices or triangles
+	 */
+	private static List<String> sortedTriangles(Mesh mesh) {
+		List<String> triangles = TestMeshes.triangles(mesh);
+		Collections.sort(triangles);
+		return triangles;
+	}
+
+}
@@ -71,12 +71,38 @@ public class WriteReadTest {
 		testEncoder(meshes, new MG2Encoder());
 	}
 	
+	@Test
+	public void testExporterRaw() throws Exception {
+		testExporter(meshes, new RawEncoder());
+	}
+	
+	@Test
+	public void testExporterMG1() throws Exception {
+		testExporter(meshes, new MG1Encoder());
+	}
+	
+	@Test
+	public void testExporterMG2() throws Exception {
+		testExporter(meshes, new MG2Encoder());
+	}
+	
 	private void testEncoder(Mesh[] meshes, MeshEncoder enc) throws Exception {
 		for (Mesh mesh : meshes) {
 			writeAndReadMesh(mesh, enc);
 		}
 	}
 	
+	private void testExporter(Mesh[] meshes, MeshEncoder enc) throws Exception {
+		for (Mesh mesh : meshes) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			new OpenCtmExporter().save(mesh, output, enc);
+			
+			ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+			Mesh loadedMesh = new OpenCtmImporter().load(new StreamResource(input));
+			check(mesh, loadedMesh, enc);
+		}
+	}
+	
 	private void writeAndReadMesh(Mesh mesh, MeshEncoder enc) throws Exception {
 		
 		float[] vertices = readVertices(mesh);		